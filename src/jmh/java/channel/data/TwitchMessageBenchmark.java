@@ -0,0 +1,91 @@
+package channel.data;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the regex based message simplification TwitchMessage used to do with the single char loop it does now,
+ * both for one payload and for checking a payload against the message blacklist. The old blacklist check simplified
+ * every blacklisted message again for each chat message; the new one is one lookup of the precomputed payload.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TwitchMessageBenchmark {
+    private static final String[] PAYLOADS = {
+            "When is the WAN show starting?",
+            "LUL",
+            "Does anyone know if the new GPU is worth it over the old one for 1440p gaming",
+            "Kappa Kappa Kappa",
+            "BUY CHEAP FOLLOWERS AT example dot com"
+    };
+
+    @Param({"10", "100"})
+    private int blockedMessageCount;
+
+    private List<String> blockedMessages;
+    private Set<String> simpleBlockedMessages;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        blockedMessages = new ArrayList<>();
+        for(int i = 0; i < blockedMessageCount; i++) blockedMessages.add("Blocked Message Number " + i);
+        simpleBlockedMessages = new HashSet<>();
+        for(String blockedMessage : blockedMessages) simpleBlockedMessages.add(TwitchMessage.simplifyMessage(blockedMessage));
+    }
+
+    private String nextPayload() {
+        next = (next + 1) % PAYLOADS.length;
+        return PAYLOADS[next];
+    }
+
+    @Benchmark
+    public String simplifyWithRegex() {
+        return regexSimplify(nextPayload());
+    }
+
+    @Benchmark
+    public String simplifyWithCharLoop() {
+        return TwitchMessage.simplifyMessage(nextPayload());
+    }
+
+    @Benchmark
+    public boolean blacklistScanWithRegex() {
+        String simplePayload = regexSimplify(nextPayload());
+        for(String blockedMessage : blockedMessages) {
+            if(simplePayload.equals(regexSimplify(blockedMessage))) return true;
+        }
+        return false;
+    }
+
+    @Benchmark
+    public boolean blacklistLookupOfPrecomputedPayload() {
+        return simpleBlockedMessages.contains(TwitchMessage.simplifyMessage(nextPayload()));
+    }
+
+    /**
+     * How TwitchMessage simplified payloads before.
+     */
+    private static String regexSimplify(String payload) {
+        return payload.replaceAll(" ", "").toLowerCase();
+    }
+}
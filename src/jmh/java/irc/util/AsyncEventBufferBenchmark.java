@@ -0,0 +1,105 @@
+package irc.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the lock free AsyncEventBuffer with the synchronized buffer it replaced, with 1, 4 and 16 threads polling
+ * the same buffer. The buffers use the Twitch limit of 20 messages per 30 seconds, so after the first few calls every
+ * poll is rejected, as it is for a sender waiting on a full window.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AsyncEventBufferBenchmark {
+    private static final int MAX_EVENT_COUNT = 20;
+    private static final int WINDOW_SECONDS = 30;
+
+    private AsyncEventBuffer lockFreeBuffer;
+    private SynchronizedEventBuffer synchronizedBuffer;
+
+    @Setup
+    public void setUp() {
+        lockFreeBuffer = new AsyncEventBuffer(MAX_EVENT_COUNT, WINDOW_SECONDS);
+        synchronizedBuffer = new SynchronizedEventBuffer(MAX_EVENT_COUNT, WINDOW_SECONDS);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean lockFree1Thread() {
+        return lockFreeBuffer.tryAcquire();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean lockFree4Threads() {
+        return lockFreeBuffer.tryAcquire();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public boolean lockFree16Threads() {
+        return lockFreeBuffer.tryAcquire();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean synchronized1Thread() {
+        return synchronizedBuffer.addMessage();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean synchronized4Threads() {
+        return synchronizedBuffer.addMessage();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public boolean synchronized16Threads() {
+        return synchronizedBuffer.addMessage();
+    }
+
+    /**
+     * The previous AsyncEventBuffer, kept as the baseline.
+     */
+    static class SynchronizedEventBuffer {
+        private long[] messageQueue;
+        private int maxEventCount;
+        private int eventLifeTimeMillis;
+
+        private int iteratorIndex = 0;
+
+        SynchronizedEventBuffer(int maxEventCount, int eventLifeTimeSeconds) {
+            messageQueue = new long[maxEventCount];
+            this.maxEventCount = maxEventCount;
+            eventLifeTimeMillis = eventLifeTimeSeconds * 1000;
+            Arrays.fill(messageQueue, System.currentTimeMillis() - eventLifeTimeMillis);
+        }
+
+        synchronized boolean addMessage() {
+            if (messageQueue[iteratorIndex] < System.currentTimeMillis()) {
+                messageQueue[iteratorIndex++] = System.currentTimeMillis() + eventLifeTimeMillis;
+                if(iteratorIndex == maxEventCount) iteratorIndex = 0;
+                return true;
+            } else {
+                return false;
+            }
+        }
+    }
+}
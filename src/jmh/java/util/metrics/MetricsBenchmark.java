@@ -0,0 +1,73 @@
+package util.metrics;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of recording to the metrics on the message path, from one thread and from 4 threads sharing the
+ * same metric as the IRC reader and consumer stages do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricsBenchmark {
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private final Counter counter = new Counter();
+
+    /**
+     * Durations from 1us to about 1ms, so recording touches many buckets as it does in use. Held per thread so
+     * threads only share the metric.
+     */
+    @State(Scope.Thread)
+    public static class Durations {
+        private long duration;
+
+        long next() {
+            duration = (duration * 31 + 1000) & 0xFFFFF;
+            return duration;
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void histogramRecord1Thread(Durations durations) {
+        histogram.record(durations.next());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void histogramRecord4Threads(Durations durations) {
+        histogram.record(durations.next());
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void histogramRecordSince1Thread() {
+        histogram.recordSince(System.nanoTime());
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void counterIncrement1Thread() {
+        counter.increment();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void counterIncrement4Threads() {
+        counter.increment();
+    }
+}
@@ -1,13 +1,34 @@
 import channel.ChannelManager;
+import channel.ChannelRegistry;
+import channel.blacklist.AhoCorasickMatcher;
+import channel.blacklist.PatternBlacklist;
+import channel.blacklist.PatternRule;
+import channel.commands.CommandManager;
+import channel.commands.CommandResponse;
+import channel.commands.CooldownFallback;
+import channel.commands.ResponseCoalescer;
+import channel.commands.SimpleCommand;
+import channel.commands.TwitchCommand;
 import channel.message.ImmutableTwitchMessageList;
+import channel.data.CharClass;
+import channel.data.MessageFeatures;
 import channel.data.TwitchMessage;
 import channel.data.TwitchUser;
 import channel.permissions.UserPermission;
+import channel.spam.BanPolicy;
+import channel.spam.ChannelFloodDetector;
+import channel.state.ModerationState;
+import channel.spam.DefenceMode;
+import channel.spam.RepeatedSubstringDetector;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
+import com.google.inject.assistedinject.Assisted;
 import com.google.inject.name.Named;
 import irc.sender.PrivateMessageSender;
 import irc.sender.PublicMessageSender;
+import irc.util.MessagePriority;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.joda.time.DateTime;
@@ -15,9 +36,23 @@ import org.joda.time.DateTimeZone;
 import org.joda.time.Period;
 import org.joda.time.format.ISODateTimeFormat;
 import util.BitlyDecorator;
+import util.ChatArchive;
 import util.DateTimeUtil;
+import util.metrics.Counter;
+import util.metrics.LatencyHistogram;
+import util.metrics.MetricRegistry;
 
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
@@ -31,8 +66,13 @@ public class BotController {
 
 
 	  private Logger log = LogManager.getLogger();
-	  private Logger messageLog = LogManager.getLogger("Message Log");
-  	private Logger actionLog = LogManager.getLogger("Action Log");
+	  private ChatArchive chatArchive;
+    private MetricRegistry metricRegistry;
+    private Counter processedMessageCount;
+    private LatencyHistogram processHistogram;
+    private LatencyHistogram commandHistogram;
+    private LatencyHistogram messageCheckerHistogram;
+    private LatencyHistogram spamDetectorHistogram;
 
     private DateTimeUtil dateTimeUtil;
     private MessageRepeater messageRepeater;
@@ -41,9 +81,13 @@ public class BotController {
 
 	  private ChannelManager channelManager;
 	  private Set<String> blockedWords;
+	  private volatile AhoCorasickMatcher blockedWordMatcher = AhoCorasickMatcher.empty();
 	  private Set<String> blockedMessage;
+	  private volatile Set<String> simpleBlockedMessages = ImmutableSet.of();
+    private List<PatternRule> blockedPatterns = new ArrayList<>();
+    private volatile PatternBlacklist blockedPatternMatcher = PatternBlacklist.empty();
 
-	  private String lastHostLink;
+	  private volatile String lastHostLink;
 
 	  private int maxMsg = 20;
 	  private int linkRepeatCountHost = 7;
@@ -54,35 +98,68 @@ public class BotController {
 	  private float msgpersec = 2.5f;
 	  private int longestSubStringAllowed = 13;
 	  private int repetitionSearch = 4;
+    private int nearDuplicateMinLength = 10;
 	
 	  private DateTime showStartTime = new DateTime(2016, 3, 11, 16, 30, DateTimeZone.forTimeZone(TimeZone.getTimeZone("America/Vancouver"))); //The set time the show should start every week.
-    private DateTime commandTimeTTL, commandTimeLLL, commandTimeHelp, streamStartTime;
-	  private ImmutableSet<Character> permittedChars;
-	  private HashMap<String, Integer> banHistory = new HashMap<>();
+    private DateTime streamStartTime;
+	  private CharClass permittedChars;
+    private RepeatedSubstringDetector repeatedSubstringDetector = new RepeatedSubstringDetector(500, 4);
+    private int[] emoteHashes = MessageFeatures.hashEmotes(Arrays.asList("Kappa", "KappaPride", "PogChamp", "Kreygasm",
+        "BibleThump", "ResidentSleeper", "4Head", "DansGame", "SwiftRage", "FailFish", "BabyRage", "WutFace",
+        "NotLikeThis", "SMOrc", "HeyGuys", "VoHiYo", "TriHard", "CoolStoryBob", "EleGiggle", "SeemsGood"));
+    private BanPolicy banPolicy;
+    private ModerationState moderationState;
+    private ConcurrentMap<String, Integer> pendingTimeouts = new ConcurrentHashMap<>();
 
-    private List<String> commandWords = new ArrayList<>(Arrays.asList("!ttl", "!lll", "!help", "!ttt"));
+    private CommandManager commandManager;
+    private ResponseCoalescer responseCoalescer;
 
     private BitlyDecorator bitlyDecorator;
 
+    private static final String STATE_DIRECTORY = "state";
+    private static final String BLOCKED_WORDS = "blacklist.words";
+    private static final String BLOCKED_MESSAGES = "blacklist.messages";
+    private static final String BLOCKED_PATTERNS = "blacklist.patterns";
+    private static final String PERMISSIONS = "permissions";
+    private static final String BAN_HISTORY = "bans";
+    private static final int MAX_TRACKED_OFFENDERS = 65536;
+    private static final String REPEATER_MESSAGES = "repeater";
+    private static final String SETTINGS = "settings";
+    private static final String DEFENCE_MODE = "defence";
+    private static final long COMMAND_COOLDOWN_MILLIS = TimeUnit.SECONDS.toMillis(40);
+    private static final long USER_COMMAND_COOLDOWN_MILLIS = TimeUnit.SECONDS.toMillis(15);
+    private static final long GLOBAL_COMMAND_COOLDOWN_MILLIS = TimeUnit.SECONDS.toMillis(2);
+    private static final long RESPONSE_COALESCE_MILLIS = TimeUnit.SECONDS.toMillis(3);
+    private static final long MENTION_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(10);
+    private static final long RESPONSE_MAX_AGE_MILLIS = TimeUnit.SECONDS.toMillis(25);
+    private static final int MAX_PENDING_RESPONSES = 200;
+    private static final int WHISPERS_PER_SECOND = 3;
+
     @Inject
-    public BotController(@Named("twitch.irc.public.twitchChannel") String twitchChannelName,
+    public BotController(@Assisted String twitchChannelName,
                @Named("twitch.username") String twitchUsername,
                @Named("twitch.oauth.token") String oAuthToken,
                @Named("twitch.irc.public.server") String ircServer,
                @Named("twitch.irc.public.port") Integer ircPort,
                BitlyDecorator bitlyDecorator,
                DateTimeUtil dateTimeUtil,
+               ChatArchive chatArchive,
+               MetricRegistry metricRegistry,
                PrivateMessageSender privateMessageSender,
                PublicMessageSender publicMessageSender,
-                           MessageRepeater messageRepeater) {
+               ChannelRegistry channelRegistry,
+               Set<TwitchCommand> pluginCommands,
+                           MessageRepeaterFactory messageRepeaterFactory) {
       log.info("Starting bot for channel {} on server {}", twitchChannelName, ircServer);
-      channelManager = new ChannelManager();
-      permittedChars = ImmutableSet.copyOf("abcdefghijklmnopqrstuvwxyz.!@$%123454567890".chars().mapToObj(a -> (char) a).collect(Collectors.toList()));
+      channelManager = channelRegistry.getChannelManager(twitchChannelName);
+      permittedChars = CharClass.of("abcdefghijklmnopqrstuvwxyz.!@$%1234567890");
       this.blockedMessage = new HashSet<>();
       this.blockedWords = new HashSet<>();
 
       this.bitlyDecorator = bitlyDecorator;
       this.dateTimeUtil = dateTimeUtil;
+      this.chatArchive = chatArchive;
+      this.metricRegistry = metricRegistry;
 
 
       this.twitchChannelName = twitchChannelName;
@@ -90,16 +167,84 @@ public class BotController {
       this.oAuthToken = oAuthToken;
       this.ircServer = ircServer;
       this.ircPort = ircPort;
+      registerMetrics();
 
       this.privateMessageSender = privateMessageSender;
       this.publicMessageSender = publicMessageSender;
 
-      commandTimeTTL = commandTimeLLL = commandTimeHelp = DateTime.now().minusSeconds(60);
       streamStartTime = new DateTime(2016, 3, 25, 16, 30, DateTimeZone.forTimeZone(TimeZone.getTimeZone("America/Vancouver")));
 
-      loadSettings();
-      this.messageRepeater = messageRepeater;
+      this.messageRepeater = messageRepeaterFactory.create(twitchChannelName);
+      banPolicy = new BanPolicy(MAX_TRACKED_OFFENDERS, key -> moderationState.remove(BAN_HISTORY, Long.toHexString(key)));
+      moderationState = openModerationState();
+      metricRegistry.gauge("bot_tracked_offenders", "Users with a recent offence score",
+          banPolicy::getTrackedUserCount, "channel", twitchChannelName);
+      if(moderationState.isEmpty()) {
+        loadSettings();
+        persistRepeaterMessages();
+      } else {
+        restoreSettings();
+      }
+      List<TwitchCommand> commands = new ArrayList<>(pluginCommands);
+      commands.addAll(channelCommands());
+      commandManager = new CommandManager(commands, GLOBAL_COMMAND_COOLDOWN_MILLIS);
+      responseCoalescer = new ResponseCoalescer(RESPONSE_COALESCE_MILLIS, MENTION_INTERVAL_MILLIS, RESPONSE_MAX_AGE_MILLIS, MAX_PENDING_RESPONSES,
+          WHISPERS_PER_SECOND, message -> sendMessageP(message), privateMessageSender::sendWhisperAsync);
+      metricRegistry.gauge("bot_pending_command_answers", "Command answers waiting to be coalesced",
+          () -> responseCoalescer.getPendingMentionCount() + responseCoalescer.getPendingWhisperCount(), "channel", twitchChannelName);
+      metricRegistry.gauge("bot_dropped_command_answers", "Command answers dropped because too many were waiting or they went stale",
+          responseCoalescer::getDroppedRequestCount, "channel", twitchChannelName);
       this.messageRepeater.start();
+      startChannelMonitor();
+    }
+
+    /**
+     * Every second, checks the channel for floods, flushes timeouts held back while the channel is defended and sends
+     * coalesced command answers.
+     */
+    private void startChannelMonitor() {
+      ThreadFactory namedThreadFactory = new ThreadFactoryBuilder()
+          .setNameFormat("channel-monitor-" + twitchChannelName + "-%d")
+          .setDaemon(true)
+          .build();
+      Executors.newSingleThreadScheduledExecutor(namedThreadFactory).scheduleAtFixedRate(() -> {
+        try {
+          checkChannelFlood();
+        } catch (RuntimeException e) {
+          log.error("Flood check failed for {}", twitchChannelName, e);
+        }
+        try {
+          responseCoalescer.flush(System.currentTimeMillis());
+        } catch (RuntimeException e) {
+          log.error("Sending command answers failed for {}", twitchChannelName, e);
+        }
+      }, 1L, 1L, TimeUnit.SECONDS);
+    }
+
+    private void checkChannelFlood() {
+      ChannelFloodDetector floodDetector = channelManager.getFloodDetector();
+      long now = System.currentTimeMillis();
+      DefenceMode previousMode = floodDetector.getMode();
+      DefenceMode newMode = floodDetector.evaluate(now);
+      if(newMode != null) {
+        String command = newMode.getLevel() > previousMode.getLevel() ? newMode.getEnableCommand() : previousMode.getDisableCommand();
+        chatArchive.logAction(twitchChannelName, "Defence mode {} -> {}. {} msg/s, {} new chatters/s, payload entropy {}",
+            previousMode, newMode, floodDetector.getMessageRate(now), floodDetector.getNewChatterRate(now), floodDetector.getPayloadEntropy());
+        // Kept so a restart lifts the restriction the bot left in place rather than leaving chat locked.
+        moderationState.put(DEFENCE_MODE, "mode", newMode.name());
+        sendMessageP(command, MessagePriority.Moderation);
+      }
+      flushPendingTimeouts();
+    }
+
+    /**
+     * Sends one timeout per user for every ban held back during a flood.
+     */
+    private void flushPendingTimeouts() {
+      for(String sender : pendingTimeouts.keySet()) {
+        Integer banLength = pendingTimeouts.remove(sender);
+        if(banLength != null) publicMessageSender.timeoutUserAsync(twitchChannelName, sender, banLength);
+      }
     }
 
     /**
@@ -107,73 +252,208 @@ public class BotController {
      * @param twitchMessage TwitchMessage to process.
      */
     public void processMessage(TwitchMessage twitchMessage) {
+      long startNanos = System.nanoTime();
+      processedMessageCount.increment();
       channelManager.addChannelMessage(twitchMessage);
 
-      messageLog.info(twitchMessage::toString); //Stores the message in the chat log.
+      chatArchive.logMessage(twitchMessage);
 
+      long commandStartNanos = System.nanoTime();
+      UserPermission senderPermission = channelManager.getPermission(twitchMessage.getSender());
       if(twitchMessage.isCommand()){
-        userCommands(twitchMessage.getSender().getUsername(), twitchMessage.getMessagePayload().substring(1));.
+        respond(commandManager.runCommand(twitchMessage, senderPermission));
       }
 
-      if(channelManager.checkPermission(twitchMessage.getSender(), UserPermission.ChannelOwner ))
+      if(senderPermission.hasRequiredPermissions(UserPermission.ChannelOwner))
         hostCommands( twitchMessage );
+      commandHistogram.recordSince(commandStartNanos);
 
-      if(channelManager.checkPermission(twitchMessage.getSender(), UserPermission.BotAdmin) && twitchMessage.getSimpleMessagePayload().startsWith("!bot") )
-        sendMessageP( botCommand( twitchMessage.getMessagePayload() ) );
+      if(!senderPermission.hasRequiredPermissions(UserPermission.ChannelModerator)) {
+        long checkerStartNanos = System.nanoTime();
+        Offence offence = messageChecker( twitchMessage ); //Checks if the message is allowed.
+        long spamStartNanos = System.nanoTime();
+        messageCheckerHistogram.record(spamStartNanos - checkerStartNanos);
+        offence = Offence.longest(offence, spamDetector(twitchMessage));
+        spamDetectorHistogram.recordSince(spamStartNanos);
+        // One offence per message, so breaking two rules at once does not climb the ban ladder twice.
+        if(offence != null) {
+          ban(twitchMessage.getSender().getUsername(), twitchMessage.getMessagePayload(), offence.banLength,
+              offence.rule, offence.reason, offence.officialReason);
+        }
+      }
+      processHistogram.recordSince(startNanos);
+    }
 
-      if(channelManager.checkPermission(twitchMessage.getSender(), UserPermission.BotModerator))
-        operatorCommands( twitchMessage.getSender().getUsername(), twitchMessage.getMessagePayload());
+    private void registerMetrics() {
+      processedMessageCount = metricRegistry.counter("bot_processed_messages_total", "Chat messages processed by a channel",
+          "channel", twitchChannelName);
+      processHistogram = metricRegistry.histogram("bot_process_message_seconds", "Time to process one chat message",
+          "channel", twitchChannelName);
+      commandHistogram = stageHistogram("commands");
+      messageCheckerHistogram = stageHistogram("messageChecker");
+      spamDetectorHistogram = stageHistogram("spamDetector");
+      metricRegistry.gauge("bot_defence_mode", "Current flood defence level, 0 when chat is open",
+          () -> channelManager.getFloodDetector().getMode().getLevel(), "channel", twitchChannelName);
+      metricRegistry.gauge("bot_pending_flood_timeouts", "Timeouts held back until the flood check next runs",
+          pendingTimeouts::size, "channel", twitchChannelName);
+      metricRegistry.gauge("bot_user_cache_hits", "Messages from users who already had a message history",
+          () -> channelManager.getUserMessageCacheStats().hitCount(), "channel", twitchChannelName);
+      metricRegistry.gauge("bot_user_cache_misses", "Messages from users who needed a new message history",
+          () -> channelManager.getUserMessageCacheStats().missCount(), "channel", twitchChannelName);
+      metricRegistry.gauge("bot_user_cache_evictions", "User message histories dropped for size or inactivity",
+          () -> channelManager.getUserMessageCacheStats().evictionCount(), "channel", twitchChannelName);
+      metricRegistry.gauge("bot_user_cache_tracked_users", "Users currently holding a message history",
+          () -> channelManager.getTrackedUserCount(), "channel", twitchChannelName);
+    }
 
-      if(!channelManager.checkPermission(twitchMessage.getSender(), UserPermission.ChannelModerator)) {
-        messageChecker( twitchMessage ); //Checks if the message is allowed.
-        spamDetector(twitchMessage);
-      }
+    private LatencyHistogram stageHistogram(String stage) {
+      return metricRegistry.histogram("bot_stage_seconds", "Time spent in each stage of processing a chat message",
+          "channel", twitchChannelName, "stage", stage);
+    }
+
+    /**
+     * Commands belonging to this channel's bot. Commands that need no channel state are bound in BotModule instead.
+     */
+    private List<TwitchCommand> channelCommands() {
+      return Arrays.asList(
+          userCommand("ttl", this::timeTillLive).setCooldownFallback(CooldownFallback.Mention),
+          userCommand("ttt", this::timeTillLive).setCooldownFallback(CooldownFallback.Mention),
+          userCommand("uptime", (message, arguments) -> uptime(message)).setCooldownFallback(CooldownFallback.Mention),
+          userCommand("lll", (message, arguments) -> lastLinusLink(message))
+              .setCooldownFallback(CooldownFallback.Whisper),
+          new SimpleCommand("link", UserPermission.BotModerator, this::linkRepeater),
+          new SimpleCommand("loop add", UserPermission.BotModerator, (message, arguments) -> updateLoop(() -> messageRepeater.addMessage(arguments))),
+          new SimpleCommand("loop removeLast", UserPermission.BotModerator, (message, arguments) -> updateLoop(messageRepeater::clearLast)),
+          new SimpleCommand("loop removeAll", UserPermission.BotModerator, (message, arguments) -> updateLoop(messageRepeater::clearAll)),
+          adminCommand("bot", arguments -> "Unknown Command Entered."),
+          adminCommand("bot blw", this::bLWord),
+          adminCommand("bot rmblw", this::removeBLWord),
+          adminCommand("bot blm", this::bLMsg),
+          adminCommand("bot rmblm", this::removeBLMsg),
+          adminCommand("bot blp", this::bLPattern),
+          adminCommand("bot rmblp", this::removeBLPattern),
+          adminCommand("bot addop", this::addOperator),
+          adminCommand("bot rmop", this::rmOperator),
+          adminCommand("bot sstart", arguments -> setStartTime()),
+          adminCommand("bot set", this::setVariables),
+          adminCommand("bot resetbans", arguments -> resetBans()),
+          adminCommand("bot forgive", this::forgive),
+          new SimpleCommand("offences", UserPermission.BotModerator,
+              (message, arguments) -> CommandResponse.toUser(message, describeOffences(arguments))));
+    }
+
+    /**
+     * Command any viewer may use, throttled in the channel and per viewer.
+     */
+    private SimpleCommand userCommand(String name, BiFunction<TwitchMessage, String, CommandResponse> action) {
+      return new SimpleCommand(name, UserPermission.ChannelUser, action)
+          .setCooldownMillis(COMMAND_COOLDOWN_MILLIS)
+          .setUserCooldownMillis(USER_COMMAND_COOLDOWN_MILLIS);
+    }
+
+    /**
+     * Bot admin command answered in the channel.
+     */
+    private TwitchCommand adminCommand(String name, Function<String, String> action) {
+      return new SimpleCommand(name, UserPermission.BotAdmin,
+          (message, arguments) -> CommandResponse.toChannel(message, action.apply(arguments)));
     }
 
     /**
-     * Used to add a word to the blacklist
-     * */
-    private String botCommand(String word) {
-      if(word.startsWith("!bot")){
-        word = word.substring(5); //remove the !bot section.
-        if(word.startsWith("blw")){
-          return bLWord(word.substring(4));
-        } else if(word.startsWith("rmblw")){
-          return removeBLWord(word.substring(6));
-        } else if(word.startsWith("blm")){
-          return bLMsg(word.substring(4));
-        } else if(word.startsWith("rmblm")){
-          return removeBLMsg(word.substring(6));
-        } else if(word.startsWith("addop")){
-          return addOperator(word.substring(6));
-        } else if(word.startsWith("rmop")){
-          return rmOperator(word.substring(5));
-        } else if(word.startsWith("sstart")){
-          return setStartTime();
-        } else if(word.startsWith("set")){
-          return setVariables(word.substring(4));
-        } else if(word.startsWith("resetbans")){
-          return resetBans();
+     * Sends a command answer. Mentions and whispers go through the ResponseCoalescer so a burst of requests is
+     * answered with a few messages. A command whose fallback is mentioning shares one send slot with its mention
+     * messages, so if one of them went out moments ago the answer joins the next mention message instead.
+     */
+    private void respond(CommandResponse commandResponse) {
+      if(commandResponse == null) return;
+      String username = commandResponse.getOriginalMessage().getSender().getUsername();
+      long now = System.currentTimeMillis();
+      String mentionBatch = commandResponse.getMentionBatch();
+      if(commandResponse.isSendToChannel()) {
+        TwitchCommand command = commandManager.findCommand(commandResponse.getOriginalMessage().getMessagePayload());
+        if(command != null && command.getCooldownFallback() == CooldownFallback.Mention
+            && !responseCoalescer.tryAnswer(command.getName(), now)) {
+          mentionBatch = command.getName();
+        } else {
+          sendMessageP(commandResponse.getMessage());
         }
       }
-      return "Unknown Command Entered.";
+      if(mentionBatch != null) {
+        responseCoalescer.addMention(mentionBatch, commandResponse.getMessage(), username, now);
+      }
+      if(commandResponse.isWhisperToUser()) responseCoalescer.addWhisper(username, commandResponse.getMessage(), now);
     }
-	
+
     private String resetBans(){
-      banHistory = new HashMap<>();
+      banPolicy.clear();
+      moderationState.clear(BAN_HISTORY);
       return "Ban History reset";
     }
+
+    /**
+     * Describes a user's recent offences to a moderator.
+     */
+    private String describeOffences(String username){
+      if(username.trim().isEmpty()) return "Syntax Error.";
+      long now = System.currentTimeMillis();
+      double score = banPolicy.getScore(username.trim(), now);
+      if(score == 0) return username.trim() + " has no recent offences.";
+      return String.format("%s has %.1f offence points, halving every %d hours. Next timeout: %ds.", username.trim(), score,
+          TimeUnit.MILLISECONDS.toHours(banPolicy.getHalfLifeMillis()), banPolicy.getNextTimeoutSeconds(username.trim(), 20, now));
+    }
+
+    private String forgive(String username){
+      if(!banPolicy.forgive(username.trim())) return username.trim() + " has no recent offences.";
+      moderationState.remove(BAN_HISTORY, Long.toHexString(BanPolicy.keyOf(username.trim())));
+      return username.trim() + " has been forgiven.";
+    }
+
+    /**
+     * @param state on or off.
+     */
+    private String setMessageRepetition(String state){
+      if(!state.equalsIgnoreCase("on") && !state.equalsIgnoreCase("off")) return "messageRepetition must be on or off";
+      messageRepeater.setOn(state.equalsIgnoreCase("on"));
+      persistSetting("messageRepetition", state.toLowerCase());
+      return "messageRepetition " + state.toLowerCase();
+    }
+
+    private String setShowStartTime(DateTime newShowStartTime){
+      showStartTime = newShowStartTime;
+      persistSetting("showStartTime", showStartTime.toString());
+      return "Show start time set to: " + showStartTime.toString(ISODateTimeFormat.basicOrdinalDateTimeNoMillis());
+    }
+
+    private String setStreamStartTime(DateTime newStreamStartTime){
+      streamStartTime = newStreamStartTime;
+      persistSetting("streamStartTime", streamStartTime.toString());
+      return "Show Start time has been set.";
+    }
+
+    private String setBanLadder(String steps){
+      banPolicy.setLadderSeconds(Arrays.stream(steps.split(",")).mapToInt(step -> Integer.parseInt(step.trim())).toArray());
+      persistSetting("banLadder", steps);
+      return "banLadder set to " + Arrays.toString(banPolicy.getLadderSeconds());
+    }
 	
     private String setVariables(String command){
       float newVal;
       String[] sCommand = command.split(" ");
       if (sCommand.length != 2) return "Syntax Error.";
       try{
+        if(sCommand[0].equalsIgnoreCase("banLadder")) return setBanLadder(sCommand[1]);
+        if(sCommand[0].equalsIgnoreCase("messageRepetition")) return setMessageRepetition(sCommand[1]);
+        if(sCommand[0].equalsIgnoreCase("showStartTime")) return setShowStartTime(DateTime.parse(sCommand[1]));
+        if(sCommand[0].equalsIgnoreCase("streamStartTime")) return setStreamStartTime(DateTime.parse(sCommand[1]));
         newVal = Float.parseFloat(sCommand[1]);
         if(sCommand[0].equalsIgnoreCase("maxmsg")){
           if(newVal > 0 && newVal <= 200){
             maxMsg = (int) newVal;
-            if(maxMsg>repetitionSearch-1)repetitionSearch= maxMsg-1;
+            if(maxMsg>repetitionSearch-1){
+              repetitionSearch= maxMsg-1;
+              persistSetting("repetitionSearch", String.valueOf(repetitionSearch));
+            }
+            persistSetting(sCommand[0], sCommand[1]);
             return "maxMsg set to " + maxMsg;
           } else {
             return "maxMsg must be between 0 and 200";
@@ -181,6 +461,7 @@ public class BotController {
         } else if(sCommand[0].equalsIgnoreCase("linkRepeatCountHost")){
           if(newVal > 0 && newVal <= 40){
             linkRepeatCountHost = (int) newVal;
+            persistSetting(sCommand[0], sCommand[1]);
             return "linkRepeatCountHost set to " + linkRepeatCountHost;
           } else {
             return "linkRepeatCountHost must be between 0 and 40";
@@ -188,6 +469,7 @@ public class BotController {
         } else if(sCommand[0].equalsIgnoreCase("linkRepeatCountMod")){
           if(newVal > 0 && newVal <= 40){
             linkRepeatCountMod = (int) newVal;
+            persistSetting(sCommand[0], sCommand[1]);
             return "linkRepeatCountMod set to " + linkRepeatCountMod;
           } else {
             return "linkRepeatCountMod must be between 0 and 40";
@@ -195,6 +477,7 @@ public class BotController {
         } else if(sCommand[0].equalsIgnoreCase("voteBanMax")){
           if(newVal > 0 && newVal <= 50){
             voteBanMax = (int) newVal;
+            persistSetting(sCommand[0], sCommand[1]);
             return "voteBanMax set to " + voteBanMax;
           } else {
             return "voteBanMax must be between 0 and 50";
@@ -202,6 +485,7 @@ public class BotController {
         } else if(sCommand[0].equalsIgnoreCase("messageCap")){
           if(newVal > 0 && newVal <= 50){
             messageCap = (int) newVal;
+            persistSetting(sCommand[0], sCommand[1]);
             return "messageCap set to " + messageCap;
           } else {
             return "messageCap must be between 0 and 50";
@@ -209,6 +493,7 @@ public class BotController {
         } else if(sCommand[0].equalsIgnoreCase("rPostVal")){
           if(newVal > 0 && newVal <= 50){
             rPostVal = (int) newVal;
+            persistSetting(sCommand[0], sCommand[1]);
             return "rPostVal set to " + rPostVal;
           } else {
             return "rPostVal must be between 0 and 50";
@@ -216,13 +501,43 @@ public class BotController {
         } else if(sCommand[0].equalsIgnoreCase("msgpersec")){
           if(newVal > 0 && newVal <= 50){
             msgpersec = newVal;
+            persistSetting(sCommand[0], sCommand[1]);
             return "secpermsg set to " + msgpersec;
           } else {
             return "secpermsg must be between 0 and 50";
           }
+        } else if(sCommand[0].equalsIgnoreCase("floodDefence")){
+          channelManager.getFloodDetector().setEnabled(newVal != 0);
+          persistSetting(sCommand[0], sCommand[1]);
+          return "floodDefence " + (newVal != 0 ? "enabled" : "disabled");
+        } else if(sCommand[0].equalsIgnoreCase("floodmsgpersec")){
+          if(newVal > 0 && newVal <= 1000){
+            channelManager.getFloodDetector().setMaxMessagesPerSecond(newVal);
+            persistSetting(sCommand[0], sCommand[1]);
+            return "floodmsgpersec set to " + newVal;
+          } else {
+            return "floodmsgpersec must be between 0 and 1000";
+          }
+        } else if(sCommand[0].equalsIgnoreCase("floodnewchatters")){
+          if(newVal > 0 && newVal <= 500){
+            channelManager.getFloodDetector().setMaxNewChattersPerSecond(newVal);
+            persistSetting(sCommand[0], sCommand[1]);
+            return "floodnewchatters set to " + newVal;
+          } else {
+            return "floodnewchatters must be between 0 and 500";
+          }
+        } else if(sCommand[0].equalsIgnoreCase("banHalfLife")){
+          if(newVal > 0 && newVal <= 24 * 14){
+            banPolicy.setHalfLifeMillis((long) (newVal * TimeUnit.HOURS.toMillis(1)));
+            persistSetting(sCommand[0], sCommand[1]);
+            return "banHalfLife set to " + newVal + " hours";
+          } else {
+            return "banHalfLife must be between 0 and 336 hours";
+          }
         } else if(sCommand[0].equalsIgnoreCase("longestSubStringAllowed")){
           if(newVal > 3 && newVal <= 50){
             longestSubStringAllowed = (int) newVal;
+            persistSetting(sCommand[0], sCommand[1]);
             return "longestSubStringAllowed set to " + longestSubStringAllowed;
           } else {
             return "longestSubStringAllowed must be between 3 and 50";
@@ -230,6 +545,7 @@ public class BotController {
         } else if(sCommand[0].equalsIgnoreCase("repetitionSearch")){
           if(newVal > 1 && newVal <= maxMsg-1){
             repetitionSearch = (int) newVal;
+            persistSetting(sCommand[0], sCommand[1]);
             return "repetitionSearch set to " + repetitionSearch;
           } else {
             return "repetitionSearch must be between 1 and maxMsg";
@@ -237,16 +553,16 @@ public class BotController {
         } else if(sCommand[0].equalsIgnoreCase("messageFrequency")){
                   if(newVal > 60){
                     messageRepeater.setFrequency((int) newVal);
+            persistSetting(sCommand[0], sCommand[1]);
             return "messageFrequency set to " + (int) newVal;
           } else {
             return "messageFrequency must be more than 60";
           }
         } else if(sCommand[0].equalsIgnoreCase("messageRepToggle")){
-                  messageRepeater.toggleState();
+                  setMessageRepetition(messageRepeater.isOn() ? "off" : "on");
                   return "messageRepetition Toggled.";
         } else if(sCommand[0].equalsIgnoreCase("addStartTime")){
-                      showStartTime = showStartTime.plusSeconds((int) newVal);
-                      return "Show start time set to: " + showStartTime.toString(ISODateTimeFormat.basicOrdinalDateTimeNoMillis());
+                      return setShowStartTime(showStartTime.plusSeconds((int) newVal));
         } else{
           return "Variable name not found";
         }
@@ -266,14 +582,26 @@ public class BotController {
       if(blockedWords.contains(lowerCaseWord))
         return lowerCaseWord + " already on blacklist.";
       blockedWords.add(lowerCaseWord);
-          channelManager.getMessageSnapshot()
-                  .stream()
-                  .filter(message -> !channelManager.checkPermission(message.getSender(), UserPermission.ChannelModerator))
-                  .filter(message -> message.getMessagePayload().toLowerCase().contains(lowerCaseWord))
-                  .forEach(message -> ban(message.getSender().getUsername(), message.getMessagePayload(), 45, "Blacklisted word: " + word, ""));
+      moderationState.put(BLOCKED_WORDS, lowerCaseWord, "");
+      rebuildBlockedWordMatcher();
+      banRecentOffenders(channelManager.findRecentMessagesContaining(TwitchMessage.simplifyMessage(lowerCaseWord)), "Blacklisted word: " + word);
       return lowerCaseWord + " added to blacklist. Previous messages breaching rule this will be banned.";
     }
 
+    /**
+     * Times out each sender of the given messages once, skipping moderators. Used to apply a new blacklist rule to
+     * recent chat.
+     */
+    private void banRecentOffenders(List<TwitchMessage> offendingMessages, String reason) {
+      Map<TwitchUser, TwitchMessage> firstOffenceByUser = new LinkedHashMap<>();
+      offendingMessages.stream()
+          .filter(message -> !channelManager.checkPermission(message.getSender(), UserPermission.ChannelModerator))
+          .forEach(message -> firstOffenceByUser.putIfAbsent(message.getSender(), message));
+      chatArchive.logAction(twitchChannelName, "{} matched {} recent messages from {} users", reason, offendingMessages.size(), firstOffenceByUser.size());
+      firstOffenceByUser.values()
+          .forEach(message -> ban(message.getSender().getUsername(), message.getMessagePayload(), 45, "retroactive_blacklist", reason, ""));
+    }
+
     /**
      * Removes a word from the blacklist if possible. If not possible it is ignored.
      * @param word word to remove.
@@ -282,11 +610,22 @@ public class BotController {
     private String removeBLWord(String word){
       if(blockedWords.contains(word)){
         blockedWords.remove(word);
+        moderationState.remove(BLOCKED_WORDS, word);
+        rebuildBlockedWordMatcher();
         return word + " removed from the blacklist.";
       }
       return word + " not found on the blacklist";
     }
 
+    /**
+     * Compiles the blocked words into a single matcher and swaps it in atomically.
+     */
+    private void rebuildBlockedWordMatcher() {
+      blockedWordMatcher = new AhoCorasickMatcher(blockedWords.stream()
+              .map(TwitchMessage::simplifyMessage)
+              .collect(Collectors.toSet()));
+    }
+
     /**
      * Adds a word to the blacklist.
      * @param word Word to add to blacklist
@@ -297,11 +636,9 @@ public class BotController {
       if(blockedMessage.contains(lowerCaseMessage))
         return lowerCaseMessage + " already on blacklist.";
       blockedMessage.add(lowerCaseMessage);
-          channelManager.getMessageSnapshot()
-                  .stream()
-                  .filter(message -> !channelManager.checkPermission(message.getSender(), UserPermission.ChannelModerator))
-                  .filter(message -> message.getMessagePayload().equalsIgnoreCase(lowerCaseMessage))
-                  .forEach(message -> ban(message.getSender().getUsername(), message.getMessagePayload(), 45, "Blacklisted message: " + word, ""));
+      moderationState.put(BLOCKED_MESSAGES, lowerCaseMessage, "");
+      rebuildSimpleBlockedMessages();
+      banRecentOffenders(channelManager.findRecentMessagesEqual(TwitchMessage.simplifyMessage(lowerCaseMessage)), "Blacklisted message: " + word);
       return lowerCaseMessage + " added to message blacklist. Previous messages breaching this rule will be banned.";
     }
     /**
@@ -310,13 +647,76 @@ public class BotController {
      * @return response word.
      */
     private String removeBLMsg(String word){
-      if(blockedWords.contains(word)){
-        blockedWords.remove(word);
+      if(blockedMessage.contains(word)){
+        blockedMessage.remove(word);
+        moderationState.remove(BLOCKED_MESSAGES, word);
+        rebuildSimpleBlockedMessages();
         return word + " removed from the blacklist.";
       }
       return word + " not found on the blacklist";
     }
 
+    /**
+     * Simplifies the blocked messages once, so each chat message is checked with a single set lookup.
+     */
+    private void rebuildSimpleBlockedMessages() {
+      simpleBlockedMessages = ImmutableSet.copyOf(blockedMessage.stream()
+              .map(TwitchMessage::simplifyMessage)
+              .collect(Collectors.toSet()));
+    }
+
+    /**
+     * Adds a pattern rule to the blacklist, e.g. "domain *.ly", "glob buy*followers" or "regex free\\d+subs".
+     * @param command Rule type followed by the pattern.
+     * @return response message.
+     */
+    private String bLPattern(String command){
+      String[] splitCommand = command.trim().split(" ", 2);
+      if(splitCommand.length != 2) return "Syntax Error. Use: !bot blp <glob|domain|regex> <pattern>";
+      final PatternRule rule;
+      try {
+        rule = PatternRule.compile(parsePatternType(splitCommand[0]), splitCommand[1].trim());
+      } catch(IllegalArgumentException e) {
+        return "Pattern rejected: " + e.getMessage();
+      }
+      if(blockedPatterns.contains(rule)) return rule + " already on blacklist.";
+      blockedPatterns.add(rule);
+      moderationState.put(BLOCKED_PATTERNS, rule.toString(), "");
+      rebuildBlockedPatternMatcher();
+      banRecentOffenders(channelManager.findRecentMessagesContaining(rule.getLiteral()).stream()
+          .filter(message -> rule.matches(message.getSimpleMessagePayload()))
+          .collect(Collectors.toList()), "Blacklisted pattern: " + rule);
+      return rule + " added to blacklist. Previous messages breaching this rule will be banned.";
+    }
+
+    private PatternRule.Type parsePatternType(String type) {
+      for(PatternRule.Type patternType : PatternRule.Type.values()) {
+        if(patternType.name().equalsIgnoreCase(type)) return patternType;
+      }
+      throw new IllegalArgumentException("Unknown rule type " + type + ", use glob, domain or regex");
+    }
+
+    /**
+     * Removes every pattern rule with the given pattern.
+     * @param pattern pattern to remove.
+     * @return response message.
+     */
+    private String removeBLPattern(String pattern){
+      List<PatternRule> removedRules = blockedPatterns.stream()
+          .filter(rule -> rule.getSource().equals(pattern.trim()))
+          .collect(Collectors.toList());
+      if(blockedPatterns.removeAll(removedRules)) {
+        removedRules.forEach(rule -> moderationState.remove(BLOCKED_PATTERNS, rule.toString()));
+        rebuildBlockedPatternMatcher();
+        return pattern + " removed from the blacklist.";
+      }
+      return pattern + " not found on the blacklist";
+    }
+
+    private void rebuildBlockedPatternMatcher() {
+      blockedPatternMatcher = new PatternBlacklist(blockedPatterns);
+    }
+
     private String addOperator(String command){
       String[] splitCommand = command.split(" ");
       if (splitCommand.length != 2) return "Syntax Error.";
@@ -324,7 +724,7 @@ public class BotController {
         String tier = splitCommand[0];
         String username = splitCommand[1];
         UserPermission userPermission = UserPermission.valueOf(tier);
-        channelManager.setPermission(new TwitchUser(username), userPermission);
+        setPermission(new TwitchUser(username), userPermission);
         return String.format("Added %s to %s", username, userPermission);
       } catch(Exception e){
         return "Syntax Error.";
@@ -332,13 +732,12 @@ public class BotController {
     }
 
     private String rmOperator(String name){
-      channelManager.setPermission(new TwitchUser(name), UserPermission.getDefaultPermission());
+      setPermission(new TwitchUser(name), UserPermission.getDefaultPermission());
       return name + " is no longer an operator.";
     }
 
     private String setStartTime(){
-      streamStartTime = DateTime.now();
-      return "Show Start time has been set.";
+      return setStreamStartTime(DateTime.now());
     }
 
     /**
@@ -347,56 +746,28 @@ public class BotController {
      *            Message being sent.
      */
     private void sendMessageP(String message) {
-      messageLog.info("Sending message: {}", message);
-      publicMessageSender.sendMessageAsync(twitchChannelName, message);
+      sendMessageP(message, MessagePriority.CommandReply);
     }
 
-    /**
-     * Checks if the message sent is a current request
-     *
-     * @param message
-     *            Message sent.
-     */
-    private void userCommands(String sender, String message) {
-      if (message.equalsIgnoreCase("TTL") || message.equalsIgnoreCase("TTT")) {
-        String timeTillLive = getTimeTillLive(sender);
-        if( !Objects.isNull(timeTillLive) ){
-            sendMessageP( timeTillLive );
-            privateMessageSender.sendWhisperAsync(sender, timeTillLive);
-        }
-      } else if (message.equalsIgnoreCase("LLL"))
-        lastLinusLink(sender);
-      else if (message.equalsIgnoreCase("HELP"))
-        sendHelpMessage();
-      else if (message.startsWith("uptime"))
-        uptime();
+    private void sendMessageP(String message, MessagePriority priority) {
+      log.debug("Sending message: {}", message);
+      publicMessageSender.sendMessageAsync(twitchChannelName, message, priority);
     }
 
-    private void uptime(){
-      if( new Period(commandTimeTTL, DateTime.now()).toStandardSeconds().getSeconds() < 40 ){
-          return;
-      }
-
+    private CommandResponse uptime(TwitchMessage twitchMessage){
       Period periodSinceStreamStart = new Period(streamStartTime, DateTime.now());
 
       if (periodSinceStreamStart.toStandardSeconds().getSeconds() < 60){
-          sendMessageP("Linus last went live in the last minute.");
+          return CommandResponse.toChannel(twitchMessage, "Linus last went live in the last minute.");
       } else {
-          sendMessageP("Linus last went live: " + dateTimeUtil.periodToString(periodSinceStreamStart) + " ago.");
+          return CommandResponse.toChannel(twitchMessage, "Linus last went live: " + dateTimeUtil.periodToString(periodSinceStreamStart) + " ago.");
       }
-
-      commandTimeTTL = DateTime.now();
     }
 
     /**
-     * Sends a Message to chat displaying how long till the show begins.
+     * Tells chat, and the user asking, how long till the show begins.
      */
-    private String getTimeTillLive(String sender) {
-      if( new Period(commandTimeTTL, DateTime.now()).toStandardSeconds().getSeconds() < 40 ) {
-          return null;
-      }
-
-      commandTimeTTL = DateTime.now();
+    private CommandResponse timeTillLive(TwitchMessage twitchMessage, String arguments) {
       //TODO Tacky Solution - Could crash
       while (showStartTime.isBeforeNow()) {
         showStartTime = showStartTime.plusDays(7);
@@ -406,9 +777,10 @@ public class BotController {
       if(periodTillShow.toStandardDays().getDays() > 5){
           return null;
       } else if(periodTillShow.toStandardSeconds().getSeconds() < 60){
-        return "The next WAN Show should begin soon.";
+        return CommandResponse.toChannel(twitchMessage, "The next WAN Show should begin soon.").setWhisperToUser(true);
       } else {
-              return "The next WAN Show should begin in: " + dateTimeUtil.periodToString(periodTillShow);
+        return CommandResponse.toChannel(twitchMessage, "The next WAN Show should begin in: " + dateTimeUtil.periodToString(periodTillShow))
+            .setWhisperToUser(true);
       }
     }
 
@@ -416,134 +788,229 @@ public class BotController {
       final String message = twitchMessage.getMessagePayload();
       //Repeats messages starting with HTTP:// & HTTPS://
       if(message.startsWith("http://") || message.startsWith("https://")){
-        try{
-          final String shortenedURL = bitlyDecorator.shortenURL(message);
-                  lastHostLink = shortenedURL;
-                  IntStream.range(0, linkRepeatCountHost).forEach(ignore -> sendMessageP(shortenedURL));
-        } catch (Exception e){
-                  // Send un-shortened anyway.
-                  IntStream.range(0, linkRepeatCountHost).forEach(ignore -> sendMessageP(message));
-        }
-
+        // Falls back to the un-shortened link if bitly fails.
+        bitlyDecorator.shortenURLAsync(message).thenAccept(shortenedURL -> {
+          lastHostLink = shortenedURL;
+          IntStream.range(0, linkRepeatCountHost).forEach(ignore -> sendMessageP(shortenedURL, MessagePriority.LinkRepeat));
+        });
       }
     }
 
-    private void operatorCommands(String sender, String message){
-      if(message.startsWith("!link")) linkRepeater(sender, message.substring(6));
-      else if(message.startsWith("!loop add")) messageRepeater.addMessage(message.substring(10));
-      else if(message.startsWith("!loop removeLast")) messageRepeater.clearLast();
-      else if(message.startsWith("!loop removeAll")) messageRepeater.clearAll();
+    private CommandResponse updateLoop(Runnable update){
+      update.run();
+      persistRepeaterMessages();
+      return null;
     }
 
     /**
      * Used to spam links by bot operators.
      *
-     * @param sender
-     *            The sender of the message
+     * @param twitchMessage
+     *            The command sent
      * @param message
      *            The link sent
      */
-    private void linkRepeater(String sender, String message) {
-      if (message.startsWith("http://") || message.startsWith("https://")) {
-        try {
-          message = bitlyDecorator.shortenURL(message);
-        } catch (Exception e) {
-          log.warn("Failed to convert bitly link: {}", message);
+    private CommandResponse linkRepeater(TwitchMessage twitchMessage, String message) {
+      String sender = twitchMessage.getSender().getUsername();
+      CompletableFuture<String> link = message.startsWith("http://") || message.startsWith("https://")
+              ? bitlyDecorator.shortenURLAsync(message)
+              : CompletableFuture.completedFuture(message);
+      link.thenAccept(shortenedMessage -> {
+        String newMessage = sender + " : " + shortenedMessage;
+        for (int x = 0; x < linkRepeatCountMod; x++) {
+          sendMessageP(newMessage, MessagePriority.LinkRepeat);
         }
+      });
+      return null;
+    }
+
+    /**
+     * Sends the last link Linus sent out, also whispering it to the user asking.
+     */
+    private CommandResponse lastLinusLink(TwitchMessage twitchMessage) {
+      String link = lastHostLink;
+      if (link != null) {
+        return CommandResponse.toChannel(twitchMessage, "Linus' Last Link: " + link).setWhisperToUser(true);
+      } else {
+        return CommandResponse.toChannel(twitchMessage, "Linus has not posted a link recently.");
       }
-      String newMessage = sender + " : " + message;
-      for (int x = 0; x < linkRepeatCountMod; x++) {
-        sendMessageP(newMessage);
+    }
+
+    /**
+     * Checks if a message is in the blacklist
+     * @return The blacklist rule the message breaks, or null.
+     */
+    private Offence messageChecker(TwitchMessage twitchMessage) {
+      if(blockedWordMatcher.matches(twitchMessage.getSimpleMessagePayload())){
+          return new Offence(45, "blacklisted_word",
+              "Matched blacklisted word", "Timeout - Blacklisted word");
       }
+      PatternRule matchedRule = blockedPatternMatcher.findFirst(twitchMessage.getSimpleMessagePayload());
+      if(matchedRule != null){
+          return new Offence(45, "blacklisted_pattern",
+              "Matched blacklisted pattern " + matchedRule, "Timeout - Blacklisted link or pattern");
+      }
+      if( simpleBlockedMessages.contains(twitchMessage.getSimpleMessagePayload()) ){
+          return new Offence(45, "blacklisted_message",
+              "Matched blacklisted message", "Timeout - Blacklisted Message");
+      }
+      return null;
     }
 
     /**
-     * Sends the last link Linus sent out;
+     * Opens the persisted moderation state of this channel. Falls back to state held in memory if the state directory
+     * cannot be used at all. An unreadable snapshot is moved aside by ModerationState, which then starts again.
      */
-    private void lastLinusLink(String sender) {
-      if( new Period(commandTimeLLL, DateTime.now()).toStandardSeconds().getSeconds() > 40 ){
-        if (lastHostLink != null) {
-          sendMessageP("Linus' Last Link: " + lastHostLink);
-                  privateMessageSender.sendWhisperAsync(sender, "Linus' Last Link: " + lastHostLink);
-        } else {
-          sendMessageP("Linus has not posted a link recently.");
-        }
-              commandTimeLLL = DateTime.now();
-      } else {
-              if (lastHostLink != null) {
-                  privateMessageSender.sendWhisperAsync(sender, "Linus' Last Link: " + lastHostLink);
-              } else {
-                  privateMessageSender.sendWhisperAsync(sender, "Linus has not posted a link recently.");
-              }
-          }
+    private ModerationState openModerationState() {
+      try {
+        return ModerationState.open(Paths.get(STATE_DIRECTORY, twitchChannelName));
+      } catch (IOException e) {
+        log.error("Failed to open moderation state for {}. Changes will be lost on restart.", twitchChannelName, e);
+        return ModerationState.inMemory();
+      }
     }
 
     /**
-     * Sends a command list to the users
+     * Rebuilds the blacklists, permissions, ban history, repeater messages and settings from the persisted state.
      */
-    private void sendHelpMessage() {
-          if( new Period(commandTimeHelp, DateTime.now()).toStandardSeconds().getSeconds() > 30 ){
-              String helpMessage = "You can find out more about the bot here: http://bit.ly/1DnLq9M. If you want to request an unban please tweet @deadfire19";
-              sendMessageP(helpMessage);
-              commandTimeHelp = DateTime.now();
+    private void restoreSettings() {
+      blockedWords.addAll(moderationState.get(BLOCKED_WORDS).keySet());
+      rebuildBlockedWordMatcher();
+      blockedMessage.addAll(moderationState.get(BLOCKED_MESSAGES).keySet());
+      rebuildSimpleBlockedMessages();
+      for(String rule : moderationState.get(BLOCKED_PATTERNS).keySet()) {
+        String[] typeAndSource = rule.split(" ", 2);
+        try {
+          blockedPatterns.add(PatternRule.compile(PatternRule.Type.valueOf(typeAndSource[0]), typeAndSource[1]));
+        } catch (RuntimeException e) {
+          log.warn("Dropping stored blacklist pattern {}: {}", rule, e.getMessage());
+        }
       }
+      rebuildBlockedPatternMatcher();
+      moderationState.get(PERMISSIONS).forEach((user, permission) ->
+          channelManager.setPermission(new TwitchUser(user), UserPermission.valueOf(permission)));
+      restoreBanPolicy();
+      messageRepeater.restoreMessages(moderationState.get(REPEATER_MESSAGES).values());
+      // repetitionSearch is checked against maxMsg, and setting maxMsg may change it, so it is restored last.
+      ImmutableMap<String, String> settings = moderationState.get(SETTINGS);
+      settings.forEach((name, value) -> {
+        if(!name.equals("repetitionsearch")) setVariables(name + " " + value);
+      });
+      if(settings.containsKey("repetitionsearch")) setVariables("repetitionSearch " + settings.get("repetitionsearch"));
+      restoreDefenceMode();
+      log.info("Restored moderation state for {}: {} words, {} messages, {} patterns, {} permissions, {} bans",
+          twitchChannelName, blockedWords.size(), blockedMessage.size(), blockedPatterns.size(),
+          moderationState.get(PERMISSIONS).size(), banPolicy.getTrackedUserCount());
     }
 
     /**
-     * Checks if a message is in the blacklist
+     * Restores the defence mode the channel was left in, so it is lifted by the flood check as usual.
      */
-    private void messageChecker(TwitchMessage twitchMessage) {
-      if(blockedWords.stream().anyMatch(twitchMessage::containsString)){
-          ban(twitchMessage.getSender().getUsername(),
-              twitchMessage.getMessagePayload(),
-              45,
-              "Matched blacklisted word", "Timeout - Blacklisted word");
+    private void restoreDefenceMode() {
+      String mode = moderationState.get(DEFENCE_MODE).get("mode");
+      if(mode == null) return;
+      try {
+        channelManager.getFloodDetector().restoreMode(DefenceMode.valueOf(mode), System.currentTimeMillis());
+      } catch (IllegalArgumentException e) {
+        moderationState.remove(DEFENCE_MODE, "mode");
       }
-      if( blockedMessage.stream().anyMatch(twitchMessage::equalsSimplePayload) ){
-          ban(twitchMessage.getSender().getUsername(),
-              twitchMessage.getMessagePayload(),
-              45,
-              "Matched blacklisted message", "Timeout - Blacklisted Message");
+    }
+
+    /**
+     * Loads offence scores stored as hex user key to "score,millis". Entries in any other form, such as the ban totals
+     * kept by earlier versions, are dropped.
+     */
+    private void restoreBanPolicy() {
+      long now = System.currentTimeMillis();
+      for(Map.Entry<String, String> entry : new ArrayList<>(moderationState.get(BAN_HISTORY).entrySet())) {
+        try {
+          String[] scoreAndMillis = entry.getValue().split(",");
+          banPolicy.restore(Long.parseUnsignedLong(entry.getKey(), 16), Double.parseDouble(scoreAndMillis[0]),
+              Long.parseLong(scoreAndMillis[1]), now);
+        } catch (RuntimeException e) {
+          moderationState.remove(BAN_HISTORY, entry.getKey());
+        }
       }
     }
 
+    private void setPermission(TwitchUser user, UserPermission permission) {
+      channelManager.setPermission(user, permission);
+      moderationState.put(PERMISSIONS, user.getUsername(), permission.name());
+    }
+
+    private void persistSetting(String name, String value) {
+      moderationState.put(SETTINGS, name.toLowerCase(), value);
+    }
+
+    private void persistRepeaterMessages() {
+      moderationState.clear(REPEATER_MESSAGES);
+      List<String> messages = messageRepeater.getMessages();
+      for(int i = 0; i < messages.size(); i++) moderationState.put(REPEATER_MESSAGES, String.valueOf(i), messages.get(i));
+    }
+
     /**
      * Generates the blacklist
      */
     private void loadSettings() {
-      blockedWords.addAll( Stream.of( "nigger", "nigga", "nazi", "strawpoll.me", "bit.do", "t.co", "lnkd.in", "db.tt", "qr.ae", "adf.ly", "goo.gl", "bitly.com", "cur.lv", "tinyurl.com", "ow.ly", "bit.ly", "adcrun.ch", "ity.im", "q.gs", "viralurl.com", "is.gd", "vur.me", "bc.vc", "twitthis.com", "u.to", "j.mp", "buzurl.com", "cutt.us", "u.bb", "yourls.org", "crisco.com", "x.co", "adcraft.co" ).collect(Collectors.toList()) );
+      blockedWords.addAll( Stream.of( "nigger", "nigga", "nazi" ).collect(Collectors.toList()) );
+      blockedWords.forEach(word -> moderationState.put(BLOCKED_WORDS, word, ""));
+      rebuildBlockedWordMatcher();
+      Stream.of( "strawpoll.me", "bit.do", "t.co", "lnkd.in", "db.tt", "qr.ae", "adf.ly", "goo.gl", "bitly.com", "cur.lv", "tinyurl.com", "ow.ly", "bit.ly", "adcrun.ch", "ity.im", "q.gs", "viralurl.com", "is.gd", "vur.me", "bc.vc", "twitthis.com", "u.to", "j.mp", "buzurl.com", "cutt.us", "u.bb", "yourls.org", "crisco.com", "x.co", "adcraft.co" )
+                  .map(domain -> PatternRule.compile(PatternRule.Type.Domain, domain))
+                  .forEach(blockedPatterns::add);
+      blockedPatterns.forEach(rule -> moderationState.put(BLOCKED_PATTERNS, rule.toString(), ""));
+      rebuildBlockedPatternMatcher();
       Stream.of( "slick_pc", "linustech", "luke_lafr")
                   .map(TwitchUser::new)
-                  .forEach(user -> channelManager.setPermission(user, UserPermission.ChannelOwner));
+                  .forEach(user -> setPermission(user, UserPermission.ChannelOwner));
       Stream.of( "nicklmg", "lttghost", "antvenom", "caltane" )
                   .map(TwitchUser::new)
-                  .forEach(user -> channelManager.setPermission(user, UserPermission.BotAdmin));
+                  .forEach(user -> setPermission(user, UserPermission.BotAdmin));
       Stream.of( "airdeano", "alpenwasser", "blade_of_grass", "colonel_mortis", "daveholla", "dezeltheintern", "dvoulcaris", "ecs_community", "ericlee30", "foxhound590", "glenwing", "ixi_your_face", "linusbottips", "looneyschnitzel", "ltt_bot", "mg2r", "prolemur", "rizenfrmtheashes",  "str_mape", "wh1skers", "whaler_99", "windspeed36", "woodenmarker", "wrefur" )
                   .map(TwitchUser::new)
-                  .forEach(user -> channelManager.setPermission(user, UserPermission.ChannelModerator));
+                  .forEach(user -> setPermission(user, UserPermission.ChannelModerator));
     }
 
     /**
      * If a senderOrChannel sends the same message 3 times in a row they are timed out.
+     * @return The first spam rule the message breaks, or null.
      */
-    private void spamDetector(TwitchMessage twitchMessage) {
+    private Offence spamDetector(TwitchMessage twitchMessage) {
       ImmutableTwitchMessageList userMessages = channelManager
           .getMessageSnapshot(twitchMessage.getSender());
 
-      if(twitchMessage.getMessagePayload().length() > 5 && twitchMessage.getLegalCharRatio(permittedChars) < 0.1)
-        ban(twitchMessage.getSender().getUsername(), twitchMessage.getMessagePayload(), 20, "ASCII art ban", "You have been timed out for posting ASCII art.");
+      MessageFeatures features = twitchMessage.getFeatures(permittedChars, emoteHashes);
+      log.debug("{} {}", twitchMessage, features);
 
-      if(userMessages.size() > 2 && (float) userMessages.size()/(float) userMessages.getMessageTimePeriod().toStandardSeconds().getSeconds() > msgpersec){
-        ban(twitchMessage.getSender().getUsername(), twitchMessage.getMessagePayload(), 20, "More than " + msgpersec + " messages/second", "You have been timed out for posting messages to quickly.");
-        return;
+      if(twitchMessage.getMessagePayload().length() > 5 && features.getLegalCharRatio() < 0.1)
+        return new Offence(20, "ascii_art", "ASCII art ban", "You have been timed out for posting ASCII art.");
+
+      RepeatedSubstringDetector.Repetition repetition = repeatedSubstringDetector.analyse(twitchMessage.getSimpleMessagePayload());
+      if(repetition.getLongestRepeatLength() > longestSubStringAllowed
+          || (repetition.getUnitCount() >= repetitionSearch && repetition.getUnitCoverage() >= 0.5)) {
+        return new Offence(20, "repeated_text", "Repeated text in message: " + repetition, "You have been timed out for repeating text in your message.");
       }
 
-      if(commandWords.contains(twitchMessage.getMessagePayload())) return;
-      if(channelManager.getMessageSnapshot().containsSimplePayload(twitchMessage.getSimpleMessagePayload()) >= repetitionSearch)
-        ban(twitchMessage.getSender().getUsername(), twitchMessage.getMessagePayload(), 20, "Repeated Message Found", "You have been timed out. Your message has been posted in the chat recently.");
+      double peakMessageRate = channelManager.getUserPeakMessageRate(twitchMessage.getSender(),
+          twitchMessage.getMessageDateTime().getMillis(), 3);
+      if(peakMessageRate > msgpersec){
+        return new Offence(20, "message_rate", "More than " + msgpersec + " messages/second (" + peakMessageRate + ")", "You have been timed out for posting messages to quickly.");
+      }
+
+      // A bare viewer command such as !ttl is expected to be repeated. Anything after the command name is not exempt.
+      CommandManager.Match command = commandManager.find(twitchMessage.getMessagePayload());
+      if(command != null && !command.hasArguments()
+          && command.getCommand().hasRequiredPermission(UserPermission.getDefaultPermission())) return null;
+      if(channelManager.getChannelPayloadCount(twitchMessage.getSimpleMessagePayload()) >= repetitionSearch)
+        return new Offence(20, "channel_duplicate", "Repeated Message Found", "You have been timed out. Your message has been posted in the chat recently.");
           else if (userMessages.containsSimplePayload(twitchMessage.getSimpleMessagePayload()) >= 2) {
-              ban(twitchMessage.getSender().getUsername(), twitchMessage.getMessagePayload(), 20, "Repeated Message Found", "You have been timed out for repeating the same message.");
+              return new Offence(20, "user_duplicate", "Repeated Message Found", "You have been timed out for repeating the same message.");
+          }
+          else if (twitchMessage.getSimpleMessagePayload().length() >= nearDuplicateMinLength
+              && channelManager.getChannelNearDuplicateCount(twitchMessage.getSimpleMessagePayload()) >= repetitionSearch) {
+              return new Offence(20, "near_duplicate", "Similar Message Found", "You have been timed out. A similar message has been posted in the chat recently.");
           }
+      return null;
     }
 
     /**
@@ -555,18 +1022,53 @@ public class BotController {
      *            Offending message.
      * @param banLength
      *            Length of Ban resulting from message.
+     * @param rule
+     *            Short fixed id of the rule broken, used as a metric label.
      * @param reason
      *            Reason for ban.
      */
-    private void ban(String sender, String message, int banLength,
+    private void ban(String sender, String message, int banLength, String rule,
                      String reason, String officialReason) {
-      Integer previousBanTotal = banHistory.get(sender);
-      if(previousBanTotal == null) previousBanTotal = 0;
-      banLength += previousBanTotal;
-      if(banLength > 60) banLength += 120;
+      long now = System.currentTimeMillis();
+      banLength = banPolicy.recordOffence(sender, banLength, now);
+      long userKey = BanPolicy.keyOf(sender);
+      moderationState.put(BAN_HISTORY, Long.toHexString(userKey), banPolicy.getScore(userKey, now) + "," + now);
+      metricRegistry.counter("bot_timeouts_total", "Timeouts issued, by the rule that triggered them",
+          "channel", twitchChannelName, "rule", rule).increment();
+      if(channelManager.getFloodDetector().getMode() != DefenceMode.Normal) {
+        // Hold the timeout so a flood account posting many times is timed out once, without a whisper.
+        pendingTimeouts.merge(sender, banLength, Math::max);
+        chatArchive.logAction(twitchChannelName, "Queued timeout {} for {}s during flood. Reason: {}. Message: {}", sender, banLength, reason, message);
+        return;
+      }
       if(officialReason.length() != 0) privateMessageSender.sendWhisperAsync(sender, officialReason);
-      publicMessageSender.sendMessage(twitchChannelName, ".timeout " + sender + " " + banLength);
-      banHistory.put(sender, banLength);
-      actionLog.info("Timeout {} for {}s. Reason: {}. Message: {}", sender, banLength, reason, message);
+      publicMessageSender.timeoutUserAsync(twitchChannelName, sender, banLength);
+      chatArchive.logAction(twitchChannelName, "Timeout {} for {}s. Reason: {}. Message: {}", sender, banLength, reason, message);
+    }
+
+    /**
+     * A rule broken by a message, with the timeout it carries.
+     */
+    private static class Offence {
+      private final int banLength;
+      private final String rule;
+      private final String reason;
+      private final String officialReason;
+
+      private Offence(int banLength, String rule, String reason, String officialReason) {
+        this.banLength = banLength;
+        this.rule = rule;
+        this.reason = reason;
+        this.officialReason = officialReason;
+      }
+
+      /**
+       * @return The offence with the longer timeout, the first on a tie. Either may be null.
+       */
+      private static Offence longest(Offence first, Offence second) {
+        if(first == null) return second;
+        if(second == null) return first;
+        return second.banLength > first.banLength ? second : first;
+      }
     }
 }
@@ -0,0 +1,6 @@
+/**
+ * Assisted injection factory creating the BotController moderating a single channel.
+ */
+public interface BotControllerFactory {
+    BotController create(String twitchChannelName);
+}
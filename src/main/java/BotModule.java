@@ -0,0 +1,21 @@
+import channel.commands.HelpCommand;
+import channel.commands.TwitchCommand;
+import com.google.inject.AbstractModule;
+import com.google.inject.assistedinject.FactoryModuleBuilder;
+import com.google.inject.multibindings.Multibinder;
+
+/**
+ * DI for the per channel bot classes, which live outside the util.config package.
+ */
+public class BotModule extends AbstractModule {
+
+    @Override
+    protected void configure() {
+        // Register AssistedInjection Factories
+        install(new FactoryModuleBuilder().build(BotControllerFactory.class));
+        install(new FactoryModuleBuilder().build(MessageRepeaterFactory.class));
+        // Commands shared by every channel. Further commands can be added from any module.
+        Multibinder<TwitchCommand> commandBinder = Multibinder.newSetBinder(binder(), TwitchCommand.class);
+        commandBinder.addBinding().to(HelpCommand.class);
+    }
+}
@@ -1,11 +1,13 @@
 import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
-import com.google.inject.name.Named;
+import com.google.inject.assistedinject.Assisted;
 import irc.sender.PublicMessageSender;
+import irc.util.MessagePriority;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.util.Collection;
 import java.util.Random;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -17,14 +19,14 @@ public class MessageRepeater {
     private Random randomNumberGenerator = new Random();
     private ImmutableList<String> messages;
     private int timeSec = 210;
-    private boolean on = true;
+    private volatile boolean on = true;
 
     private PublicMessageSender publicMessageSender;
     private String twitchChannelName;
 
     @Inject
     public MessageRepeater(
-            @Named("twitch.irc.public.twitchChannel") String twitchChannelName,
+            @Assisted String twitchChannelName,
             PublicMessageSender messageSender) {
         publicMessageSender = messageSender;
         this.twitchChannelName = twitchChannelName;
@@ -52,7 +54,7 @@ public class MessageRepeater {
             Integer indexOfMessage = randomNumberGenerator.nextInt(messageCopy.size());
             String messageToSend = messageCopy.get(indexOfMessage);
             log.info("Sending repeated message: {}", messageToSend);
-            publicMessageSender.sendMessageAsync(twitchChannelName, messageToSend);
+            publicMessageSender.sendMessageAsync(twitchChannelName, messageToSend, MessagePriority.Promotion);
         } else {
             log.info("Not sending message as repeater is off.");
         }
@@ -66,6 +68,14 @@ public class MessageRepeater {
         on = !on;
     }
 
+    public void setOn(boolean on) {
+        this.on = on;
+    }
+
+    public boolean isOn() {
+        return on;
+    }
+
     public void clearAll() {
         log.info("Removing all {} messages.", messages.size());
         messages = new ImmutableList.Builder<String>().build();
@@ -83,6 +93,18 @@ public class MessageRepeater {
         }
     }
 
+    public ImmutableList<String> getMessages() {
+        return messages;
+    }
+
+    /**
+     * Replaces the messages with previously stored ones, without announcing them in chat.
+     */
+    public void restoreMessages(Collection<String> storedMessages) {
+        messages = ImmutableList.copyOf(storedMessages);
+        log.info("Restored {} repeater messages.", messages.size());
+    }
+
     public void addMessage(String newMessage) {
         messages = new ImmutableList.Builder<String>().addAll(messages).add(newMessage).build();
         publicMessageSender.sendMessageAsync(twitchChannelName, "Example of Message:");
@@ -0,0 +1,6 @@
+/**
+ * Assisted injection factory creating the MessageRepeater for a single channel.
+ */
+public interface MessageRepeaterFactory {
+    MessageRepeater create(String twitchChannelName);
+}
@@ -1,9 +1,15 @@
+import channel.ChannelRegistry;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.name.Names;
 import irc.TwitchChannelListener;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import util.ChatArchive;
 import util.config.AppInjector;
+import util.metrics.MetricRegistry;
+import util.metrics.MetricsReporter;
 import util.config.Environment;
 
 public class Start {
@@ -11,11 +17,26 @@ public class Start {
 
 	public static void main(String[] args) {
 		log.info("Starting Bot");
-		Injector injector = Guice.createInjector(new AppInjector(Environment.PROD));
-		BotController bot = injector.getInstance( BotController.class );
+		Injector injector = Guice.createInjector(new AppInjector(Environment.PROD), new BotModule());
+		ChatArchive chatArchive = injector.getInstance(ChatArchive.class);
+		Runtime.getRuntime().addShutdownHook(new Thread(chatArchive::close, "chat-archive-shutdown"));
+		MetricRegistry metricRegistry = injector.getInstance(MetricRegistry.class);
+		metricRegistry.gauge("chat_archive_pending_entries", "Entries waiting to be written to the chat archive",
+				chatArchive::getPendingEntryCount);
+		metricRegistry.gauge("chat_archive_dropped_entries", "Entries dropped because the chat archive writer fell behind",
+				chatArchive::getDroppedEntryCount);
+		injector.getInstance(MetricsReporter.class).start();
+		String channelList = injector.getInstance(Key.get(String.class, Names.named("twitch.irc.public.twitchChannel")));
+		BotControllerFactory botControllerFactory = injector.getInstance( BotControllerFactory.class );
+
+		// Each channel is moderated on its own thread from its own buffer, so a raid in one channel cannot hold up
+		// moderation of the others.
 		TwitchChannelListener twitchChannelListener = injector.getInstance( TwitchChannelListener.class );
+		for(String channel : ChannelRegistry.splitChannelList(channelList)) {
+			BotController bot = botControllerFactory.create(channel);
+			twitchChannelListener.addChannelOutput(channel, bot::processMessage);
+		}
 		twitchChannelListener.listen();
-		twitchChannelListener.addOutput(bot::processMessage);
 	}
 
 }
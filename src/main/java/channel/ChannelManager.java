@@ -6,6 +6,10 @@ import channel.message.ImmutableTwitchMessageList;
 import channel.message.MessageManager;
 import channel.permissions.PermissionsManager;
 import channel.permissions.UserPermission;
+import channel.spam.ChannelFloodDetector;
+import com.google.common.cache.CacheStats;
+
+import java.util.List;
 
 /**
  * Created by Dominic Hauton on 12/03/2016.
@@ -13,10 +17,12 @@ import channel.permissions.UserPermission;
 public class ChannelManager {
     private PermissionsManager permissionsManager;
     private MessageManager     messageManager;
+    private ChannelFloodDetector floodDetector;
 
     public ChannelManager() {
         permissionsManager = new PermissionsManager();
         messageManager = new MessageManager();
+        floodDetector = new ChannelFloodDetector();
     }
 
     /**
@@ -27,6 +33,13 @@ public class ChannelManager {
         return permissionsManager.getUser(user).hasRequiredPermissions(requiredPermission);
     }
 
+    /**
+     * @return The permission of the given user, or the default permission.
+     */
+    public UserPermission getPermission(TwitchUser user) {
+        return permissionsManager.getUser(user);
+    }
+
     public UserPermission setPermission(TwitchUser username, UserPermission newPermission) {
         return permissionsManager.addUser(username, newPermission);
     }
@@ -39,7 +52,47 @@ public class ChannelManager {
         return messageManager.getUserSnapshot(username);
     }
 
+    public double getUserPeakMessageRate(TwitchUser username, long nowMillis, int minMessages) {
+        return messageManager.getUserPeakMessageRate(username, nowMillis, minMessages);
+    }
+
+    public List<TwitchMessage> findRecentMessagesContaining(String simpleTerm) {
+        return messageManager.findChannelHistoryContaining(simpleTerm);
+    }
+
+    public List<TwitchMessage> findRecentMessagesEqual(String simplePayload) {
+        return messageManager.findChannelHistoryEqual(simplePayload);
+    }
+
+    public int getChannelPayloadCount(String simplePayload) {
+        return messageManager.getChannelPayloadCount(simplePayload);
+    }
+
+    public int getChannelNearDuplicateCount(String simplePayload) {
+        return messageManager.getChannelNearDuplicateCount(simplePayload);
+    }
+
+    public CacheStats getUserMessageCacheStats() {
+        return messageManager.getUserCacheStats();
+    }
+
+    /**
+     * @return Number of users currently holding a message history.
+     */
+    public long getTrackedUserCount() {
+        return messageManager.getTrackedUserCount();
+    }
+
+    /**
+     * @return Channel wide flood detector, fed with every message added to the channel.
+     */
+    public ChannelFloodDetector getFloodDetector() {
+        return floodDetector;
+    }
+
     public boolean addChannelMessage(TwitchMessage message) {
+        boolean newChatter = !messageManager.isTrackedUser(message.getSender());
+        floodDetector.recordMessage(System.currentTimeMillis(), newChatter, message.getSimpleMessagePayloadHash());
         return messageManager.addMessage(message);
     }
 }
@@ -0,0 +1,48 @@
+package channel;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableSet;
+
+import javax.inject.Singleton;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Holds a ChannelManager for every channel the bot has joined, so each channel keeps its own permissions and message
+ * history.
+ */
+@Singleton
+public class ChannelRegistry {
+    private ConcurrentMap<String, ChannelManager> channelManagers;
+
+    public ChannelRegistry() {
+        channelManagers = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Gets the ChannelManager for the given channel, creating one on first use.
+     */
+    public ChannelManager getChannelManager(String channelName) {
+        return channelManagers.computeIfAbsent(normaliseChannelName(channelName), ignore -> new ChannelManager());
+    }
+
+    public ImmutableSet<String> getChannelNames() {
+        return ImmutableSet.copyOf(channelManagers.keySet());
+    }
+
+    /**
+     * Splits a comma separated channel list, as given in twitch.irc.public.twitchChannel, into channel names.
+     */
+    public static List<String> splitChannelList(String channelList) {
+        return Splitter.on(',').trimResults().omitEmptyStrings().splitToList(channelList);
+    }
+
+    /**
+     * Twitch channel names are case insensitive.
+     */
+    public static String normaliseChannelName(String channelName) {
+        return channelName.toLowerCase(Locale.ENGLISH);
+    }
+}
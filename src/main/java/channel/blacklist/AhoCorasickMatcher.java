@@ -0,0 +1,201 @@
+package channel.blacklist;
+
+import java.util.*;
+import java.util.function.IntConsumer;
+
+/**
+ * Immutable multi-pattern matcher. All patterns are compiled into a single Aho-Corasick automaton so a message is
+ * scanned once, in time linear to its length, regardless of how many patterns there are.
+ *
+ * Patterns and input are expected to already be simplified (see TwitchMessage#simplifyMessage).
+ */
+public class AhoCorasickMatcher {
+    private static final int LATIN_1_SIZE = 256;
+    private static final AhoCorasickMatcher EMPTY = new AhoCorasickMatcher(Collections.emptySet());
+
+    private final int alphabetSize;
+    private final int[] latinCharIndex;
+    private final char[] extendedChars;
+    private final int[] extendedCharIndex;
+
+    private final int[] transitions;
+    private final int[] matchLength;
+    private final int[] outputStart;
+    private final int[] outputPatterns;
+    private final int[] outputLink;
+    private final int patternCount;
+
+    /**
+     * @param patterns Simplified patterns to match. Empty patterns are ignored. Patterns are identified by their
+     *                 position in iteration order in #findAll.
+     */
+    public AhoCorasickMatcher(Collection<String> patterns) {
+        SortedSet<Character> alphabet = new TreeSet<>();
+        List<String> validPatterns = new ArrayList<>();
+        List<Integer> validPatternIds = new ArrayList<>();
+        int patternId = 0;
+        for(String pattern : patterns) {
+            if(pattern != null && !pattern.isEmpty()) {
+                validPatterns.add(pattern);
+                validPatternIds.add(patternId);
+                for(int i = 0; i < pattern.length(); i++) alphabet.add(pattern.charAt(i));
+            }
+            patternId++;
+        }
+        patternCount = validPatterns.size();
+
+        // Map each character in the alphabet to a dense index. Latin-1 is a direct lookup, anything else is searched.
+        alphabetSize = alphabet.size();
+        latinCharIndex = new int[LATIN_1_SIZE];
+        Arrays.fill(latinCharIndex, -1);
+        List<Character> extended = new ArrayList<>();
+        int index = 0;
+        for(char c : alphabet) {
+            if(c < LATIN_1_SIZE) latinCharIndex[c] = index;
+            else extended.add(c);
+            index++;
+        }
+        extendedChars = new char[extended.size()];
+        extendedCharIndex = new int[extended.size()];
+        for(int i = 0; i < extended.size(); i++) {
+            extendedChars[i] = extended.get(i);
+            extendedCharIndex[i] = charIndex(extendedChars[i], alphabet);
+        }
+
+        // Build the trie.
+        List<int[]> trie = new ArrayList<>();
+        List<Integer> terminal = new ArrayList<>();
+        List<List<Integer>> terminalPatterns = new ArrayList<>();
+        trie.add(newRow());
+        terminal.add(0);
+        terminalPatterns.add(new ArrayList<>());
+        for(int p = 0; p < validPatterns.size(); p++) {
+            String pattern = validPatterns.get(p);
+            int state = 0;
+            for(int i = 0; i < pattern.length(); i++) {
+                int symbol = indexOf(pattern.charAt(i));
+                if(trie.get(state)[symbol] == 0) {
+                    trie.get(state)[symbol] = trie.size();
+                    trie.add(newRow());
+                    terminal.add(0);
+                    terminalPatterns.add(new ArrayList<>());
+                }
+                state = trie.get(state)[symbol];
+            }
+            terminal.set(state, Math.max(terminal.get(state), pattern.length()));
+            terminalPatterns.get(state).add(validPatternIds.get(p));
+        }
+
+        // Breadth first pass turning the trie into a full DFA with failure links folded into the transitions.
+        int stateCount = trie.size();
+        transitions = new int[stateCount * Math.max(alphabetSize, 1)];
+        matchLength = new int[stateCount];
+        int[] failure = new int[stateCount];
+        // Nearest state on the failure chain that ends a pattern, so every pattern ending at a position can be listed.
+        outputLink = new int[stateCount];
+        outputLink[0] = -1;
+        Deque<Integer> queue = new ArrayDeque<>();
+        for(int symbol = 0; symbol < alphabetSize; symbol++) {
+            int next = trie.get(0)[symbol];
+            transitions[symbol] = next;
+            if(next != 0) {
+                outputLink[next] = -1;
+                queue.add(next);
+            }
+        }
+        matchLength[0] = terminal.get(0);
+        while(!queue.isEmpty()) {
+            int state = queue.poll();
+            matchLength[state] = Math.max(terminal.get(state), matchLength[failure[state]]);
+            for(int symbol = 0; symbol < alphabetSize; symbol++) {
+                int next = trie.get(state)[symbol];
+                if(next != 0) {
+                    failure[next] = transitions[failure[state] * alphabetSize + symbol];
+                    outputLink[next] = terminalPatterns.get(failure[next]).isEmpty()
+                            ? outputLink[failure[next]] : failure[next];
+                    transitions[state * alphabetSize + symbol] = next;
+                    queue.add(next);
+                } else {
+                    transitions[state * alphabetSize + symbol] = transitions[failure[state] * alphabetSize + symbol];
+                }
+            }
+        }
+
+        outputStart = new int[stateCount + 1];
+        for(int state = 0; state < stateCount; state++) {
+            outputStart[state + 1] = outputStart[state] + terminalPatterns.get(state).size();
+        }
+        outputPatterns = new int[outputStart[stateCount]];
+        for(int state = 0; state < stateCount; state++) {
+            List<Integer> ids = terminalPatterns.get(state);
+            for(int i = 0; i < ids.size(); i++) outputPatterns[outputStart[state] + i] = ids.get(i);
+        }
+    }
+
+    public static AhoCorasickMatcher empty() {
+        return EMPTY;
+    }
+
+    /**
+     * True if any pattern occurs in the given input.
+     * @param input Simplified text to scan.
+     */
+    public boolean matches(CharSequence input) {
+        return findFirst(input) != null;
+    }
+
+    /**
+     * Finds the first pattern occurrence in the input.
+     * @param input Simplified text to scan.
+     * @return The matched pattern, or null if nothing matched.
+     */
+    public String findFirst(CharSequence input) {
+        if(patternCount == 0) return null;
+        int state = 0;
+        for(int i = 0; i < input.length(); i++) {
+            int symbol = indexOf(input.charAt(i));
+            state = symbol < 0 ? 0 : transitions[state * alphabetSize + symbol];
+            if(matchLength[state] > 0) {
+                return input.subSequence(i + 1 - matchLength[state], i + 1).toString();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reports every occurrence of every pattern in the input, in order of where the occurrence ends.
+     * @param input           Simplified text to scan.
+     * @param patternConsumer Given the id of each matched pattern, once per occurrence.
+     */
+    public void findAll(CharSequence input, IntConsumer patternConsumer) {
+        if(patternCount == 0) return;
+        int state = 0;
+        for(int i = 0; i < input.length(); i++) {
+            int symbol = indexOf(input.charAt(i));
+            state = symbol < 0 ? 0 : transitions[state * alphabetSize + symbol];
+            if(matchLength[state] == 0) continue;
+            for(int output = outputStart[state + 1] > outputStart[state] ? state : outputLink[state];
+                output >= 0; output = outputLink[output]) {
+                for(int j = outputStart[output]; j < outputStart[output + 1]; j++) patternConsumer.accept(outputPatterns[j]);
+            }
+        }
+    }
+
+    public int getPatternCount() {
+        return patternCount;
+    }
+
+    private int indexOf(char c) {
+        if(c < LATIN_1_SIZE) return latinCharIndex[c];
+        int position = Arrays.binarySearch(extendedChars, c);
+        return position < 0 ? -1 : extendedCharIndex[position];
+    }
+
+    private int[] newRow() {
+        return new int[alphabetSize];
+    }
+
+    private static int charIndex(char c, SortedSet<Character> alphabet) {
+        return alphabet.headSet(c).size();
+    }
+}
@@ -0,0 +1,61 @@
+package channel.blacklist;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Immutable set of pattern rules checked together in one pass over a message.
+ *
+ * The required literals of all rules are compiled into a single AhoCorasickMatcher. A message is scanned once; rules
+ * that are just their literal match on the spot, and the rest are only verified when their literal was found. Adding
+ * more rules therefore costs little per message unless their literals are in it.
+ */
+public class PatternBlacklist {
+    private static final PatternBlacklist EMPTY = new PatternBlacklist(ImmutableList.of());
+
+    private final ImmutableList<PatternRule> rules;
+    private final AhoCorasickMatcher literalMatcher;
+
+    public PatternBlacklist(Collection<PatternRule> rules) {
+        this.rules = ImmutableList.copyOf(rules);
+        this.literalMatcher = new AhoCorasickMatcher(this.rules.stream()
+                .map(PatternRule::getLiteral)
+                .collect(Collectors.toList()));
+    }
+
+    public static PatternBlacklist empty() {
+        return EMPTY;
+    }
+
+    /**
+     * @param simplePayload Simplified message to check.
+     * @return The first rule, in rule order, that matches the message, or null if none do.
+     */
+    public PatternRule findFirst(String simplePayload) {
+        boolean[] candidates = new boolean[rules.size()];
+        int[] firstLiteralMatch = {-1};
+        literalMatcher.findAll(simplePayload, ruleIndex -> {
+            candidates[ruleIndex] = true;
+            if(rules.get(ruleIndex).isLiteralOnly()
+                    && (firstLiteralMatch[0] < 0 || ruleIndex < firstLiteralMatch[0])) {
+                firstLiteralMatch[0] = ruleIndex;
+            }
+        });
+        int end = firstLiteralMatch[0] < 0 ? rules.size() : firstLiteralMatch[0];
+        for(int ruleIndex = 0; ruleIndex < end; ruleIndex++) {
+            if(candidates[ruleIndex] && rules.get(ruleIndex).matches(simplePayload)) return rules.get(ruleIndex);
+        }
+        return firstLiteralMatch[0] < 0 ? null : rules.get(firstLiteralMatch[0]);
+    }
+
+    public boolean matches(String simplePayload) {
+        return findFirst(simplePayload) != null;
+    }
+
+    public List<PatternRule> getRules() {
+        return rules;
+    }
+}
@@ -0,0 +1,417 @@
+package channel.blacklist;
+
+import channel.data.TwitchMessage;
+
+import java.util.Arrays;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * A blacklist rule more general than a literal word. Rules are matched anywhere in the simplified message (see
+ * TwitchMessage#simplifyMessage), which has no whitespace and is lower case.
+ *
+ * Every rule must contain a literal of at least MIN_LITERAL_LENGTH chars that any match includes. The literal is used
+ * to prefilter messages, so only messages containing it are checked against the full rule.
+ *
+ * Globs and domains are matched by plain string searches that take at most a few passes over the message whatever it
+ * contains. Regexes are matched with a bound on the chars read, and a message that hits the bound counts as a match,
+ * so padding a message cannot slip it past a rule.
+ */
+public class PatternRule {
+    public static final int MIN_LITERAL_LENGTH = 3;
+    private static final int MAX_REGEX_LENGTH = 200;
+    private static final int MAX_MATCH_STEPS = 100000;
+
+    public enum Type {
+        /**
+         * * matches any run of chars and ? any single char, e.g. *.ly/*
+         */
+        Glob,
+        /**
+         * A host name, optionally with a leading wildcard label, e.g. bit.ly or *.ly
+         */
+        Domain,
+        /**
+         * A regular expression without backreferences, lookaround, nested quantifiers or repeated alternation.
+         */
+        Regex
+    }
+
+    private final Type type;
+    private final String source;
+    private final String literal;
+    private final Predicate<String> matcher;
+
+    /**
+     * @param matcher Full check of a message known to contain the literal, or null if containing it is enough.
+     */
+    private PatternRule(Type type, String source, String literal, Predicate<String> matcher) {
+        this.type = type;
+        this.source = source;
+        this.literal = literal;
+        this.matcher = matcher;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the rule is malformed, has no required literal or could backtrack badly.
+     */
+    public static PatternRule compile(Type type, String source) {
+        switch(type) {
+            case Glob:
+                return compileGlob(source);
+            case Domain:
+                return compileDomain(source);
+            case Regex:
+                return compileRegex(source);
+            default:
+                throw new IllegalArgumentException("Unknown rule type " + type);
+        }
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * @return Simplified text every match contains.
+     */
+    public String getLiteral() {
+        return literal;
+    }
+
+    /**
+     * @return true if the rule matches exactly when the message contains the literal.
+     */
+    public boolean isLiteralOnly() {
+        return matcher == null;
+    }
+
+    /**
+     * @param simplePayload Simplified message.
+     * @return true if the rule matches, or if it is a regex that took too long to check.
+     */
+    public boolean matches(String simplePayload) {
+        if(matcher == null) return simplePayload.contains(literal);
+        return matcher.test(simplePayload);
+    }
+
+    private static PatternRule compileGlob(String source) {
+        String glob = TwitchMessage.simplifyMessage(source);
+        String longestLiteral = "";
+        StringBuilder literal = new StringBuilder();
+        boolean wildcardInside = false;
+        for(int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if(c == '*' || c == '?') {
+                if(literal.length() > longestLiteral.length()) longestLiteral = literal.toString();
+                literal.setLength(0);
+                boolean leadingOrTrailing = c == '*' && (i == 0 || glob.substring(i).chars().allMatch(x -> x == '*'));
+                if(!leadingOrTrailing) wildcardInside = true;
+            } else {
+                literal.append(c);
+            }
+        }
+        if(literal.length() > longestLiteral.length()) longestLiteral = literal.toString();
+        checkLiteral(source, longestLiteral);
+        if(!wildcardInside) return new PatternRule(Type.Glob, source, longestLiteral, null);
+        String[] segments = Arrays.stream(glob.split("\\*")).filter(segment -> !segment.isEmpty()).toArray(String[]::new);
+        return new PatternRule(Type.Glob, source, longestLiteral, payload -> matchesGlob(payload, segments));
+    }
+
+    /**
+     * Finds each segment, the parts of the glob between stars, after the end of the one before. Taking the earliest
+     * place for every segment never misses a match, so no backtracking is needed.
+     */
+    private static boolean matchesGlob(String payload, String[] segments) {
+        int position = 0;
+        for(String segment : segments) {
+            int found = indexOfSegment(payload, segment, position);
+            if(found < 0) return false;
+            position = found + segment.length();
+        }
+        return true;
+    }
+
+    /**
+     * @return First index at or after from where the segment matches, with ? matching any char, or -1.
+     */
+    private static int indexOfSegment(String payload, String segment, int from) {
+        if(segment.indexOf('?') < 0) return payload.indexOf(segment, from);
+        for(int start = from; start + segment.length() <= payload.length(); start++) {
+            int i = 0;
+            while(i < segment.length() && (segment.charAt(i) == '?' || segment.charAt(i) == payload.charAt(start + i))) i++;
+            if(i == segment.length()) return start;
+        }
+        return -1;
+    }
+
+    private static PatternRule compileDomain(String source) {
+        String domain = TwitchMessage.simplifyMessage(source).replaceFirst("^[a-z]+://", "");
+        boolean anySubdomain = domain.startsWith("*.");
+        String host = anySubdomain ? domain.substring(1) : domain;
+        if(!host.matches(anySubdomain ? "(\\.[a-z0-9-]+)+" : "[a-z0-9-]+(\\.[a-z0-9-]+)+")) {
+            throw new IllegalArgumentException(source + " is not a domain, e.g. bit.ly or *.ly");
+        }
+        checkLiteral(source, host);
+        return new PatternRule(Type.Domain, source, host, payload -> matchesDomain(payload, host, anySubdomain));
+    }
+
+    /**
+     * @param anySubdomain Host must be preceded by at least one host char, as host is then a suffix such as .ly
+     * @return true if the host appears in the payload and is not followed by another host char.
+     */
+    private static boolean matchesDomain(String payload, String host, boolean anySubdomain) {
+        for(int found = payload.indexOf(host); found >= 0; found = payload.indexOf(host, found + 1)) {
+            int end = found + host.length();
+            boolean endsHost = end == payload.length() || !isHostChar(payload.charAt(end));
+            boolean hasLabel = !anySubdomain || (found > 0 && isHostChar(payload.charAt(found - 1)));
+            if(endsHost && hasLabel) return true;
+        }
+        return false;
+    }
+
+    private static boolean isHostChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '-';
+    }
+
+    private static PatternRule compileRegex(String source) {
+        if(source.length() > MAX_REGEX_LENGTH) {
+            throw new IllegalArgumentException("Regex longer than " + MAX_REGEX_LENGTH + " chars");
+        }
+        if(source.matches(".*\\s.*")) {
+            throw new IllegalArgumentException("Regex must not contain whitespace, messages are matched without it");
+        }
+        checkRegexIsSafe(source);
+        Pattern pattern;
+        try {
+            pattern = Pattern.compile(source, Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+        } catch(PatternSyntaxException e) {
+            throw new IllegalArgumentException("Invalid regex: " + e.getDescription());
+        }
+        String literal = requiredRegexLiteral(source);
+        checkLiteral(source, literal);
+        return new PatternRule(Type.Regex, source, literal, payload -> matchesRegex(payload, pattern));
+    }
+
+    /**
+     * @return true if the regex is found, or if finding out takes more than MAX_MATCH_STEPS reads of the payload.
+     */
+    private static boolean matchesRegex(String payload, Pattern pattern) {
+        try {
+            return pattern.matcher(new BoundedCharSequence(payload, MAX_MATCH_STEPS)).find();
+        } catch(BoundedCharSequence.StepLimitExceededException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Rejects the regex features that can make matching exponential or that need unbounded lookaround.
+     */
+    private static void checkRegexIsSafe(String regex) {
+        // For each open group, whether a quantifier or an alternation has been seen inside it.
+        boolean[] groupHasQuantifier = new boolean[regex.length() + 1];
+        boolean[] groupHasAlternation = new boolean[regex.length() + 1];
+        int depth = 0;
+        boolean inClass = false;
+        boolean lastGroupHadQuantifier = false;
+        for(int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if(c == '\\') {
+                if(i + 1 < regex.length()) {
+                    char escaped = regex.charAt(i + 1);
+                    if(Character.isDigit(escaped) && escaped != '0' || escaped == 'k') {
+                        throw new IllegalArgumentException("Backreferences are not allowed");
+                    }
+                }
+                i++;
+                lastGroupHadQuantifier = false;
+                continue;
+            }
+            if(inClass) {
+                if(c == ']') inClass = false;
+                continue;
+            }
+            switch(c) {
+                case '[':
+                    inClass = true;
+                    lastGroupHadQuantifier = false;
+                    break;
+                case '(':
+                    if(regex.startsWith("(?=", i) || regex.startsWith("(?!", i)
+                            || regex.startsWith("(?<=", i) || regex.startsWith("(?<!", i)) {
+                        throw new IllegalArgumentException("Lookaround is not allowed");
+                    }
+                    // Skip the ? of non-capturing groups and inline flags so it is not read as a quantifier.
+                    if(i + 1 < regex.length() && regex.charAt(i + 1) == '?') i++;
+                    groupHasQuantifier[++depth] = false;
+                    groupHasAlternation[depth] = false;
+                    lastGroupHadQuantifier = false;
+                    break;
+                case ')':
+                    if(depth == 0) throw new IllegalArgumentException("Unbalanced parenthesis");
+                    // A repeated alternation such as (a|ab)+ backtracks as badly as a nested quantifier.
+                    lastGroupHadQuantifier = groupHasQuantifier[depth] || groupHasAlternation[depth];
+                    depth--;
+                    if(lastGroupHadQuantifier) groupHasQuantifier[depth] = true;
+                    break;
+                case '|':
+                    groupHasAlternation[depth] = true;
+                    lastGroupHadQuantifier = false;
+                    break;
+                case '*':
+                case '+':
+                case '?':
+                case '{':
+                    if(c == '?' && i > 0 && isQuantifier(regex.charAt(i - 1))) break;
+                    if(lastGroupHadQuantifier && c != '?') {
+                        throw new IllegalArgumentException("Nested quantifiers such as (a+)+ or (a|b)+ are not allowed");
+                    }
+                    groupHasQuantifier[depth] = true;
+                    if(c == '{') i = Math.max(i, regex.indexOf('}', i));
+                    break;
+                default:
+                    lastGroupHadQuantifier = false;
+            }
+        }
+    }
+
+    private static boolean isQuantifier(char c) {
+        return c == '*' || c == '+' || c == '?' || c == '}';
+    }
+
+    /**
+     * Finds the longest run of literal chars outside any group, class or alternation, which every match must contain.
+     */
+    private static String requiredRegexLiteral(String regex) {
+        if(hasTopLevelAlternation(regex)) {
+            throw new IllegalArgumentException("Top level alternation is not allowed, add each alternative as a rule");
+        }
+        String longest = "";
+        StringBuilder run = new StringBuilder();
+        int depth = 0;
+        boolean inClass = false;
+        for(int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            Character literal = null;
+            if(c == '\\' && i + 1 < regex.length()) {
+                char escaped = regex.charAt(++i);
+                if(!Character.isLetterOrDigit(escaped)) literal = escaped;
+            } else if(inClass) {
+                if(c == ']') inClass = false;
+            } else if(c == '[') {
+                inClass = true;
+            } else if(c == '(') {
+                depth++;
+            } else if(c == ')') {
+                depth--;
+            } else if(depth == 0 && ".^$|?*+{}".indexOf(c) < 0) {
+                literal = c;
+            }
+
+            if(literal != null && depth == 0 && !inClass) {
+                // A quantifier after the char makes that char optional or repeated, so it ends the required run.
+                boolean quantified = i + 1 < regex.length() && "*+?{".indexOf(regex.charAt(i + 1)) >= 0;
+                if(!quantified) {
+                    run.append(Character.toLowerCase(literal));
+                    continue;
+                }
+            }
+            if(run.length() > longest.length()) longest = run.toString();
+            run.setLength(0);
+        }
+        if(run.length() > longest.length()) longest = run.toString();
+        return longest;
+    }
+
+    private static boolean hasTopLevelAlternation(String regex) {
+        int depth = 0;
+        boolean inClass = false;
+        for(int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if(c == '\\') i++;
+            else if(inClass) inClass = c != ']';
+            else if(c == '[') inClass = true;
+            else if(c == '(') depth++;
+            else if(c == ')') depth--;
+            else if(c == '|' && depth == 0) return true;
+        }
+        return false;
+    }
+
+    private static void checkLiteral(String source, String literal) {
+        if(literal.length() < MIN_LITERAL_LENGTH) {
+            throw new IllegalArgumentException(source + " is too broad, it must contain at least "
+                    + MIN_LITERAL_LENGTH + " plain chars in a row");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + source;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof PatternRule)) return false;
+        PatternRule that = (PatternRule) o;
+        return type == that.type && source.equals(that.source);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * type.hashCode() + source.hashCode();
+    }
+
+    /**
+     * CharSequence that fails once it has been read more than a fixed number of times, bounding the work any regex
+     * can do on a message.
+     */
+    private static class BoundedCharSequence implements CharSequence {
+        private final CharSequence delegate;
+        private final int[] remainingSteps;
+
+        BoundedCharSequence(CharSequence delegate, int maxSteps) {
+            this(delegate, new int[]{maxSteps});
+        }
+
+        private BoundedCharSequence(CharSequence delegate, int[] remainingSteps) {
+            this.delegate = delegate;
+            this.remainingSteps = remainingSteps;
+        }
+
+        @Override
+        public int length() {
+            return delegate.length();
+        }
+
+        @Override
+        public char charAt(int index) {
+            if(--remainingSteps[0] < 0) throw new StepLimitExceededException();
+            return delegate.charAt(index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new BoundedCharSequence(delegate.subSequence(start, end), remainingSteps);
+        }
+
+        @Override
+        public String toString() {
+            return delegate.toString();
+        }
+
+        private static class StepLimitExceededException extends RuntimeException {
+            private static final long serialVersionUID = 1L;
+
+            StepLimitExceededException() {
+                super(null, null, false, false);
+            }
+        }
+    }
+}
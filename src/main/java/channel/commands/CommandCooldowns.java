@@ -0,0 +1,146 @@
+package channel.commands;
+
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+/**
+ * Cooldown windows for a fixed set of commands, checked without locks or allocation.
+ *
+ * Three windows apply to a command with a cooldown: its own window in the channel, a window per user asking for it,
+ * and a global window shared by every command with a cooldown so the bot never answers faster than that in the
+ * channel. Commands without any cooldown, such as moderation commands, are never held back.
+ *
+ * Times are System#nanoTime deadlines rather than wall clock times, so a clock adjustment cannot lift or extend a
+ * cooldown. Per user deadlines live in a fixed size open addressing table of (key, deadline) pairs in an
+ * AtomicLongArray. Slots whose deadline has passed are reused, and if every probed slot is still cooling down the user
+ * is let through untracked rather than growing the table. Users whose names share a hash code share a window. Two
+ * simultaneous requests from one user may both pass, which cannot happen while one thread processes a channel's
+ * messages.
+ */
+public class CommandCooldowns {
+    private static final int MAX_PROBES = 8;
+
+    /**
+     * Outcome of a request to run a command.
+     */
+    public enum Result {
+        /**
+         * Run the command.
+         */
+        Allowed,
+        /**
+         * The command or the channel is cooling down. Use the command's CooldownFallback.
+         */
+        ChannelCooldown,
+        /**
+         * The user asking is cooling down. Ignore the request.
+         */
+        UserCooldown
+    }
+
+    private final Map<TwitchCommand, CommandWindow> windows = new IdentityHashMap<>();
+    private final long globalCooldownNanos;
+    private final AtomicLong globalDeadline;
+    private final AtomicLongArray userSlots;
+    private final int slotMask;
+    private final LongSupplier nanoClock;
+
+    /**
+     * @param globalCooldownMillis Minimum gap between two commands answered in the channel. 0 for none.
+     * @param userSlotCount        Users that can be cooling down at once. Rounded up to a power of two.
+     */
+    public CommandCooldowns(Collection<? extends TwitchCommand> commands, long globalCooldownMillis, int userSlotCount) {
+        this(commands, globalCooldownMillis, userSlotCount, System::nanoTime);
+    }
+
+    /**
+     * @param nanoClock Source of monotonic nanosecond times.
+     */
+    public CommandCooldowns(Collection<? extends TwitchCommand> commands, long globalCooldownMillis, int userSlotCount,
+                            LongSupplier nanoClock) {
+        int commandId = 1;
+        for(TwitchCommand command : commands) {
+            windows.put(command, new CommandWindow(commandId++, TimeUnit.MILLISECONDS.toNanos(command.getCooldownMillis()),
+                    TimeUnit.MILLISECONDS.toNanos(command.getUserCooldownMillis())));
+        }
+        this.globalCooldownNanos = TimeUnit.MILLISECONDS.toNanos(globalCooldownMillis);
+        this.nanoClock = nanoClock;
+        this.globalDeadline = new AtomicLong(nanoClock.getAsLong());
+        windows.values().forEach(window -> window.deadline.set(globalDeadline.get()));
+        int slotCount = Integer.highestOneBit(Math.max(userSlotCount, MAX_PROBES) - 1) << 1;
+        this.userSlots = new AtomicLongArray(slotCount * 2);
+        this.slotMask = slotCount - 1;
+    }
+
+    /**
+     * Checks every window of the command and starts those that allow it.
+     * @throws IllegalArgumentException if the command was not given when this was created.
+     */
+    public Result tryAcquire(TwitchCommand command, String username) {
+        CommandWindow window = windows.get(command);
+        if(window == null) throw new IllegalArgumentException("Unknown command " + command.getName());
+        if(window.cooldownNanos == 0 && window.userCooldownNanos == 0) return Result.Allowed;
+        long now = nanoClock.getAsLong();
+        if(window.userCooldownNanos > 0 && !tryAcquireUser(window, username, now)) return Result.UserCooldown;
+        if(window.cooldownNanos == 0) return Result.Allowed;
+        if(now - globalDeadline.get() < 0) return Result.ChannelCooldown;
+        long deadline = window.deadline.get();
+        if(now - deadline < 0 || !window.deadline.compareAndSet(deadline, now + window.cooldownNanos)) {
+            return Result.ChannelCooldown;
+        }
+        if(globalCooldownNanos > 0) globalDeadline.set(now + globalCooldownNanos);
+        return Result.Allowed;
+    }
+
+    private boolean tryAcquireUser(CommandWindow window, String username, long now) {
+        long key = ((long) window.id << 32) | (username.hashCode() & 0xFFFFFFFFL);
+        long newDeadline = now + window.userCooldownNanos;
+        int start = mix(key) & slotMask;
+        int reusableSlot = -1;
+        for(int probe = 0; probe < MAX_PROBES; probe++) {
+            int slot = (start + probe) & slotMask;
+            long slotKey = userSlots.get(slot * 2);
+            if(slotKey == key) {
+                long deadline = userSlots.get(slot * 2 + 1);
+                return now - deadline >= 0 && userSlots.compareAndSet(slot * 2 + 1, deadline, newDeadline);
+            }
+            if(slotKey == 0) {
+                if(userSlots.compareAndSet(slot * 2, 0, key)) {
+                    userSlots.set(slot * 2 + 1, newDeadline);
+                    return true;
+                }
+                // Lost the slot to another user. Look at it again.
+                probe--;
+                continue;
+            }
+            if(reusableSlot < 0 && now - userSlots.get(slot * 2 + 1) >= 0) reusableSlot = slot;
+        }
+        if(reusableSlot >= 0 && userSlots.compareAndSet(reusableSlot * 2, userSlots.get(reusableSlot * 2), key)) {
+            userSlots.set(reusableSlot * 2 + 1, newDeadline);
+        }
+        return true;
+    }
+
+    private static int mix(long key) {
+        key *= 0x9E3779B97F4A7C15L;
+        return (int) (key ^ (key >>> 32));
+    }
+
+    private static class CommandWindow {
+        private final int id;
+        private final long cooldownNanos;
+        private final long userCooldownNanos;
+        private final AtomicLong deadline = new AtomicLong();
+
+        private CommandWindow(int id, long cooldownNanos, long userCooldownNanos) {
+            this.id = id;
+            this.cooldownNanos = cooldownNanos;
+            this.userCooldownNanos = userCooldownNanos;
+        }
+    }
+}
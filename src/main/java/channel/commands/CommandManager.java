@@ -1,9 +1,160 @@
 package channel.commands;
 
+import channel.data.TwitchMessage;
+import channel.permissions.UserPermission;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
 /**
  * Created by Dominic Hauton on 28/03/2016.
  *
  * Stores all of the commands the bot can execute
+ *
+ * Commands are held in a trie keyed by the words of their name, so "!bot blw word" walks bot, then blw, and runs the
+ * deepest command found with "word" as its arguments. A message is resolved in one walk, and a message that does
+ * not start with ! costs one character check. The table is fixed once built and may be read from any thread.
  */
 public class CommandManager {
+    public static final char COMMAND_PREFIX = '!';
+    private static final int USER_COOLDOWN_SLOTS = 4096;
+
+    private final Node root = new Node();
+    private final CommandCooldowns commandCooldowns;
+
+    /**
+     * @throws IllegalArgumentException if two commands have the same name.
+     */
+    public CommandManager(Collection<? extends TwitchCommand> commands) {
+        this(commands, 0);
+    }
+
+    /**
+     * @param globalCooldownMillis Minimum gap between two answers in the channel from commands with a cooldown.
+     * @throws IllegalArgumentException if two commands have the same name.
+     */
+    public CommandManager(Collection<? extends TwitchCommand> commands, long globalCooldownMillis) {
+        for(TwitchCommand command : commands) {
+            Node node = root;
+            for(String word : command.getName().trim().split(" +")) {
+                node = node.children.computeIfAbsent(word.toLowerCase(Locale.ROOT), key -> new Node());
+            }
+            if(node.command != null) throw new IllegalArgumentException("Duplicate command " + command.getName());
+            node.command = command;
+        }
+        commandCooldowns = new CommandCooldowns(commands, globalCooldownMillis, USER_COOLDOWN_SLOTS);
+    }
+
+    /**
+     * Runs the command in the message if the user may run it.
+     * @param userPermission Permission of the sender, looked up once by the caller.
+     * @return Response of the command, or null if there is nothing to send.
+     */
+    public CommandResponse runCommand(TwitchMessage twitchMessage, UserPermission userPermission) {
+        Match match = find(twitchMessage.getMessagePayload());
+        if(match == null || !match.command.hasRequiredPermission(userPermission)) return null;
+        String arguments = match.getArguments();
+        TwitchCommand command = match.command;
+        switch(commandCooldowns.tryAcquire(command, twitchMessage.getSender().getUsername())) {
+            case Allowed:
+                return command.runCommand(twitchMessage, arguments);
+            case ChannelCooldown:
+                return runFallback(command, twitchMessage, arguments);
+            case UserCooldown:
+            default:
+                return null;
+        }
+    }
+
+    private CommandResponse runFallback(TwitchCommand command, TwitchMessage twitchMessage, String arguments) {
+        if(command.getCooldownFallback() == CooldownFallback.Ignore) return null;
+        CommandResponse commandResponse = command.runCommand(twitchMessage, arguments);
+        if(commandResponse == null) return null;
+        switch(command.getCooldownFallback()) {
+            case Whisper:
+                return commandResponse.setSendToChannel(false).setWhisperToUser(true);
+            case Mention:
+                return commandResponse.setSendToChannel(false).setWhisperToUser(false).setMentionBatch(command.getName());
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return The command the payload would run, or null if it is not a command.
+     */
+    public TwitchCommand findCommand(String payload) {
+        Match match = find(payload);
+        return match == null ? null : match.command;
+    }
+
+    /**
+     * @return The deepest command named at the start of the payload with where its arguments start, or null.
+     */
+    public Match find(String payload) {
+        if(payload == null || payload.length() < 2 || payload.charAt(0) != COMMAND_PREFIX) return null;
+        Node node = root;
+        TwitchCommand command = null;
+        int argumentStart = 0;
+        int position = 1;
+        while(position < payload.length()) {
+            int end = payload.indexOf(' ', position);
+            if(end < 0) end = payload.length();
+            node = node.children.get(payload.substring(position, end).toLowerCase(Locale.ROOT));
+            if(node == null) break;
+            if(node.command != null) {
+                command = node.command;
+                argumentStart = end + 1;
+            }
+            position = end + 1;
+        }
+        return command == null ? null : new Match(command, payload, argumentStart);
+    }
+
+    private static class Node {
+        private final Map<String, Node> children = new HashMap<>();
+        private TwitchCommand command;
+    }
+
+    /**
+     * A command found at the start of a payload, with the rest of the payload as its arguments.
+     */
+    public static class Match {
+        private final TwitchCommand command;
+        private final String payload;
+        private final int argumentStart;
+
+        private Match(TwitchCommand command, String payload, int argumentStart) {
+            this.command = command;
+            this.payload = payload;
+            this.argumentStart = argumentStart;
+        }
+
+        public TwitchCommand getCommand() {
+            return command;
+        }
+
+        /**
+         * @return Index in the payload where the arguments start. Equal to the payload length if there are none.
+         */
+        public int getArgumentStart() {
+            return Math.min(argumentStart, payload.length());
+        }
+
+        public String getArguments() {
+            return payload.substring(getArgumentStart());
+        }
+
+        /**
+         * @return True if anything other than whitespace follows the command name.
+         */
+        public boolean hasArguments() {
+            for(int i = getArgumentStart(); i < payload.length(); i++) {
+                if(!Character.isWhitespace(payload.charAt(i))) return true;
+            }
+            return false;
+        }
+    }
 }
@@ -10,12 +10,27 @@ public class CommandResponse {
     private TwitchMessage originalMessage;
     private boolean sendToChannel = false;
     private boolean whisperToUser = false;
+    private String mentionBatch;
 
     public CommandResponse(TwitchMessage originalMessage, String message) {
         this.originalMessage = originalMessage;
         this.message = message;
     }
 
+    /**
+     * @return Response sent to the channel the command came from.
+     */
+    public static CommandResponse toChannel(TwitchMessage originalMessage, String message) {
+        return new CommandResponse(originalMessage, message).setSendToChannel(true);
+    }
+
+    /**
+     * @return Response whispered to the user who sent the command.
+     */
+    public static CommandResponse toUser(TwitchMessage originalMessage, String message) {
+        return new CommandResponse(originalMessage, message).setWhisperToUser(true);
+    }
+
     public CommandResponse setWhisperToUser(boolean whisperToUser) {
         this.whisperToUser = whisperToUser;
         return this;
@@ -25,4 +40,33 @@ public class CommandResponse {
         this.sendToChannel = sendToChannel;
         return this;
     }
+
+    /**
+     * Answers in the channel together with other requests in the same batch, mentioning the user.
+     * @param mentionBatch Identifies requests that may share an answer, usually the command name. Null to send alone.
+     */
+    public CommandResponse setMentionBatch(String mentionBatch) {
+        this.mentionBatch = mentionBatch;
+        return this;
+    }
+
+    public String getMentionBatch() {
+        return mentionBatch;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public TwitchMessage getOriginalMessage() {
+        return originalMessage;
+    }
+
+    public boolean isSendToChannel() {
+        return sendToChannel;
+    }
+
+    public boolean isWhisperToUser() {
+        return whisperToUser;
+    }
 }
@@ -0,0 +1,20 @@
+package channel.commands;
+
+/**
+ * What a command does when it is asked for while cooling down in the channel.
+ */
+public enum CooldownFallback {
+    /**
+     * Ignore the request.
+     */
+    Ignore,
+    /**
+     * Run the command and whisper the response to the user asking instead of answering in the channel.
+     */
+    Whisper,
+    /**
+     * Run the command and answer in the channel once, mentioning everyone who asked during a short delay. See
+     * ResponseCoalescer.
+     */
+    Mention
+}
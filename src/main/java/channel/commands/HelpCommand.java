@@ -0,0 +1,39 @@
+package channel.commands;
+
+import channel.data.TwitchMessage;
+import channel.permissions.UserPermission;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Points users at the bot's documentation.
+ */
+public class HelpCommand implements TwitchCommand {
+    private static final String HELP_MESSAGE = "You can find out more about the bot here: http://bit.ly/1DnLq9M. " +
+            "If you want to request an unban please tweet @deadfire19";
+
+    @Override
+    public String getName() {
+        return "help";
+    }
+
+    @Override
+    public boolean hasRequiredPermission(UserPermission userPermission) {
+        return true;
+    }
+
+    @Override
+    public long getCooldownMillis() {
+        return TimeUnit.SECONDS.toMillis(30);
+    }
+
+    @Override
+    public long getUserCooldownMillis() {
+        return TimeUnit.MINUTES.toMillis(1);
+    }
+
+    @Override
+    public CommandResponse runCommand(TwitchMessage twitchMessage, String arguments) {
+        return CommandResponse.toChannel(twitchMessage, HELP_MESSAGE);
+    }
+}
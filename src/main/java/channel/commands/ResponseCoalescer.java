@@ -0,0 +1,220 @@
+package channel.commands;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Holds command answers back briefly so a burst of identical requests costs a handful of messages.
+ *
+ * Mentions: requests for the same command are answered together by one channel message that @-mentions everyone who
+ * asked, once the oldest request has waited the coalescing delay. At most one message per command is sent per mention
+ * interval, counting answers sent directly (see #tryAnswer), so the channel never gets two answers to the same command
+ * in quick succession. Users that did not fit wait for the next one. The interval must be shorter than the maximum
+ * age, or users left over would always go stale before the next message.
+ *
+ * Whispers: a user is whispered a given message once however often it was requested, and whispers are released at a
+ * fixed number per flush so the whisper rate limit is never queued far ahead.
+ *
+ * Both are bounded. A request arriving when full is dropped, as is any request older than the maximum age when it
+ * would be sent. #flush is expected to be called about once a second.
+ */
+public class ResponseCoalescer {
+    private static final int MAX_MESSAGE_LENGTH = 500;
+
+    private Logger log = LogManager.getLogger();
+
+    private final long coalesceMillis;
+    private final long mentionIntervalMillis;
+    private final long maxAgeMillis;
+    private final int maxPendingRequests;
+    private final int whispersPerFlush;
+    private final Consumer<String> channelSender;
+    private final BiConsumer<String, String> whisperSender;
+
+    private final Map<String, MentionBatch> mentionBatches = new LinkedHashMap<>();
+    private final Map<String, PendingWhisper> pendingWhispers = new LinkedHashMap<>();
+    private final Map<String, Long> lastMentionMillis = new HashMap<>();
+    private int pendingMentionCount = 0;
+    private long droppedRequestCount = 0;
+
+    /**
+     * @param coalesceMillis        Time the oldest request for a command waits so others can join its answer.
+     * @param mentionIntervalMillis Minimum time between two answers in the channel to the same command.
+     * @param maxAgeMillis          Requests not answered within this are dropped. Must exceed mentionIntervalMillis.
+     * @param maxPendingRequests    Limit on waiting mentions, and separately on waiting whispers.
+     * @param whispersPerFlush      Whispers released by each flush.
+     * @param channelSender         Sends a message to the channel.
+     * @param whisperSender         Whispers a (user, message) pair.
+     * @throws IllegalArgumentException if mentionIntervalMillis is not less than maxAgeMillis.
+     */
+    public ResponseCoalescer(long coalesceMillis, long mentionIntervalMillis, long maxAgeMillis, int maxPendingRequests,
+                             int whispersPerFlush, Consumer<String> channelSender, BiConsumer<String, String> whisperSender) {
+        if(mentionIntervalMillis >= maxAgeMillis) {
+            throw new IllegalArgumentException("Mention interval must be shorter than the maximum age");
+        }
+        this.coalesceMillis = coalesceMillis;
+        this.mentionIntervalMillis = mentionIntervalMillis;
+        this.maxAgeMillis = maxAgeMillis;
+        this.maxPendingRequests = maxPendingRequests;
+        this.whispersPerFlush = whispersPerFlush;
+        this.channelSender = channelSender;
+        this.whisperSender = whisperSender;
+    }
+
+    /**
+     * Adds a user to the next answer for the given batch. The latest message given for a batch is the one sent.
+     * @param batchKey Identifies the command being answered.
+     * @return false if the request was dropped because too many are waiting.
+     */
+    public synchronized boolean addMention(String batchKey, String message, String username, long nowMillis) {
+        MentionBatch batch = mentionBatches.get(batchKey);
+        if(batch != null && batch.requestMillis.containsKey(username)) {
+            batch.message = message;
+            return true;
+        }
+        if(pendingMentionCount >= maxPendingRequests) {
+            droppedRequestCount++;
+            return false;
+        }
+        if(batch == null) {
+            batch = new MentionBatch();
+            mentionBatches.put(batchKey, batch);
+        }
+        batch.message = message;
+        batch.requestMillis.put(username, nowMillis);
+        pendingMentionCount++;
+        return true;
+    }
+
+    /**
+     * Takes the batch's slot for an answer sent straight to the channel, if no answer to it went out within the mention
+     * interval. The next mention message for the batch then waits a whole interval.
+     * @return false if the caller should add a mention instead of answering now.
+     */
+    public synchronized boolean tryAnswer(String batchKey, long nowMillis) {
+        Long lastMention = lastMentionMillis.get(batchKey);
+        if(lastMention != null && nowMillis - lastMention < mentionIntervalMillis) return false;
+        lastMentionMillis.put(batchKey, nowMillis);
+        return true;
+    }
+
+    /**
+     * Queues a whisper unless the user is already waiting for the same message.
+     * @return false if the whisper was dropped because too many are waiting.
+     */
+    public synchronized boolean addWhisper(String username, String message, long nowMillis) {
+        String key = username + '\n' + message;
+        if(pendingWhispers.containsKey(key)) return true;
+        if(pendingWhispers.size() >= maxPendingRequests) {
+            droppedRequestCount++;
+            return false;
+        }
+        pendingWhispers.put(key, new PendingWhisper(username, message, nowMillis));
+        return true;
+    }
+
+    /**
+     * Drops stale requests and sends whatever is due.
+     */
+    public void flush(long nowMillis) {
+        List<String> dueMessages = new ArrayList<>();
+        List<PendingWhisper> dueWhispers = new ArrayList<>();
+        synchronized (this) {
+            collectMentions(nowMillis, dueMessages);
+            collectWhispers(nowMillis, dueWhispers);
+        }
+        // Sent outside the lock so a slow sender never holds up new requests.
+        dueMessages.forEach(channelSender);
+        dueWhispers.forEach(whisper -> whisperSender.accept(whisper.username, whisper.message));
+    }
+
+    public synchronized int getPendingMentionCount() {
+        return pendingMentionCount;
+    }
+
+    public synchronized int getPendingWhisperCount() {
+        return pendingWhispers.size();
+    }
+
+    /**
+     * @return Requests dropped because too many were waiting or because they went stale.
+     */
+    public synchronized long getDroppedRequestCount() {
+        return droppedRequestCount;
+    }
+
+    private void collectMentions(long nowMillis, List<String> dueMessages) {
+        Iterator<Map.Entry<String, MentionBatch>> batchIterator = mentionBatches.entrySet().iterator();
+        while(batchIterator.hasNext()) {
+            Map.Entry<String, MentionBatch> batchEntry = batchIterator.next();
+            MentionBatch batch = batchEntry.getValue();
+            Iterator<Map.Entry<String, Long>> requestIterator = batch.requestMillis.entrySet().iterator();
+            while(requestIterator.hasNext() && nowMillis - requestIterator.next().getValue() > maxAgeMillis) {
+                requestIterator.remove();
+                pendingMentionCount--;
+                droppedRequestCount++;
+            }
+            if(batch.requestMillis.isEmpty()) {
+                batchIterator.remove();
+                continue;
+            }
+            if(nowMillis - batch.requestMillis.values().iterator().next() < coalesceMillis) continue;
+            Long lastMention = lastMentionMillis.get(batchEntry.getKey());
+            if(lastMention != null && nowMillis - lastMention < mentionIntervalMillis) continue;
+            lastMentionMillis.put(batchEntry.getKey(), nowMillis);
+
+            StringBuilder mentions = new StringBuilder();
+            requestIterator = batch.requestMillis.entrySet().iterator();
+            while(requestIterator.hasNext()) {
+                String username = requestIterator.next().getKey();
+                boolean fits = mentions.length() + username.length() + 2 + batch.message.length() <= MAX_MESSAGE_LENGTH;
+                if(!fits && mentions.length() > 0) break;
+                mentions.append('@').append(username).append(' ');
+                requestIterator.remove();
+                pendingMentionCount--;
+            }
+            dueMessages.add(mentions.append(batch.message).toString());
+            if(batch.requestMillis.isEmpty()) batchIterator.remove();
+        }
+    }
+
+    private void collectWhispers(long nowMillis, List<PendingWhisper> dueWhispers) {
+        Iterator<PendingWhisper> whisperIterator = pendingWhispers.values().iterator();
+        while(whisperIterator.hasNext() && dueWhispers.size() < whispersPerFlush) {
+            PendingWhisper whisper = whisperIterator.next();
+            whisperIterator.remove();
+            if(nowMillis - whisper.requestMillis > maxAgeMillis) {
+                droppedRequestCount++;
+                log.debug("Dropped stale whisper to {}: {}", whisper.username, whisper.message);
+                continue;
+            }
+            dueWhispers.add(whisper);
+        }
+    }
+
+    private static class MentionBatch {
+        private final LinkedHashMap<String, Long> requestMillis = new LinkedHashMap<>();
+        private String message;
+    }
+
+    private static class PendingWhisper {
+        private final String username;
+        private final String message;
+        private final long requestMillis;
+
+        private PendingWhisper(String username, String message, long requestMillis) {
+            this.username = username;
+            this.message = message;
+            this.requestMillis = requestMillis;
+        }
+    }
+}
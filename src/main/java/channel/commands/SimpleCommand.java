@@ -0,0 +1,73 @@
+package channel.commands;
+
+import channel.data.TwitchMessage;
+import channel.permissions.UserPermission;
+
+import java.util.function.BiFunction;
+
+/**
+ * TwitchCommand that runs a function. Used for commands that need the state of a single channel's bot.
+ */
+public class SimpleCommand implements TwitchCommand {
+    private final String name;
+    private final UserPermission requiredPermission;
+    private final BiFunction<TwitchMessage, String, CommandResponse> action;
+    private long cooldownMillis = 0;
+    private long userCooldownMillis = 0;
+    private CooldownFallback cooldownFallback = CooldownFallback.Ignore;
+
+    /**
+     * @param action Given the message and the arguments after the command name. Returns the response, or null.
+     */
+    public SimpleCommand(String name, UserPermission requiredPermission,
+                         BiFunction<TwitchMessage, String, CommandResponse> action) {
+        this.name = name;
+        this.requiredPermission = requiredPermission;
+        this.action = action;
+    }
+
+    public SimpleCommand setCooldownMillis(long cooldownMillis) {
+        this.cooldownMillis = cooldownMillis;
+        return this;
+    }
+
+    public SimpleCommand setUserCooldownMillis(long userCooldownMillis) {
+        this.userCooldownMillis = userCooldownMillis;
+        return this;
+    }
+
+    public SimpleCommand setCooldownFallback(CooldownFallback cooldownFallback) {
+        this.cooldownFallback = cooldownFallback;
+        return this;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public boolean hasRequiredPermission(UserPermission userPermission) {
+        return userPermission.hasRequiredPermissions(requiredPermission);
+    }
+
+    @Override
+    public long getCooldownMillis() {
+        return cooldownMillis;
+    }
+
+    @Override
+    public long getUserCooldownMillis() {
+        return userCooldownMillis;
+    }
+
+    @Override
+    public CooldownFallback getCooldownFallback() {
+        return cooldownFallback;
+    }
+
+    @Override
+    public CommandResponse runCommand(TwitchMessage twitchMessage, String arguments) {
+        return action.apply(twitchMessage, arguments);
+    }
+}
@@ -9,6 +9,11 @@ import channel.permissions.UserPermission;
  * Interface to allow easy manipulation of TwitchCommands
  */
 public interface TwitchCommand {
+    /**
+     * @return Words that follow the ! to invoke the command, such as "help" or "bot blw". Matched ignoring case.
+     */
+    String getName();
+
     /**
      * Checks if the given user permission is sufficient to execute the command.
      * @param userPermission The permission the user has.
@@ -16,10 +21,29 @@ public interface TwitchCommand {
      */
     boolean hasRequiredPermission(UserPermission userPermission);
 
+    /**
+     * @return Minimum time between two runs of the command in a channel. Requests inside it use #getCooldownFallback.
+     */
+    default long getCooldownMillis() {
+        return 0;
+    }
+
+    /**
+     * @return Minimum time between two requests for the command from one user. Requests inside it are ignored.
+     */
+    default long getUserCooldownMillis() {
+        return 0;
+    }
+
+    default CooldownFallback getCooldownFallback() {
+        return CooldownFallback.Ignore;
+    }
+
     /**
      * Runs a command. This results in a CommandResponse
-     * @param twitchMessage
-     * @return
+     * @param twitchMessage Message that invoked the command.
+     * @param arguments     Rest of the message after the command name. Empty if there is none.
+     * @return Response to send, or null if there is nothing to send.
      */
-    CommandResponse runCommand(TwitchMessage twitchMessage);
+    CommandResponse runCommand(TwitchMessage twitchMessage, String arguments);
 }
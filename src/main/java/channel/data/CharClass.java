@@ -0,0 +1,65 @@
+package channel.data;
+
+import java.util.Arrays;
+
+/**
+ * Immutable set of chars backed by a primitive bitset. Chars in the Latin-1 range are tested against four fixed
+ * words, so the common case is a shift, a mask and no branching on size.
+ */
+public final class CharClass {
+    private static final int LATIN_1_WORDS = 4;
+
+    private final long[] latin1Bits;
+    private final long[] extendedBits;
+
+    private CharClass(long[] latin1Bits, long[] extendedBits) {
+        this.latin1Bits = latin1Bits;
+        this.extendedBits = extendedBits;
+    }
+
+    /**
+     * @param chars Every char in the class.
+     */
+    public static CharClass of(CharSequence chars) {
+        long[] latin1Bits = new long[LATIN_1_WORDS];
+        char maxChar = 0;
+        for(int i = 0; i < chars.length(); i++) maxChar = (char) Math.max(maxChar, chars.charAt(i));
+        long[] extendedBits = new long[maxChar < 256 ? 0 : (maxChar >>> 6) + 1];
+        for(int i = 0; i < chars.length(); i++) {
+            char c = chars.charAt(i);
+            if(c < 256) latin1Bits[c >>> 6] |= 1L << c;
+            else extendedBits[c >>> 6] |= 1L << c;
+        }
+        return new CharClass(latin1Bits, extendedBits);
+    }
+
+    public boolean contains(char c) {
+        if(c < 256) return (latin1Bits[c >>> 6] & (1L << c)) != 0;
+        int word = c >>> 6;
+        return word < extendedBits.length && (extendedBits[word] & (1L << c)) != 0;
+    }
+
+    /**
+     * Counts the chars of the sequence that are in the class.
+     */
+    public int count(CharSequence charSequence) {
+        int count = 0;
+        for(int i = 0; i < charSequence.length(); i++) {
+            if(contains(charSequence.charAt(i))) count++;
+        }
+        return count;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof CharClass)) return false;
+        CharClass that = (CharClass) o;
+        return Arrays.equals(latin1Bits, that.latin1Bits) && Arrays.equals(extendedBits, that.extendedBits);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(latin1Bits) + Arrays.hashCode(extendedBits);
+    }
+}
@@ -0,0 +1,161 @@
+package channel.data;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Per-message features used by the spam heuristics, computed in a single pass over the payload.
+ *
+ * Char based features are counted over the simplified payload (see TwitchMessage#simplifyMessage) without building it,
+ * apart from the uppercase ratio which needs the original case. Emotes are whole words matched case-sensitively by
+ * hash, so an occasional false positive on a hash collision is accepted in exchange for not allocating a token.
+ */
+public final class MessageFeatures {
+    private static final int[] NO_EMOTES = new int[0];
+
+    private final int charCount;
+    private final int legalCharCount;
+    private final int letterCount;
+    private final int uppercaseCount;
+    private final int symbolCount;
+    private final int wordCount;
+    private final int emoteCount;
+    private final int longestRun;
+
+    private MessageFeatures(int charCount, int legalCharCount, int letterCount, int uppercaseCount, int symbolCount,
+                            int wordCount, int emoteCount, int longestRun) {
+        this.charCount = charCount;
+        this.legalCharCount = legalCharCount;
+        this.letterCount = letterCount;
+        this.uppercaseCount = uppercaseCount;
+        this.symbolCount = symbolCount;
+        this.wordCount = wordCount;
+        this.emoteCount = emoteCount;
+        this.longestRun = longestRun;
+    }
+
+    public static MessageFeatures compute(String messagePayload, CharClass legalChars) {
+        return compute(messagePayload, legalChars, NO_EMOTES);
+    }
+
+    /**
+     * @param messagePayload Original message payload.
+     * @param legalChars     Chars of the simplified payload that are counted as legal.
+     * @param emoteHashes    Sorted hashes of emote names, see #hashEmotes.
+     */
+    public static MessageFeatures compute(String messagePayload, CharClass legalChars, int[] emoteHashes) {
+        int charCount = 0;
+        int legalCharCount = 0;
+        int letterCount = 0;
+        int uppercaseCount = 0;
+        int symbolCount = 0;
+        int wordCount = 0;
+        int emoteCount = 0;
+        int longestRun = 0;
+
+        int run = 0;
+        char previous = 0;
+        boolean inWord = false;
+        int wordHash = 0;
+        for(int i = 0; i < messagePayload.length(); i++) {
+            char c = messagePayload.charAt(i);
+            if(MessageNormaliser.isRemoved(c, false)) {
+                if(inWord && isEmote(wordHash, emoteHashes)) emoteCount++;
+                inWord = false;
+                continue;
+            }
+            if(MessageNormaliser.isRemoved(c, true)) continue;
+            if(!inWord) {
+                inWord = true;
+                wordCount++;
+                wordHash = 0;
+            }
+            wordHash = 31 * wordHash + c;
+
+            if(Character.isLetter(c)) {
+                letterCount++;
+                if(Character.isUpperCase(c)) uppercaseCount++;
+            } else if(!Character.isDigit(c)) {
+                symbolCount++;
+            }
+
+            char folded = MessageNormaliser.fold(c, true);
+            charCount++;
+            if(legalChars.contains(folded)) legalCharCount++;
+            run = charCount > 1 && folded == previous ? run + 1 : 1;
+            longestRun = Math.max(longestRun, run);
+            previous = folded;
+        }
+        if(inWord && isEmote(wordHash, emoteHashes)) emoteCount++;
+
+        return new MessageFeatures(charCount, legalCharCount, letterCount, uppercaseCount, symbolCount, wordCount,
+                emoteCount, longestRun);
+    }
+
+    /**
+     * @return Sorted emote name hashes for use with #compute.
+     */
+    public static int[] hashEmotes(Collection<String> emotes) {
+        return emotes.stream().mapToInt(String::hashCode).sorted().distinct().toArray();
+    }
+
+    private static boolean isEmote(int wordHash, int[] emoteHashes) {
+        return emoteHashes.length != 0 && Arrays.binarySearch(emoteHashes, wordHash) >= 0;
+    }
+
+    /**
+     * @return Number of chars in the simplified payload.
+     */
+    public int getCharCount() {
+        return charCount;
+    }
+
+    /**
+     * @return Proportion of simplified chars that are legal. 1 for an empty message.
+     */
+    public double getLegalCharRatio() {
+        return charCount == 0 ? 1 : (double) legalCharCount / charCount;
+    }
+
+    /**
+     * @return Proportion of letters that are uppercase. 0 if there are no letters.
+     */
+    public double getUppercaseRatio() {
+        return letterCount == 0 ? 0 : (double) uppercaseCount / letterCount;
+    }
+
+    /**
+     * @return Proportion of simplified chars that are neither letters nor digits.
+     */
+    public double getSymbolRatio() {
+        return charCount == 0 ? 0 : (double) symbolCount / charCount;
+    }
+
+    /**
+     * @return Proportion of words that are emotes.
+     */
+    public double getEmoteDensity() {
+        return wordCount == 0 ? 0 : (double) emoteCount / wordCount;
+    }
+
+    public int getWordCount() {
+        return wordCount;
+    }
+
+    public int getEmoteCount() {
+        return emoteCount;
+    }
+
+    /**
+     * @return Length of the longest run of the same simplified char, e.g. 5 for "heyyyyy".
+     */
+    public int getLongestRun() {
+        return longestRun;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("MessageFeatures{chars=%d, legal=%.2f, upper=%.2f, symbols=%.2f, emotes=%.2f, run=%d}",
+                charCount, getLegalCharRatio(), getUppercaseRatio(), getSymbolRatio(), getEmoteDensity(), longestRun);
+    }
+}
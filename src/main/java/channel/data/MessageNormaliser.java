@@ -0,0 +1,83 @@
+package channel.data;
+
+/**
+ * Builds the canonical form of a message used for comparisons and blacklist matching, in a single pass over the chars.
+ *
+ * Whitespace is removed and case is folded. Optionally, zero-width and invisible formatting chars are removed and
+ * common confusables (full width forms, Cyrillic and Greek look-alikes) are folded to their ASCII equivalent.
+ */
+public final class MessageNormaliser {
+    private static final char FULL_WIDTH_START = '\uff01';
+    private static final char FULL_WIDTH_END = '\uff5e';
+    private static final int FULL_WIDTH_OFFSET = 0xFEE0;
+
+    private static final String CONFUSABLES =
+            "\u0430\u0435\u043e\u0440\u0441\u0445\u0443\u0456\u0458\u0455\u0501\u04cf\u03bf\u03b1\u03bd\u03c1\u03b9\u03ba\u03c4";
+    private static final String CONFUSABLE_REPLACEMENTS =
+            "aeopcxyijsdloavpikt";
+
+    private static final char CONFUSABLE_MAP_START = '\u0370';
+    private static final char[] confusableMap = buildConfusableMap();
+
+    private MessageNormaliser() {
+    }
+
+    /**
+     * @param message         Message to normalise.
+     * @param foldConfusables Also strip zero-width chars and fold look-alike chars.
+     * @return Normalised message.
+     */
+    public static String normalise(String message, boolean foldConfusables) {
+        final int length = message.length();
+        char[] normalised = new char[length];
+        int normalisedLength = 0;
+        for(int i = 0; i < length; i++) {
+            char c = message.charAt(i);
+            if(isRemoved(c, foldConfusables)) continue;
+            normalised[normalisedLength++] = fold(c, foldConfusables);
+        }
+        return normalisedLength == length ? new String(normalised) : new String(normalised, 0, normalisedLength);
+    }
+
+    /**
+     * @return true if the char is dropped from the normalised form.
+     */
+    static boolean isRemoved(char c, boolean foldConfusables) {
+        return c == ' ' || Character.isWhitespace(c) || Character.isSpaceChar(c) || (foldConfusables && isInvisible(c));
+    }
+
+    /**
+     * @return The char as it appears in the normalised form. Only valid for chars that are not removed.
+     */
+    static char fold(char c, boolean foldConfusables) {
+        // Lower case first, as the confusable table only holds the lower case look-alikes.
+        char lowerCase = Character.toLowerCase(c);
+        return foldConfusables ? foldConfusable(lowerCase) : lowerCase;
+    }
+
+    private static boolean isInvisible(char c) {
+        return (c >= '\u200b' && c <= '\u200f')
+                || (c >= '\u2060' && c <= '\u2064')
+                || c == '\u00ad'
+                || c == '\u034f'
+                || c == '\ufeff';
+    }
+
+    private static char foldConfusable(char c) {
+        if(c < CONFUSABLE_MAP_START) return c;
+        if(c >= FULL_WIDTH_START && c <= FULL_WIDTH_END) return (char) (c - FULL_WIDTH_OFFSET);
+        int index = c - CONFUSABLE_MAP_START;
+        if(index < confusableMap.length && confusableMap[index] != 0) return confusableMap[index];
+        return c;
+    }
+
+    private static char[] buildConfusableMap() {
+        char maxChar = 0;
+        for(int i = 0; i < CONFUSABLES.length(); i++) maxChar = (char) Math.max(maxChar, CONFUSABLES.charAt(i));
+        char[] map = new char[maxChar - CONFUSABLE_MAP_START + 1];
+        for(int i = 0; i < CONFUSABLES.length(); i++) {
+            map[CONFUSABLES.charAt(i) - CONFUSABLE_MAP_START] = CONFUSABLE_REPLACEMENTS.charAt(i);
+        }
+        return map;
+    }
+}
@@ -12,25 +12,39 @@ import java.util.Collection;
 public class TwitchMessage {
     private String messagePayload;
     private String simpleMessagePayload;
+    private int simpleMessagePayloadHash;
     private TwitchUser sender;
     private DateTime messageDateTime;
+    private String channel;
 
     public TwitchMessage(
             String messagePayload,
             TwitchUser sender,
             DateTime messageDateTime) {
+        this(messagePayload, sender, messageDateTime, null);
+    }
+
+    /**
+     * @param channel Channel the message was sent to. Null if unknown.
+     */
+    public TwitchMessage(
+            String messagePayload,
+            TwitchUser sender,
+            DateTime messageDateTime,
+            String channel) {
         this.messagePayload = messagePayload;
         this.sender = sender;
         this.messageDateTime = messageDateTime;
+        this.channel = channel;
+        this.simpleMessagePayload = simplifyMessage(messagePayload);
+        this.simpleMessagePayloadHash = simpleMessagePayload.hashCode();
     }
 
     public TwitchMessage(
             String messagePayload,
             String sender,
             DateTime messageDateTime) {
-        this.messagePayload = messagePayload;
-        this.sender = new TwitchUser(sender);
-        this.messageDateTime = messageDateTime;
+        this(messagePayload, new TwitchUser(sender), messageDateTime);
     }
 
     public String getMessagePayload() {
@@ -38,15 +52,17 @@ public class TwitchMessage {
     }
 
     /**
-     * Returns the message payload with no spaces in lowercase
+     * Returns the message payload with no whitespace in lowercase, with invisible chars removed and confusables
+     * folded. Computed once when the message is created.
      */
     public String getSimpleMessagePayload() {
-        if(simpleMessagePayload == null){
-            simpleMessagePayload = simplifyMessage(messagePayload);
-        }
         return simpleMessagePayload;
     }
 
+    public int getSimpleMessagePayloadHash() {
+        return simpleMessagePayloadHash;
+    }
+
     public TwitchUser getSender() {
         return sender;
     }
@@ -55,6 +71,13 @@ public class TwitchMessage {
         return messageDateTime;
     }
 
+    /**
+     * @return Channel the message was sent to, or null if unknown.
+     */
+    public String getChannel() {
+        return channel;
+    }
+
     /**
      * Returns the ratio of legal chars in the simple message payload to number of chars in the simplified message.
      * @param permittedCharSet Chars that are counted as legal.
@@ -68,6 +91,24 @@ public class TwitchMessage {
         return ((double) permittedCharCount) / ((double) getSimpleMessagePayload().length());
     }
 
+    /**
+     * Returns the ratio of legal chars in the simple message payload to number of chars in the simplified message.
+     * @param permittedChars Chars that are counted as legal.
+     * @return Double between 0 and 1 that shows what proportion of chars are legal.
+     */
+    public double getLegalCharRatio(CharClass permittedChars) {
+        return ((double) permittedChars.count(getSimpleMessagePayload())) / ((double) getSimpleMessagePayload().length());
+    }
+
+    /**
+     * Computes the spam heuristic features of this message in one pass.
+     * @param permittedChars Chars that are counted as legal.
+     * @param emoteHashes Sorted emote name hashes, see MessageFeatures#hashEmotes.
+     */
+    public MessageFeatures getFeatures(CharClass permittedChars, int[] emoteHashes) {
+        return MessageFeatures.compute(getMessagePayload(), permittedChars, emoteHashes);
+    }
+
     /**
      * True if the given payload is the same as the message once both are simplified.
      * @param messagePayload payload to compare to this message.
@@ -75,7 +116,18 @@ public class TwitchMessage {
      */
     public boolean equalsSimplePayload(String messagePayload) {
         final String simpleMessagePayload = simplifyMessage(messagePayload);
-        return getSimpleMessagePayload().equals(simpleMessagePayload);
+        return simpleMessagePayloadHash == simpleMessagePayload.hashCode()
+                && getSimpleMessagePayload().equals(simpleMessagePayload);
+    }
+
+    /**
+     * True if both messages are the same once simplified. Uses the precomputed simple payloads only.
+     * @param twitchMessage message to compare to this message.
+     * @return true if exactly the same.
+     */
+    public boolean equalsSimplePayload(TwitchMessage twitchMessage) {
+        return simpleMessagePayloadHash == twitchMessage.simpleMessagePayloadHash
+                && simpleMessagePayload.equals(twitchMessage.simpleMessagePayload);
     }
 
     /**
@@ -119,7 +171,7 @@ public class TwitchMessage {
      * @param originalMessage payload of message to simplify
      * @return simplified message
      */
-    private static String simplifyMessage(String originalMessage) {
-        return originalMessage.replaceAll(" ", "").toLowerCase();
+    public static String simplifyMessage(String originalMessage) {
+        return MessageNormaliser.normalise(originalMessage, true);
     }
 }
@@ -38,7 +38,12 @@ public class ImmutableTwitchMessageList {
     }
 
     public long containsSimplePayload(String payload) {
-        return stream().filter(twitchMessage -> twitchMessage.equalsSimplePayload(payload)).count();
+        final String simplePayload = TwitchMessage.simplifyMessage(payload);
+        final int simplePayloadHash = simplePayload.hashCode();
+        return stream()
+                .filter(twitchMessage -> twitchMessage.getSimpleMessagePayloadHash() == simplePayloadHash)
+                .filter(twitchMessage -> twitchMessage.getSimpleMessagePayload().equals(simplePayload))
+                .count();
     }
 
     public int size(){
@@ -49,7 +54,9 @@ public class ImmutableTwitchMessageList {
      * Finds the time span of the messages in the list
      *
      * @return Length of time in seconds
+     * @deprecated Use MessageManager#getUserPeakMessageRate for message rates.
      */
+    @Deprecated
     public Period getMessageTimePeriod(){
         if (twitchMessages.size() <= 0) return Period.ZERO;
         DateTime minDateTime = twitchMessages.stream().map(TwitchMessage::getMessageDateTime).min(DateTimeComparator.getInstance()).get();
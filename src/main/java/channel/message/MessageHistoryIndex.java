@@ -0,0 +1,129 @@
+package channel.message;
+
+import channel.data.TwitchMessage;
+import org.joda.time.DateTime;
+
+import java.util.*;
+
+/**
+ * Time bounded history of channel messages with an inverted trigram index over the simplified payloads, so a new
+ * blacklist rule can find every recent breach without scanning the whole history.
+ *
+ * Each trigram maps to its messages in arrival order. Messages are evicted oldest first, so an evicted message is
+ * always at the head of each of its trigram lists and eviction costs one removal per distinct trigram.
+ */
+public class MessageHistoryIndex {
+    private static final int GRAM_LENGTH = 3;
+
+    private final long retentionMillis;
+    private final int maxMessages;
+    private final Deque<Entry> entries = new ArrayDeque<>();
+    private final Map<Long, Deque<Entry>> postings = new HashMap<>();
+
+    /**
+     * @param retentionMillis Messages older than this, relative to the newest message, are evicted.
+     * @param maxMessages     Hard cap on retained messages, for floods.
+     */
+    public MessageHistoryIndex(long retentionMillis, int maxMessages) {
+        if(maxMessages < 1) throw new IllegalArgumentException("maxMessages must be at least 1");
+        this.retentionMillis = retentionMillis;
+        this.maxMessages = maxMessages;
+    }
+
+    public synchronized void add(TwitchMessage twitchMessage) {
+        DateTime messageDateTime = twitchMessage.getMessageDateTime();
+        long timeMillis = messageDateTime == null ? System.currentTimeMillis() : messageDateTime.getMillis();
+        Entry entry = new Entry(twitchMessage, timeMillis, grams(twitchMessage.getSimpleMessagePayload()));
+        entries.addLast(entry);
+        for(long gram : entry.grams) postings.computeIfAbsent(gram, key -> new ArrayDeque<>()).addLast(entry);
+
+        while(entries.size() > maxMessages || entries.peekFirst().timeMillis < timeMillis - retentionMillis) {
+            evict(entries.pollFirst());
+        }
+    }
+
+    /**
+     * @param simpleTerm Simplified text to search for.
+     * @return Retained messages whose simplified payload contains the term, oldest first.
+     */
+    public synchronized List<TwitchMessage> findContaining(String simpleTerm) {
+        List<TwitchMessage> matches = new ArrayList<>();
+        for(Entry entry : candidates(simpleTerm)) {
+            if(entry.message.getSimpleMessagePayload().contains(simpleTerm)) matches.add(entry.message);
+        }
+        return matches;
+    }
+
+    /**
+     * @param simplePayload Simplified payload to search for.
+     * @return Retained messages whose simplified payload equals the given payload, oldest first.
+     */
+    public synchronized List<TwitchMessage> findEqual(String simplePayload) {
+        final int hash = simplePayload.hashCode();
+        List<TwitchMessage> matches = new ArrayList<>();
+        for(Entry entry : candidates(simplePayload)) {
+            if(entry.message.getSimpleMessagePayloadHash() == hash
+                    && entry.message.getSimpleMessagePayload().equals(simplePayload)) {
+                matches.add(entry.message);
+            }
+        }
+        return matches;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return The shortest trigram list of the term, or every message if the term is too short to have trigrams.
+     */
+    private Collection<Entry> candidates(String simpleTerm) {
+        if(simpleTerm.length() < GRAM_LENGTH) return entries;
+        Collection<Entry> shortest = null;
+        for(int i = 0; i + GRAM_LENGTH <= simpleTerm.length(); i++) {
+            Deque<Entry> posting = postings.get(gram(simpleTerm, i));
+            if(posting == null) return Collections.emptyList();
+            if(shortest == null || posting.size() < shortest.size()) shortest = posting;
+        }
+        return shortest;
+    }
+
+    private void evict(Entry entry) {
+        for(long gram : entry.grams) {
+            Deque<Entry> posting = postings.get(gram);
+            posting.pollFirst();
+            if(posting.isEmpty()) postings.remove(gram);
+        }
+    }
+
+    /**
+     * @return The distinct trigrams of the payload.
+     */
+    private static long[] grams(String simplePayload) {
+        int gramCount = Math.max(0, simplePayload.length() - GRAM_LENGTH + 1);
+        long[] grams = new long[gramCount];
+        for(int i = 0; i < gramCount; i++) grams[i] = gram(simplePayload, i);
+        Arrays.sort(grams);
+        int distinct = 0;
+        for(int i = 0; i < gramCount; i++) {
+            if(i == 0 || grams[i] != grams[i - 1]) grams[distinct++] = grams[i];
+        }
+        return distinct == gramCount ? grams : Arrays.copyOf(grams, distinct);
+    }
+
+    private static long gram(String text, int start) {
+        return ((long) text.charAt(start) << 32) | ((long) text.charAt(start + 1) << 16) | text.charAt(start + 2);
+    }
+
+    private static class Entry {
+        private final TwitchMessage message;
+        private final long timeMillis;
+        private final long[] grams;
+
+        private Entry(TwitchMessage message, long timeMillis, long[] grams) {
+            this.message = message;
+            this.timeMillis = timeMillis;
+            this.grams = grams;
+        }
+    }
+}
@@ -2,9 +2,14 @@ package channel.message;
 
 import channel.data.TwitchMessage;
 import channel.data.TwitchUser;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import org.joda.time.DateTime;
 
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by Dominic Hauton on 12/03/2016.
@@ -12,34 +17,155 @@ import java.util.concurrent.ConcurrentMap;
  * A rolling log of messages with snapshot retrieval.
  */
 public class MessageManager {
-    private TwitchMessageEvictingQueue channelEvictingQueue;
-    private ConcurrentMap<TwitchUser, TwitchMessageEvictingQueue> userEvictingQueueMap;
+    private TwitchMessageRingBuffer channelRingBuffer;
+    private PayloadFrequencyCounter channelPayloadCounter;
+    private NearDuplicateIndex channelNearDuplicateIndex;
+    private MessageHistoryIndex channelHistoryIndex;
+    private LoadingCache<TwitchUser, UserHistory> userHistoryCache;
 
     private final static int userQueueSize = 10;
     private final static int channelQueueSize = 10;
+    private final static int userIdleMinutes = 30;
+    private final static int maxTrackedUsers = 50000;
+    private final static int nearDuplicateHashCount = 16;
+    private final static int nearDuplicateBandCount = 8;
+    private final static double nearDuplicateThreshold = 0.7;
+    private final static long channelHistoryMillis = TimeUnit.MINUTES.toMillis(5);
+    private final static int channelHistoryMaxMessages = 50000;
+    private final static int userRateCapacity = 64;
+    private final static long[] userRateWindowsMillis = {1000, 10000, 60000};
 
     public MessageManager() {
-        channelEvictingQueue = new TwitchMessageEvictingQueue(channelQueueSize);
-        userEvictingQueueMap = new ConcurrentHashMap<>();
+        this(userIdleMinutes, TimeUnit.MINUTES, maxTrackedUsers);
+    }
+
+    /**
+     * @param userIdleTime    Users with no messages for this long are forgotten.
+     * @param maxTrackedUsers Hard cap on the number of users with a message history.
+     */
+    public MessageManager(long userIdleTime, TimeUnit userIdleTimeUnit, int maxTrackedUsers) {
+        channelPayloadCounter = new PayloadFrequencyCounter();
+        channelRingBuffer = new TwitchMessageRingBuffer(channelQueueSize,
+                channelPayloadCounter::messageAdmitted,
+                channelPayloadCounter::messageEvicted);
+        // Same window as the exact duplicate check, since every exact duplicate is also a near duplicate.
+        channelNearDuplicateIndex = new NearDuplicateIndex(channelQueueSize, nearDuplicateHashCount,
+                nearDuplicateBandCount, nearDuplicateThreshold);
+        channelHistoryIndex = new MessageHistoryIndex(channelHistoryMillis, channelHistoryMaxMessages);
+        userHistoryCache = CacheBuilder.newBuilder()
+                .expireAfterAccess(userIdleTime, userIdleTimeUnit)
+                .maximumSize(maxTrackedUsers)
+                .recordStats()
+                .build(new CacheLoader<TwitchUser, UserHistory>() {
+                    @Override
+                    public UserHistory load(TwitchUser user) {
+                        return new UserHistory();
+                    }
+                });
     }
 
 
     public ImmutableTwitchMessageList getChannelSnapshot() {
-        return channelEvictingQueue.getMessageBufferSnapshot();
+        return channelRingBuffer.getMessageBufferSnapshot();
     }
 
+    /**
+     * @param simplePayload Simplified payload to look up.
+     * @return Number of messages in the channel window with the same simplified payload.
+     */
+    public int getChannelPayloadCount(String simplePayload) {
+        return channelPayloadCounter.getCount(simplePayload);
+    }
+
+    /**
+     * @param simplePayload Simplified payload to look up.
+     * @return Number of messages in the channel window that are similar to the payload, including exact matches.
+     */
+    public int getChannelNearDuplicateCount(String simplePayload) {
+        return channelNearDuplicateIndex.countSimilar(simplePayload);
+    }
+
+    /**
+     * @param simpleTerm Simplified text to search for.
+     * @return Channel messages from the last five minutes containing the term, oldest first.
+     */
+    public List<TwitchMessage> findChannelHistoryContaining(String simpleTerm) {
+        return channelHistoryIndex.findContaining(simpleTerm);
+    }
+
+    /**
+     * @param simplePayload Simplified payload to search for.
+     * @return Channel messages from the last five minutes with the same simplified payload, oldest first.
+     */
+    public List<TwitchMessage> findChannelHistoryEqual(String simplePayload) {
+        return channelHistoryIndex.findEqual(simplePayload);
+    }
+
+    /**
+     * @return The users recent messages. Empty if the user has not spoken recently.
+     */
     public ImmutableTwitchMessageList getUserSnapshot(TwitchUser user) {
-        return userEvictingQueueMap.get(user).getMessageBufferSnapshot();
+        UserHistory userHistory = userHistoryCache.getIfPresent(user);
+        return userHistory == null ? new ImmutableTwitchMessageList(null) : userHistory.messages.getMessageBufferSnapshot();
+    }
+
+    /**
+     * Finds the highest rate the user has sent messages at over the last second, ten seconds and minute. Windows with
+     * fewer than minMessages messages are ignored, so a couple of quick replies are not counted as a high rate.
+     * @param nowMillis End of the windows, in epoch millis.
+     * @return Highest messages per second over the windows, or 0 if the user has not spoken recently.
+     */
+    public double getUserPeakMessageRate(TwitchUser user, long nowMillis, int minMessages) {
+        UserHistory userHistory = userHistoryCache.getIfPresent(user);
+        if(userHistory == null) return 0;
+        double peakRate = 0;
+        for(long windowMillis : userRateWindowsMillis) {
+            int count = userHistory.messageRate.getCount(windowMillis, nowMillis);
+            if(count >= minMessages) peakRate = Math.max(peakRate, count * 1000.0 / windowMillis);
+        }
+        return peakRate;
     }
 
     /**
-     * Inserts a message into the message manager
+     * @return true if the user has a message history, i.e. has spoken recently. Not counted in the cache stats.
+     */
+    public boolean isTrackedUser(TwitchUser user) {
+        return userHistoryCache.asMap().containsKey(user);
+    }
+
+    /**
+     * @return Number of users currently holding a message history.
+     */
+    public long getTrackedUserCount() {
+        return userHistoryCache.size();
+    }
+
+    /**
+     * @return Hit, miss and eviction counts for the per user message histories.
+     */
+    public CacheStats getUserCacheStats() {
+        return userHistoryCache.stats();
+    }
+
+    /**
+     * Inserts a message into the message manager. The channel window is lock free and each user's window is guarded
+     * by its own lock, so messages from different users never contend.
      * @return true if insertion was successful.
      */
-    public synchronized boolean addMessage(TwitchMessage twitchMessage) {
-       userEvictingQueueMap
-                .putIfAbsent(twitchMessage.getSender(), new TwitchMessageEvictingQueue(userQueueSize));
-        return channelEvictingQueue.addMessage(twitchMessage)
-                && userEvictingQueueMap.get(twitchMessage.getSender()).addMessage(twitchMessage);
+    public boolean addMessage(TwitchMessage twitchMessage) {
+        channelNearDuplicateIndex.add(twitchMessage.getSimpleMessagePayload());
+        channelHistoryIndex.add(twitchMessage);
+        UserHistory userHistory = userHistoryCache.getUnchecked(twitchMessage.getSender());
+        DateTime messageDateTime = twitchMessage.getMessageDateTime();
+        userHistory.messageRate.record(messageDateTime == null ? System.currentTimeMillis() : messageDateTime.getMillis());
+        return channelRingBuffer.addMessage(twitchMessage) && userHistory.messages.addMessage(twitchMessage);
+    }
+
+    /**
+     * Everything tracked about one user.
+     */
+    private static class UserHistory {
+        private final TwitchMessageEvictingQueue messages = new TwitchMessageEvictingQueue(userQueueSize);
+        private final MessageRateCounter messageRate = new MessageRateCounter(userRateCapacity, userRateWindowsMillis);
     }
 }
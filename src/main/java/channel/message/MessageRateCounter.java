@@ -0,0 +1,76 @@
+package channel.message;
+
+import java.util.Arrays;
+
+/**
+ * Counts one user's messages over several sliding time windows at once.
+ *
+ * The most recent message times are kept as epoch millis in a circular long[]. Each window holds a cursor to its
+ * oldest message, which only ever moves forward, so counting is amortised O(1) and never allocates. A window can count
+ * at most capacity messages, after which it is saturated and reports capacity.
+ */
+public class MessageRateCounter {
+    private final long[] timestamps;
+    private final long[] windowMillis;
+    private final long[] windowTails;
+    private long recordedCount;
+    private long latestTimestamp = Long.MIN_VALUE;
+
+    /**
+     * @param capacity     Most message times kept.
+     * @param windowMillis Lengths of the windows that can be counted.
+     */
+    public MessageRateCounter(int capacity, long... windowMillis) {
+        if(capacity < 1) throw new IllegalArgumentException("Capacity must be at least 1");
+        if(windowMillis.length == 0) throw new IllegalArgumentException("At least one window is required");
+        this.timestamps = new long[capacity];
+        this.windowMillis = windowMillis.clone();
+        this.windowTails = new long[windowMillis.length];
+    }
+
+    /**
+     * Records a message. Times earlier than the latest recorded time are treated as the latest time.
+     */
+    public synchronized void record(long timestampMillis) {
+        latestTimestamp = Math.max(latestTimestamp, timestampMillis);
+        timestamps[(int) (recordedCount % timestamps.length)] = latestTimestamp;
+        recordedCount++;
+    }
+
+    /**
+     * @param windowMillis One of the windows given at construction.
+     * @param nowMillis    End of the window.
+     * @return Number of messages recorded in (now - window, now].
+     */
+    public synchronized int getCount(long windowMillis, long nowMillis) {
+        int window = windowIndex(windowMillis);
+        long tail = Math.max(windowTails[window], recordedCount - timestamps.length);
+        long windowStart = nowMillis - windowMillis;
+        while(tail < recordedCount && timestamps[(int) (tail % timestamps.length)] <= windowStart) tail++;
+        windowTails[window] = tail;
+        return (int) (recordedCount - tail);
+    }
+
+    /**
+     * @return Messages per second over the given window.
+     */
+    public double getRate(long windowMillis, long nowMillis) {
+        return getCount(windowMillis, nowMillis) * 1000.0 / windowMillis;
+    }
+
+    public int getCapacity() {
+        return timestamps.length;
+    }
+
+    public long[] getWindowMillis() {
+        return windowMillis.clone();
+    }
+
+    private int windowIndex(long windowMillis) {
+        for(int i = 0; i < this.windowMillis.length; i++) {
+            if(this.windowMillis[i] == windowMillis) return i;
+        }
+        throw new IllegalArgumentException("Unknown window " + windowMillis + "ms. Expected one of "
+                + Arrays.toString(this.windowMillis));
+    }
+}
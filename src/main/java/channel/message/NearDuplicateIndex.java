@@ -0,0 +1,185 @@
+package channel.message;
+
+import java.util.Arrays;
+
+/**
+ * Finds recent messages that are similar, but not necessarily equal, to a given message. Catches spam that is varied
+ * slightly between posts, e.g. by appending a random char.
+ *
+ * Each message is reduced to a MinHash sketch of its char shingles, so the Jaccard similarity of two messages can be
+ * estimated by comparing a fixed number of ints. Sketches are split into bands and indexed by band, so only messages
+ * sharing at least one band with the query are compared (locality sensitive hashing). Memory is a fixed number of
+ * ints per retained message; the payloads themselves are not kept.
+ *
+ * Payloads are expected to already be simplified (see TwitchMessage#simplifyMessage).
+ */
+public class NearDuplicateIndex {
+    private static final int SHINGLE_LENGTH = 3;
+    private static final int EMPTY = -1;
+
+    private final int capacity;
+    private final int hashCount;
+    private final int bandCount;
+    private final int rowsPerBand;
+    private final int minMatchingHashes;
+    private final int[] seeds;
+
+    private final int[] sketches;
+    private final boolean[] occupied;
+    private final int bucketMask;
+    private final int[][] bucketHeads;
+    private final int[][] slotBuckets;
+    private final int[][] nextInBucket;
+    private final int[][] previousInBucket;
+    private final int[] visitStamps;
+    private int visitStamp;
+    private int nextSlot;
+
+    /**
+     * @param capacity  Number of most recent messages retained.
+     * @param hashCount Ints in each sketch. Must be a multiple of bandCount.
+     * @param bandCount Number of bands the sketch is split into for indexing.
+     * @param threshold Estimated Jaccard similarity at or above which two messages are similar.
+     */
+    public NearDuplicateIndex(int capacity, int hashCount, int bandCount, double threshold) {
+        if(capacity < 1) throw new IllegalArgumentException("Capacity must be at least 1");
+        if(bandCount < 1 || hashCount % bandCount != 0) {
+            throw new IllegalArgumentException("hashCount must be a positive multiple of bandCount");
+        }
+        if(threshold <= 0 || threshold > 1) throw new IllegalArgumentException("Threshold must be in (0, 1]");
+        this.capacity = capacity;
+        this.hashCount = hashCount;
+        this.bandCount = bandCount;
+        this.rowsPerBand = hashCount / bandCount;
+        this.minMatchingHashes = (int) Math.ceil(threshold * hashCount);
+
+        seeds = new int[hashCount];
+        int seed = 0x9e3779b9;
+        for(int i = 0; i < hashCount; i++) {
+            seed = mix(seed + 0x7f4a7c15);
+            seeds[i] = seed;
+        }
+
+        sketches = new int[capacity * hashCount];
+        occupied = new boolean[capacity];
+        int bucketCount = Integer.highestOneBit(Math.max(capacity * 2 - 1, 1)) << 1;
+        bucketMask = bucketCount - 1;
+        bucketHeads = new int[bandCount][bucketCount];
+        slotBuckets = new int[bandCount][capacity];
+        nextInBucket = new int[bandCount][capacity];
+        previousInBucket = new int[bandCount][capacity];
+        for(int band = 0; band < bandCount; band++) Arrays.fill(bucketHeads[band], EMPTY);
+        visitStamps = new int[capacity];
+    }
+
+    /**
+     * Adds a message, evicting the oldest once the index is full. Empty payloads are ignored.
+     */
+    public synchronized void add(String simplePayload) {
+        int[] sketch = new int[hashCount];
+        if(!computeSketch(simplePayload, sketch)) return;
+
+        int slot = nextSlot;
+        nextSlot = (nextSlot + 1) % capacity;
+        if(occupied[slot]) {
+            for(int band = 0; band < bandCount; band++) unlink(band, slot);
+        }
+        System.arraycopy(sketch, 0, sketches, slot * hashCount, hashCount);
+        occupied[slot] = true;
+        for(int band = 0; band < bandCount; band++) link(band, slot, bandBucket(sketch, 0, band));
+    }
+
+    /**
+     * @return Number of retained messages whose estimated similarity to the payload is at least the threshold.
+     */
+    public synchronized int countSimilar(String simplePayload) {
+        int[] sketch = new int[hashCount];
+        if(!computeSketch(simplePayload, sketch)) return 0;
+
+        if(++visitStamp == 0) {
+            Arrays.fill(visitStamps, 0);
+            visitStamp = 1;
+        }
+        int similar = 0;
+        for(int band = 0; band < bandCount; band++) {
+            int bucket = bandBucket(sketch, 0, band);
+            for(int slot = bucketHeads[band][bucket]; slot != EMPTY; slot = nextInBucket[band][slot]) {
+                if(visitStamps[slot] == visitStamp) continue;
+                visitStamps[slot] = visitStamp;
+                if(matchingHashes(sketch, slot) >= minMatchingHashes) similar++;
+            }
+        }
+        return similar;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Fills the sketch with the minimum hash of the payload's shingles under each of the hash functions.
+     * @return false if the payload is empty and has no sketch.
+     */
+    boolean computeSketch(String simplePayload, int[] sketch) {
+        final int length = simplePayload.length();
+        if(length == 0) return false;
+        Arrays.fill(sketch, Integer.MAX_VALUE);
+        int shingleCount = Math.max(1, length - SHINGLE_LENGTH + 1);
+        for(int start = 0; start < shingleCount; start++) {
+            int shingleHash = 0;
+            int end = Math.min(length, start + SHINGLE_LENGTH);
+            for(int i = start; i < end; i++) shingleHash = 31 * shingleHash + simplePayload.charAt(i);
+            for(int k = 0; k < hashCount; k++) {
+                int hash = mix(shingleHash ^ seeds[k]);
+                if(hash < sketch[k]) sketch[k] = hash;
+            }
+        }
+        return true;
+    }
+
+    private int matchingHashes(int[] sketch, int slot) {
+        int offset = slot * hashCount;
+        int matching = 0;
+        for(int k = 0; k < hashCount; k++) {
+            if(sketches[offset + k] == sketch[k]) matching++;
+        }
+        return matching;
+    }
+
+    private int bandBucket(int[] sketch, int offset, int band) {
+        int hash = band;
+        for(int row = band * rowsPerBand; row < (band + 1) * rowsPerBand; row++) {
+            hash = 31 * hash + sketch[offset + row];
+        }
+        return mix(hash) & bucketMask;
+    }
+
+    private void link(int band, int slot, int bucket) {
+        int head = bucketHeads[band][bucket];
+        slotBuckets[band][slot] = bucket;
+        nextInBucket[band][slot] = head;
+        previousInBucket[band][slot] = EMPTY;
+        if(head != EMPTY) previousInBucket[band][head] = slot;
+        bucketHeads[band][bucket] = slot;
+    }
+
+    private void unlink(int band, int slot) {
+        int previous = previousInBucket[band][slot];
+        int next = nextInBucket[band][slot];
+        if(previous == EMPTY) bucketHeads[band][slotBuckets[band][slot]] = next;
+        else nextInBucket[band][previous] = next;
+        if(next != EMPTY) previousInBucket[band][next] = previous;
+    }
+
+    /**
+     * Murmur3 finaliser. Spreads the bits of the input over the whole int.
+     */
+    private static int mix(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+}
@@ -0,0 +1,42 @@
+package channel.message;
+
+import channel.data.TwitchMessage;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps a running count of each simplified payload held in a message window. Updated as messages are admitted and
+ * evicted so duplicate lookups are a single hash lookup instead of a scan of the window.
+ */
+public class PayloadFrequencyCounter {
+    private ConcurrentMap<String, Integer> payloadCounts;
+
+    public PayloadFrequencyCounter() {
+        payloadCounts = new ConcurrentHashMap<>();
+    }
+
+    public void messageAdmitted(TwitchMessage twitchMessage) {
+        payloadCounts.merge(twitchMessage.getSimpleMessagePayload(), 1, Integer::sum);
+    }
+
+    public void messageEvicted(TwitchMessage twitchMessage) {
+        payloadCounts.computeIfPresent(twitchMessage.getSimpleMessagePayload(),
+                (payload, count) -> count <= 1 ? null : count - 1);
+    }
+
+    /**
+     * @param simplePayload Simplified payload to look up.
+     * @return Number of messages in the window with the given simplified payload.
+     */
+    public int getCount(String simplePayload) {
+        return payloadCounts.getOrDefault(simplePayload, 0);
+    }
+
+    /**
+     * @return Number of distinct payloads currently tracked.
+     */
+    public int size() {
+        return payloadCounts.size();
+    }
+}
@@ -3,6 +3,8 @@ package channel.message;
 import channel.data.TwitchMessage;
 import com.google.common.collect.EvictingQueue;
 
+import java.util.function.Consumer;
+
 /**
  * Created by Dominic Hauton on 13/03/2016.
  *
@@ -10,16 +12,37 @@ import com.google.common.collect.EvictingQueue;
  */
 public class TwitchMessageEvictingQueue {
     private EvictingQueue<TwitchMessage> messageBuffer;
+    private Consumer<TwitchMessage> admissionListener;
+    private Consumer<TwitchMessage> evictionListener;
 
     public TwitchMessageEvictingQueue(int bufferLength) {
+        this(bufferLength, message -> {}, message -> {});
+    }
+
+    /**
+     * @param admissionListener Called with each message added to the queue.
+     * @param evictionListener  Called with each message pushed out of the queue by a newer message.
+     */
+    public TwitchMessageEvictingQueue(
+            int bufferLength,
+            Consumer<TwitchMessage> admissionListener,
+            Consumer<TwitchMessage> evictionListener) {
         messageBuffer = EvictingQueue.create(bufferLength);
+        this.admissionListener = admissionListener;
+        this.evictionListener = evictionListener;
     }
 
-    public ImmutableTwitchMessageList getMessageBufferSnapshot() {
+    public synchronized ImmutableTwitchMessageList getMessageBufferSnapshot() {
         return new ImmutableTwitchMessageList( messageBuffer );
     }
 
     public synchronized boolean addMessage(TwitchMessage message) {
-        return messageBuffer.offer(message);
+        TwitchMessage evictedMessage = messageBuffer.remainingCapacity() == 0 ? messageBuffer.peek() : null;
+        boolean added = messageBuffer.offer(message);
+        if(added && !messageBuffer.isEmpty()) {
+            if(evictedMessage != null) evictionListener.accept(evictedMessage);
+            admissionListener.accept(message);
+        }
+        return added;
     }
 }
@@ -0,0 +1,160 @@
+package channel.message;
+
+import channel.data.TwitchMessage;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Lock free fixed size window of the most recent messages.
+ *
+ * Each message is given a sequence number and stored in slot sequence % capacity. A slot only ever moves forward to a
+ * higher sequence number, so concurrent writers can never resurrect an evicted message. Snapshots contain every
+ * message whose write completed within the window at the time the snapshot was taken, in sequence order.
+ *
+ * A snapshot that keeps losing the race with writers pauses new writes and reads the window again. Only the writes
+ * already under way can then move it, so the read completes without ever returning a window with slots missing.
+ */
+public class TwitchMessageRingBuffer {
+    private static final int MAX_SNAPSHOT_ATTEMPTS = 8;
+
+    private final int capacity;
+    private final int maxSnapshotAttempts;
+    private final AtomicLong nextSequence = new AtomicLong();
+    private final AtomicReferenceArray<Entry> slots;
+    private final Consumer<TwitchMessage> admissionListener;
+    private final Consumer<TwitchMessage> evictionListener;
+    private final Object snapshotLock = new Object();
+    private volatile boolean writersPaused;
+
+    public TwitchMessageRingBuffer(int capacity) {
+        this(capacity, message -> {}, message -> {});
+    }
+
+    /**
+     * @param admissionListener Called with each message added to the window.
+     * @param evictionListener  Called with each message pushed out of the window by a newer message.
+     */
+    public TwitchMessageRingBuffer(
+            int capacity,
+            Consumer<TwitchMessage> admissionListener,
+            Consumer<TwitchMessage> evictionListener) {
+        this(capacity, MAX_SNAPSHOT_ATTEMPTS, admissionListener, evictionListener);
+    }
+
+    /**
+     * @param maxSnapshotAttempts Lock free reads of the window tried before a snapshot pauses writers.
+     */
+    TwitchMessageRingBuffer(
+            int capacity,
+            int maxSnapshotAttempts,
+            Consumer<TwitchMessage> admissionListener,
+            Consumer<TwitchMessage> evictionListener) {
+        if(capacity < 1) throw new IllegalArgumentException("Capacity must be at least 1");
+        this.capacity = capacity;
+        this.maxSnapshotAttempts = maxSnapshotAttempts;
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.admissionListener = admissionListener;
+        this.evictionListener = evictionListener;
+    }
+
+    public boolean addMessage(TwitchMessage message) {
+        if(writersPaused) awaitSnapshot();
+        Entry entry = new Entry(nextSequence.getAndIncrement(), message);
+        int slot = (int) (entry.sequence % capacity);
+        admissionListener.accept(message);
+        while (true) {
+            Entry current = slots.get(slot);
+            if(current != null && current.sequence > entry.sequence) {
+                // A newer message already took the slot, so this one has been evicted before it was seen.
+                evictionListener.accept(message);
+                return true;
+            }
+            if(slots.compareAndSet(slot, current, entry)) {
+                if(current != null) evictionListener.accept(current.message);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return Point in time copy of the messages in the window, oldest first.
+     */
+    public ImmutableTwitchMessageList getMessageBufferSnapshot() {
+        List<Entry> entries = new ArrayList<>(capacity);
+        if(!tryCollectWindow(entries)) collectWindowWithWritersPaused(entries);
+        entries.sort(Comparator.comparingLong(entry -> entry.sequence));
+        List<TwitchMessage> messages = new ArrayList<>(entries.size());
+        entries.forEach(entry -> messages.add(entry.message));
+        return new ImmutableTwitchMessageList(messages);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    private boolean tryCollectWindow(List<Entry> entries) {
+        for(int attempt = 0; attempt < maxSnapshotAttempts; attempt++) {
+            entries.clear();
+            if(collectWindow(nextSequence.get(), entries)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Reads the window while new writes wait. Each failed read means a write under way has finished, and there are
+     * at most as many of those as writing threads, so this always completes.
+     */
+    private void collectWindowWithWritersPaused(List<Entry> entries) {
+        synchronized (snapshotLock) {
+            writersPaused = true;
+            try {
+                while (true) {
+                    entries.clear();
+                    if(collectWindow(nextSequence.get(), entries)) return;
+                    Thread.yield();
+                }
+            } finally {
+                writersPaused = false;
+            }
+        }
+    }
+
+    /**
+     * Blocks until a snapshot that paused writers has finished.
+     */
+    private void awaitSnapshot() {
+        synchronized (snapshotLock) {
+            // Nothing to do. Holding the lock means the snapshot is done.
+        }
+    }
+
+    /**
+     * Collects messages with sequence numbers in [end - capacity, end).
+     * @return false if a slot was overwritten by a message after end, meaning part of the window was lost.
+     */
+    private boolean collectWindow(long end, List<Entry> entries) {
+        long start = end - capacity;
+        for(int slot = 0; slot < capacity; slot++) {
+            Entry entry = slots.get(slot);
+            if(entry == null) continue;
+            if(entry.sequence >= end) return false;
+            if(entry.sequence >= start) entries.add(entry);
+        }
+        return true;
+    }
+
+    private static class Entry {
+        private final long sequence;
+        private final TwitchMessage message;
+
+        private Entry(long sequence, TwitchMessage message) {
+            this.sequence = sequence;
+            this.message = message;
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package channel.spam;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+
+/**
+ * Decides how long to time out a user from their recent offences.
+ *
+ * Each offence adds one point to the user's score, and the score halves every half life. The score after an offence
+ * picks a step of the escalation ladder once rounded: a first offence gets the timeout of the rule broken, and each
+ * further point moves one step up the ladder, staying on the last step. A rule's own timeout is used if it is longer.
+ *
+ * Users are keyed by a 64 bit hash of their lowercase name in an open addressing table of primitive arrays, so a user
+ * costs a few dozen bytes and no name is retained. Users whose score decays below a small threshold are evicted when
+ * the table fills, and if the table is still at its limit the lowest scores are evicted.
+ */
+public class BanPolicy {
+    public static final int MAX_TIMEOUT_SECONDS = (int) TimeUnit.DAYS.toSeconds(14);
+    private static final int[] DEFAULT_LADDER_SECONDS = {300, 1800, 7200, 86400};
+    private static final long DEFAULT_HALF_LIFE_MILLIS = TimeUnit.HOURS.toMillis(6);
+    private static final int DEFAULT_MAX_USERS = 65536;
+    private static final double EVICTION_SCORE = 0.05;
+    private static final double MAX_LOAD = 0.75;
+    private static final int MIN_CAPACITY = 16;
+    private static final HashFunction USER_HASH = Hashing.murmur3_128();
+
+    private final int maxUsers;
+    private final LongConsumer evictionListener;
+
+    private volatile int[] ladderSeconds = DEFAULT_LADDER_SECONDS;
+    private volatile long halfLifeMillis = DEFAULT_HALF_LIFE_MILLIS;
+
+    private long[] keys = new long[MIN_CAPACITY];
+    private double[] scores = new double[MIN_CAPACITY];
+    private long[] updatedMillis = new long[MIN_CAPACITY];
+    private int size = 0;
+
+    public BanPolicy() {
+        this(DEFAULT_MAX_USERS, key -> {});
+    }
+
+    /**
+     * @param maxUsers         Users tracked at most.
+     * @param evictionListener Given the key of each user evicted. See #keyOf.
+     */
+    public BanPolicy(int maxUsers, LongConsumer evictionListener) {
+        if(maxUsers < 1) throw new IllegalArgumentException("maxUsers must be at least 1");
+        this.maxUsers = maxUsers;
+        this.evictionListener = evictionListener;
+    }
+
+    /**
+     * @return The key a user is tracked by. Never 0.
+     */
+    public static long keyOf(String username) {
+        long key = USER_HASH.hashString(username.toLowerCase(Locale.ROOT), StandardCharsets.UTF_8).asLong();
+        return key == 0 ? 1 : key;
+    }
+
+    /**
+     * Adds an offence to the user's score.
+     * @param ruleTimeoutSeconds Timeout of the rule broken, given on a first offence.
+     * @return Timeout to give, in seconds.
+     */
+    public synchronized int recordOffence(String username, int ruleTimeoutSeconds, long nowMillis) {
+        long key = keyOf(username);
+        int slot = find(key);
+        if(slot < 0) {
+            if(size + 1 > keys.length * MAX_LOAD || size >= maxUsers) rebuild(nowMillis, size + 1);
+            slot = insertionSlot(key);
+            keys[slot] = key;
+            size++;
+        }
+        scores[slot] = decay(scores[slot], updatedMillis[slot], nowMillis) + 1;
+        updatedMillis[slot] = nowMillis;
+        return timeoutFor(scores[slot], ruleTimeoutSeconds);
+    }
+
+    /**
+     * @return The user's current score, 0 if they have no recent offences.
+     */
+    public synchronized double getScore(String username, long nowMillis) {
+        return getScore(keyOf(username), nowMillis);
+    }
+
+    /**
+     * @return The user's current score, 0 if they have no recent offences.
+     */
+    public synchronized double getScore(long key, long nowMillis) {
+        int slot = find(key);
+        return slot < 0 ? 0 : decay(scores[slot], updatedMillis[slot], nowMillis);
+    }
+
+    /**
+     * @return Time the user would be timed out for if they broke a rule with the given timeout now.
+     */
+    public synchronized int getNextTimeoutSeconds(String username, int ruleTimeoutSeconds, long nowMillis) {
+        return timeoutFor(getScore(username, nowMillis) + 1, ruleTimeoutSeconds);
+    }
+
+    /**
+     * Forgets every offence of the user.
+     * @return true if the user had any.
+     */
+    public synchronized boolean forgive(String username) {
+        long key = keyOf(username);
+        int slot = find(key);
+        if(slot < 0) return false;
+        keys[slot] = 0;
+        size--;
+        // Re-insert the rest of the probe run so no user becomes unreachable.
+        for(int next = (slot + 1) & (keys.length - 1); keys[next] != 0; next = (next + 1) & (keys.length - 1)) {
+            long movedKey = keys[next];
+            double movedScore = scores[next];
+            long movedMillis = updatedMillis[next];
+            keys[next] = 0;
+            int target = insertionSlot(movedKey);
+            keys[target] = movedKey;
+            scores[target] = movedScore;
+            updatedMillis[target] = movedMillis;
+        }
+        return true;
+    }
+
+    /**
+     * Loads a user's score, as previously read with #getScore.
+     */
+    public synchronized void restore(long key, double score, long scoreMillis, long nowMillis) {
+        if(key == 0 || decay(score, scoreMillis, nowMillis) < EVICTION_SCORE) {
+            evictionListener.accept(key);
+            return;
+        }
+        int slot = find(key);
+        if(slot < 0) {
+            if(size + 1 > keys.length * MAX_LOAD || size >= maxUsers) rebuild(nowMillis, size + 1);
+            slot = insertionSlot(key);
+            keys[slot] = key;
+            size++;
+        }
+        scores[slot] = score;
+        updatedMillis[slot] = scoreMillis;
+    }
+
+    public synchronized void clear() {
+        keys = new long[MIN_CAPACITY];
+        scores = new double[MIN_CAPACITY];
+        updatedMillis = new long[MIN_CAPACITY];
+        size = 0;
+    }
+
+    public synchronized int getTrackedUserCount() {
+        return size;
+    }
+
+    /**
+     * @param ladderSeconds Timeouts for the second offence onwards, each between 1 second and 14 days.
+     */
+    public void setLadderSeconds(int[] ladderSeconds) {
+        if(ladderSeconds.length == 0) throw new IllegalArgumentException("The ladder needs at least one step");
+        for(int step : ladderSeconds) {
+            if(step < 1 || step > MAX_TIMEOUT_SECONDS) {
+                throw new IllegalArgumentException("Ladder steps must be between 1 and " + MAX_TIMEOUT_SECONDS + " seconds");
+            }
+        }
+        this.ladderSeconds = ladderSeconds.clone();
+    }
+
+    public int[] getLadderSeconds() {
+        return ladderSeconds.clone();
+    }
+
+    public void setHalfLifeMillis(long halfLifeMillis) {
+        if(halfLifeMillis <= 0) throw new IllegalArgumentException("Half life must be positive");
+        this.halfLifeMillis = halfLifeMillis;
+    }
+
+    public long getHalfLifeMillis() {
+        return halfLifeMillis;
+    }
+
+    private int timeoutFor(double score, int ruleTimeoutSeconds) {
+        int[] ladder = ladderSeconds;
+        int step = (int) Math.round(score) - 2;
+        if(step < 0) return ruleTimeoutSeconds;
+        return Math.max(ruleTimeoutSeconds, ladder[Math.min(step, ladder.length - 1)]);
+    }
+
+    private double decay(double score, long scoreMillis, long nowMillis) {
+        if(score == 0 || nowMillis <= scoreMillis) return score;
+        return score * Math.pow(0.5, (double) (nowMillis - scoreMillis) / halfLifeMillis);
+    }
+
+    private int find(long key) {
+        int mask = keys.length - 1;
+        for(int slot = mix(key) & mask; keys[slot] != 0; slot = (slot + 1) & mask) {
+            if(keys[slot] == key) return slot;
+        }
+        return -1;
+    }
+
+    private int insertionSlot(long key) {
+        int mask = keys.length - 1;
+        int slot = mix(key) & mask;
+        while(keys[slot] != 0) slot = (slot + 1) & mask;
+        scores[slot] = 0;
+        updatedMillis[slot] = 0;
+        return slot;
+    }
+
+    /**
+     * Evicts decayed users, then the lowest scores if still at the limit, and resizes for the users left.
+     * @param neededSize Users the table must hold after the rebuild.
+     */
+    private void rebuild(long nowMillis, int neededSize) {
+        long[] oldKeys = keys;
+        double[] oldScores = scores;
+        long[] oldMillis = updatedMillis;
+
+        double[] current = new double[oldKeys.length];
+        int live = 0;
+        for(int slot = 0; slot < oldKeys.length; slot++) {
+            if(oldKeys[slot] == 0) continue;
+            current[slot] = decay(oldScores[slot], oldMillis[slot], nowMillis);
+            if(current[slot] < EVICTION_SCORE) {
+                evictionListener.accept(oldKeys[slot]);
+                oldKeys[slot] = 0;
+            } else {
+                live++;
+            }
+        }
+        if(live + neededSize - size > maxUsers) {
+            // Still full of recent offenders. Drop the lowest scores, keeping room to grow by a tenth.
+            int keep = Math.max(0, maxUsers - Math.max(1, maxUsers / 10));
+            double[] liveScores = new double[live];
+            int index = 0;
+            for(int slot = 0; slot < oldKeys.length; slot++) if(oldKeys[slot] != 0) liveScores[index++] = current[slot];
+            Arrays.sort(liveScores);
+            double cutoff = live > keep ? liveScores[live - keep - 1] : -1;
+            for(int slot = 0; slot < oldKeys.length && live > keep; slot++) {
+                if(oldKeys[slot] != 0 && current[slot] <= cutoff) {
+                    evictionListener.accept(oldKeys[slot]);
+                    oldKeys[slot] = 0;
+                    live--;
+                }
+            }
+        }
+
+        int capacity = MIN_CAPACITY;
+        // Leave room to double before the next rebuild, up to the user limit.
+        int target = Math.min(2 * (live + neededSize - size), maxUsers);
+        while(capacity * MAX_LOAD < Math.max(target, live + 1)) capacity <<= 1;
+        keys = new long[capacity];
+        scores = new double[capacity];
+        updatedMillis = new long[capacity];
+        size = 0;
+        for(int slot = 0; slot < oldKeys.length; slot++) {
+            if(oldKeys[slot] == 0) continue;
+            int newSlot = insertionSlot(oldKeys[slot]);
+            keys[newSlot] = oldKeys[slot];
+            scores[newSlot] = oldScores[slot];
+            updatedMillis[newSlot] = oldMillis[slot];
+            size++;
+        }
+    }
+
+    private static int mix(long key) {
+        return (int) (key ^ (key >>> 32));
+    }
+}
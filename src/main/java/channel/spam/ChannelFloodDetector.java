@@ -0,0 +1,194 @@
+package channel.spam;
+
+import java.util.Arrays;
+
+/**
+ * Watches a whole channel for floods and raids, where many accounts post at once and per user checks cannot keep up.
+ *
+ * Tracks the channel message rate and the rate of new chatters over a short sliding window of one second buckets, and
+ * the entropy of the most recent payloads, which drops when many accounts post the same text. Each evaluation that
+ * finds a threshold exceeded escalates the DefenceMode one step, no more often than the escalation interval. Once no
+ * threshold has been exceeded for the calm period the mode is relaxed one step at a time.
+ *
+ * Detection is off until enabled, as a large channel at the start of a stream looks like a raid under the default
+ * thresholds. While disabled, a mode left over from before is lifted one step per evaluation.
+ *
+ * Thresholds may be changed at any time.
+ */
+public class ChannelFloodDetector {
+    private static final int WINDOW_SECONDS = 5;
+    private static final int PAYLOAD_SAMPLE_SIZE = 128;
+
+    private final long escalationIntervalMillis;
+    private final long calmPeriodMillis;
+
+    private final long[] bucketSeconds = new long[WINDOW_SECONDS];
+    private final int[] bucketMessages = new int[WINDOW_SECONDS];
+    private final int[] bucketNewChatters = new int[WINDOW_SECONDS];
+    private final int[] payloadHashes = new int[PAYLOAD_SAMPLE_SIZE];
+    private final int[] payloadScratch = new int[PAYLOAD_SAMPLE_SIZE];
+    private long payloadCount;
+
+    private volatile double maxMessagesPerSecond = 20;
+    private volatile double maxNewChattersPerSecond = 5;
+    private volatile double minPayloadEntropy = 0.4;
+    private volatile boolean enabled;
+
+    private DefenceMode mode = DefenceMode.Normal;
+    private long lastEscalationMillis = Long.MIN_VALUE;
+    private long lastFloodMillis;
+
+    public ChannelFloodDetector() {
+        this(10000, 60000);
+    }
+
+    /**
+     * @param escalationIntervalMillis Minimum time between escalation steps.
+     * @param calmPeriodMillis         Time with no flood before each relaxation step.
+     */
+    public ChannelFloodDetector(long escalationIntervalMillis, long calmPeriodMillis) {
+        this.escalationIntervalMillis = escalationIntervalMillis;
+        this.calmPeriodMillis = calmPeriodMillis;
+        Arrays.fill(bucketSeconds, -1);
+    }
+
+    /**
+     * @param newChatter True if the sender has not been seen in the channel recently.
+     * @param payloadHash Hash of the simplified payload.
+     */
+    public synchronized void recordMessage(long nowMillis, boolean newChatter, int payloadHash) {
+        int bucket = bucketFor(nowMillis);
+        bucketMessages[bucket]++;
+        if(newChatter) bucketNewChatters[bucket]++;
+        payloadHashes[(int) (payloadCount++ % PAYLOAD_SAMPLE_SIZE)] = payloadHash;
+    }
+
+    /**
+     * Checks the thresholds and moves the defence mode if needed. Should be called regularly, including when the
+     * channel is quiet, so the mode can relax.
+     * @return The new mode if it changed, otherwise null.
+     */
+    public synchronized DefenceMode evaluate(long nowMillis) {
+        if(!enabled) {
+            if(mode == DefenceMode.Normal) return null;
+            mode = mode.relax();
+            return mode;
+        }
+        if(isFlooding(nowMillis)) {
+            lastFloodMillis = nowMillis;
+            if(mode != DefenceMode.SubscribersOnly && (lastEscalationMillis == Long.MIN_VALUE
+                    || nowMillis - lastEscalationMillis >= escalationIntervalMillis)) {
+                lastEscalationMillis = nowMillis;
+                mode = mode.escalate();
+                return mode;
+            }
+        } else if(mode != DefenceMode.Normal && nowMillis - lastFloodMillis >= calmPeriodMillis) {
+            // Restart the calm period so each relaxation step waits the full period.
+            lastFloodMillis = nowMillis;
+            mode = mode.relax();
+            return mode;
+        }
+        return null;
+    }
+
+    public synchronized DefenceMode getMode() {
+        return mode;
+    }
+
+    /**
+     * Sets the mode the channel was left in, e.g. before a restart. It is relaxed after a full calm period.
+     */
+    public synchronized void restoreMode(DefenceMode mode, long nowMillis) {
+        this.mode = mode;
+        lastEscalationMillis = nowMillis;
+        lastFloodMillis = nowMillis;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public synchronized double getMessageRate(long nowMillis) {
+        return windowTotal(bucketMessages, nowMillis) / (double) WINDOW_SECONDS;
+    }
+
+    public synchronized double getNewChatterRate(long nowMillis) {
+        return windowTotal(bucketNewChatters, nowMillis) / (double) WINDOW_SECONDS;
+    }
+
+    /**
+     * @return Shannon entropy of the recent payloads, scaled to between 0 (all the same) and 1 (all different).
+     */
+    public synchronized double getPayloadEntropy() {
+        int sampleSize = (int) Math.min(payloadCount, PAYLOAD_SAMPLE_SIZE);
+        if(sampleSize < 2) return 1;
+        System.arraycopy(payloadHashes, 0, payloadScratch, 0, sampleSize);
+        Arrays.sort(payloadScratch, 0, sampleSize);
+        double entropy = 0;
+        int run = 1;
+        for(int i = 1; i <= sampleSize; i++) {
+            if(i < sampleSize && payloadScratch[i] == payloadScratch[i - 1]) {
+                run++;
+            } else {
+                double p = (double) run / sampleSize;
+                entropy -= p * Math.log(p);
+                run = 1;
+            }
+        }
+        return entropy / Math.log(sampleSize);
+    }
+
+    public void setMaxMessagesPerSecond(double maxMessagesPerSecond) {
+        this.maxMessagesPerSecond = maxMessagesPerSecond;
+    }
+
+    public void setMaxNewChattersPerSecond(double maxNewChattersPerSecond) {
+        this.maxNewChattersPerSecond = maxNewChattersPerSecond;
+    }
+
+    public void setMinPayloadEntropy(double minPayloadEntropy) {
+        this.minPayloadEntropy = minPayloadEntropy;
+    }
+
+    public double getMaxMessagesPerSecond() {
+        return maxMessagesPerSecond;
+    }
+
+    public double getMaxNewChattersPerSecond() {
+        return maxNewChattersPerSecond;
+    }
+
+    private boolean isFlooding(long nowMillis) {
+        double messageRate = getMessageRate(nowMillis);
+        return messageRate > maxMessagesPerSecond
+                || getNewChatterRate(nowMillis) > maxNewChattersPerSecond
+                // Low entropy on its own is normal in a quiet chat, e.g. everyone saying "gg" at the end of a game.
+                || (messageRate > maxMessagesPerSecond / 2 && getPayloadEntropy() < minPayloadEntropy);
+    }
+
+    private int bucketFor(long nowMillis) {
+        long second = Math.floorDiv(nowMillis, 1000);
+        int bucket = (int) Math.floorMod(second, (long) WINDOW_SECONDS);
+        if(bucketSeconds[bucket] != second) {
+            bucketSeconds[bucket] = second;
+            bucketMessages[bucket] = 0;
+            bucketNewChatters[bucket] = 0;
+        }
+        return bucket;
+    }
+
+    private int windowTotal(int[] bucketCounts, long nowMillis) {
+        long second = Math.floorDiv(nowMillis, 1000);
+        int total = 0;
+        for(int bucket = 0; bucket < WINDOW_SECONDS; bucket++) {
+            if(second - bucketSeconds[bucket] < WINDOW_SECONDS && bucketSeconds[bucket] <= second) {
+                total += bucketCounts[bucket];
+            }
+        }
+        return total;
+    }
+}
@@ -0,0 +1,48 @@
+package channel.spam;
+
+/**
+ * Defensive chat restrictions applied during a flood, from least to most restrictive. Each mode is applied on top of
+ * the modes below it and lifted one at a time.
+ */
+public enum DefenceMode {
+    Normal(0, null, null),
+    Slow(1, ".slow 10", ".slowoff"),
+    FollowersOnly(2, ".followers 10m", ".followersoff"),
+    SubscribersOnly(3, ".subscribers", ".subscribersoff");
+
+    private final int level;
+    private final String enableCommand;
+    private final String disableCommand;
+
+    DefenceMode(int level, String enableCommand, String disableCommand) {
+        this.level = level;
+        this.enableCommand = enableCommand;
+        this.disableCommand = disableCommand;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * @return Chat command that turns this restriction on, or null for Normal.
+     */
+    public String getEnableCommand() {
+        return enableCommand;
+    }
+
+    /**
+     * @return Chat command that turns this restriction off, or null for Normal.
+     */
+    public String getDisableCommand() {
+        return disableCommand;
+    }
+
+    public DefenceMode escalate() {
+        return this == SubscribersOnly ? this : values()[ordinal() + 1];
+    }
+
+    public DefenceMode relax() {
+        return this == Normal ? this : values()[ordinal() - 1];
+    }
+}
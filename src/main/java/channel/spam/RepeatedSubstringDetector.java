@@ -0,0 +1,247 @@
+package channel.spam;
+
+import java.util.Arrays;
+
+/**
+ * Finds text repeated inside a single message, e.g. "kappakappakappa" or a sentence pasted several times.
+ *
+ * Builds a suffix automaton of the message, which is linear in the message length, then counts the occurrences of
+ * every state. Input past maxChars is ignored so the work per message is bounded however long the message is.
+ * Input is expected to already be simplified (see TwitchMessage#simplifyMessage).
+ *
+ * Only substrings of at least MIN_DISTINCT_CHARS different chars count, so laughter ("hahahaha", "lololol") and
+ * stretched words ("noooooo") are not repetition. Occurrences of a unit are counted without overlap.
+ */
+public class RepeatedSubstringDetector {
+    static final int MIN_DISTINCT_CHARS = 3;
+
+    private final int maxChars;
+    private final int minUnitLength;
+
+    /**
+     * @param maxChars      Maximum number of chars of each message to analyse.
+     * @param minUnitLength Shortest substring counted as a repeated unit. Stops common short words such as "the"
+     *                      from counting as repetition.
+     */
+    public RepeatedSubstringDetector(int maxChars, int minUnitLength) {
+        if(maxChars < 1) throw new IllegalArgumentException("maxChars must be positive");
+        if(minUnitLength < 1) throw new IllegalArgumentException("minUnitLength must be positive");
+        this.maxChars = maxChars;
+        this.minUnitLength = minUnitLength;
+    }
+
+    public Repetition analyse(CharSequence message) {
+        final int length = Math.min(message.length(), maxChars);
+        if(length == 0) return new Repetition(0, 0, 0, 0);
+
+        // States and transitions are held in flat arrays. Transitions are singly linked lists per state, which is
+        // cheap for chat where most states have one or two outgoing chars.
+        final int maxStates = 2 * length;
+        final int maxEdges = 3 * length + 1;
+        int[] stateLength = new int[maxStates];
+        int[] suffixLink = new int[maxStates];
+        int[] occurrences = new int[maxStates];
+        int[] firstEnd = new int[maxStates];
+        int[] firstEdge = new int[maxStates];
+        char[] edgeChar = new char[maxEdges];
+        int[] edgeTarget = new int[maxEdges];
+        int[] nextEdge = new int[maxEdges];
+
+        suffixLink[0] = -1;
+        firstEdge[0] = -1;
+        int stateCount = 1;
+        int edgeCount = 0;
+        int last = 0;
+
+        for(int i = 0; i < length; i++) {
+            char c = message.charAt(i);
+            int current = stateCount++;
+            stateLength[current] = stateLength[last] + 1;
+            occurrences[current] = 1;
+            firstEnd[current] = i;
+            firstEdge[current] = -1;
+
+            int p = last;
+            while(p != -1 && findEdge(firstEdge, edgeChar, nextEdge, p, c) < 0) {
+                edgeCount = addEdge(firstEdge, edgeChar, edgeTarget, nextEdge, edgeCount, p, c, current);
+                p = suffixLink[p];
+            }
+            if(p == -1) {
+                suffixLink[current] = 0;
+            } else {
+                int q = edgeTarget[findEdge(firstEdge, edgeChar, nextEdge, p, c)];
+                if(stateLength[p] + 1 == stateLength[q]) {
+                    suffixLink[current] = q;
+                } else {
+                    int clone = stateCount++;
+                    stateLength[clone] = stateLength[p] + 1;
+                    suffixLink[clone] = suffixLink[q];
+                    firstEnd[clone] = firstEnd[q];
+                    firstEdge[clone] = -1;
+                    for(int edge = firstEdge[q]; edge >= 0; edge = nextEdge[edge]) {
+                        edgeCount = addEdge(firstEdge, edgeChar, edgeTarget, nextEdge, edgeCount,
+                                clone, edgeChar[edge], edgeTarget[edge]);
+                    }
+                    while(p != -1) {
+                        int edge = findEdge(firstEdge, edgeChar, nextEdge, p, c);
+                        if(edge < 0 || edgeTarget[edge] != q) break;
+                        edgeTarget[edge] = clone;
+                        p = suffixLink[p];
+                    }
+                    suffixLink[q] = clone;
+                    suffixLink[current] = clone;
+                }
+            }
+            last = current;
+        }
+
+        // Counting sort by length so occurrence counts can be pushed up the suffix links from the longest state down.
+        int[] lengthBuckets = new int[length + 1];
+        for(int state = 0; state < stateCount; state++) lengthBuckets[stateLength[state]]++;
+        for(int i = 1; i <= length; i++) lengthBuckets[i] += lengthBuckets[i - 1];
+        int[] order = new int[stateCount];
+        for(int state = stateCount - 1; state >= 0; state--) order[--lengthBuckets[stateLength[state]]] = state;
+
+        // Occurrence counts include overlaps, so they only bound the coverage of a unit. Candidates are kept packed
+        // as (bound, state) and checked exactly from the highest bound down until none can beat the best found.
+        int[] minDistinctLength = minDistinctLengths(message, length);
+        long[] candidates = new long[stateCount];
+        int candidateCount = 0;
+        int longestRepeat = 0;
+        for(int i = stateCount - 1; i > 0; i--) {
+            int state = order[i];
+            int count = occurrences[state];
+            if(count >= 2 && stateLength[state] >= minDistinctLength[firstEnd[state]]) {
+                longestRepeat = Math.max(longestRepeat, stateLength[state]);
+                if(stateLength[state] >= minUnitLength) {
+                    int bound = Math.min(count, length / stateLength[state]) * stateLength[state];
+                    candidates[candidateCount++] = (long) bound << 32 | state;
+                }
+            }
+            occurrences[suffixLink[state]] += count;
+        }
+        Arrays.sort(candidates, 0, candidateCount);
+
+        String analysed = message.subSequence(0, length).toString();
+        int unitLength = 0;
+        int unitCount = 0;
+        int unitCoverage = 0;
+        for(int i = candidateCount - 1; i >= 0 && (int) (candidates[i] >>> 32) >= unitCoverage; i--) {
+            int state = (int) candidates[i];
+            int end = firstEnd[state] + 1;
+            int count = countWithoutOverlap(analysed, analysed.substring(end - stateLength[state], end));
+            if(count < 2) continue;
+            int coverage = count * stateLength[state];
+            if(coverage > unitCoverage || (coverage == unitCoverage && count > unitCount)) {
+                unitLength = stateLength[state];
+                unitCount = count;
+                unitCoverage = coverage;
+            }
+        }
+        return new Repetition(length, longestRepeat, unitLength, unitCount);
+    }
+
+    /**
+     * @return For each index, the shortest length of a substring ending there with MIN_DISTINCT_CHARS different
+     *         chars, or Integer.MAX_VALUE if there is none.
+     */
+    private static int[] minDistinctLengths(CharSequence message, int length) {
+        int[] minDistinctLength = new int[length];
+        // Most recently seen different chars and where each was last seen, most recent first.
+        char[] recentChars = new char[MIN_DISTINCT_CHARS];
+        int[] recentEnds = new int[MIN_DISTINCT_CHARS];
+        int recentCount = 0;
+        for(int i = 0; i < length; i++) {
+            char c = message.charAt(i);
+            int seen = 0;
+            while(seen < recentCount && recentChars[seen] != c) seen++;
+            if(seen == recentCount && recentCount < MIN_DISTINCT_CHARS) recentCount++;
+            for(int j = Math.min(seen, recentCount - 1); j > 0; j--) {
+                recentChars[j] = recentChars[j - 1];
+                recentEnds[j] = recentEnds[j - 1];
+            }
+            recentChars[0] = c;
+            recentEnds[0] = i;
+            minDistinctLength[i] = recentCount < MIN_DISTINCT_CHARS
+                    ? Integer.MAX_VALUE : i - recentEnds[MIN_DISTINCT_CHARS - 1] + 1;
+        }
+        return minDistinctLength;
+    }
+
+    private static int countWithoutOverlap(String message, String unit) {
+        int count = 0;
+        for(int found = message.indexOf(unit); found >= 0; found = message.indexOf(unit, found + unit.length())) {
+            count++;
+        }
+        return count;
+    }
+
+    private static int findEdge(int[] firstEdge, char[] edgeChar, int[] nextEdge, int state, char c) {
+        for(int edge = firstEdge[state]; edge >= 0; edge = nextEdge[edge]) {
+            if(edgeChar[edge] == c) return edge;
+        }
+        return -1;
+    }
+
+    private static int addEdge(int[] firstEdge, char[] edgeChar, int[] edgeTarget, int[] nextEdge, int edgeCount,
+                               int state, char c, int target) {
+        edgeChar[edgeCount] = c;
+        edgeTarget[edgeCount] = target;
+        nextEdge[edgeCount] = firstEdge[state];
+        firstEdge[state] = edgeCount;
+        return edgeCount + 1;
+    }
+
+    /**
+     * Repetition found in a message.
+     */
+    public static class Repetition {
+        private final int analysedLength;
+        private final int longestRepeatLength;
+        private final int unitLength;
+        private final int unitCount;
+
+        Repetition(int analysedLength, int longestRepeatLength, int unitLength, int unitCount) {
+            this.analysedLength = analysedLength;
+            this.longestRepeatLength = longestRepeatLength;
+            this.unitLength = unitLength;
+            this.unitCount = unitCount;
+        }
+
+        /**
+         * @return Length of the longest substring of MIN_DISTINCT_CHARS or more different chars that occurs at least
+         *         twice. Occurrences may overlap.
+         */
+        public int getLongestRepeatLength() {
+            return longestRepeatLength;
+        }
+
+        /**
+         * @return Length of the repeated unit that covers most of the message, or 0 if there is none.
+         */
+        public int getUnitLength() {
+            return unitLength;
+        }
+
+        /**
+         * @return Number of times the repeated unit occurs without overlapping, at most the analysed length over the
+         *         unit length.
+         */
+        public int getUnitCount() {
+            return unitCount;
+        }
+
+        /**
+         * @return Proportion of the analysed message covered by occurrences of the repeated unit.
+         */
+        public double getUnitCoverage() {
+            return analysedLength == 0 ? 0 : Math.min(1, (double) unitLength * unitCount / analysedLength);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Repetition{longest=%d, unit=%d x%d, coverage=%.2f}",
+                    longestRepeatLength, unitLength, unitCount, getUnitCoverage());
+        }
+    }
+}
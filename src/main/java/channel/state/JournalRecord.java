@@ -0,0 +1,84 @@
+package channel.state;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A single mutation of the moderation state. Applying the same records in the same order always gives the same state,
+ * and applying a record twice in a row has no further effect.
+ */
+public class JournalRecord {
+    public enum Operation {
+        Put,
+        Remove,
+        Clear
+    }
+
+    private final Operation operation;
+    private final String namespace;
+    private final String key;
+    private final String value;
+
+    public JournalRecord(Operation operation, String namespace, String key, String value) {
+        this.operation = operation;
+        this.namespace = namespace;
+        this.key = key == null ? "" : key;
+        this.value = value == null ? "" : value;
+    }
+
+    public Operation getOperation() {
+        return operation;
+    }
+
+    public String getNamespace() {
+        return namespace;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + namespace.length() + key.length() + value.length());
+        try(DataOutputStream output = new DataOutputStream(bytes)) {
+            output.writeByte(operation.ordinal());
+            writeString(output, namespace);
+            writeString(output, key);
+            writeString(output, value);
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    static JournalRecord decode(byte[] encoded) throws IOException {
+        try(DataInputStream input = new DataInputStream(new ByteArrayInputStream(encoded))) {
+            int operation = input.readUnsignedByte();
+            if(operation >= Operation.values().length) throw new IOException("Unknown operation " + operation);
+            return new JournalRecord(Operation.values()[operation], readString(input), readString(input), readString(input));
+        }
+    }
+
+    private static void writeString(DataOutputStream output, String string) throws IOException {
+        byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(utf8.length);
+        output.write(utf8);
+    }
+
+    private static String readString(DataInputStream input) throws IOException {
+        int length = input.readInt();
+        if(length < 0 || length > input.available()) throw new IOException("Corrupt string length " + length);
+        byte[] utf8 = new byte[length];
+        input.readFully(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("JournalRecord{%s %s [%s] = %s}", operation, namespace, key, value);
+    }
+}
@@ -0,0 +1,270 @@
+package channel.state;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.Collection;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of JournalRecords in a memory mapped file, with compacted snapshots.
+ *
+ * Each record is framed as [length][crc32][bytes] and followed by a zero length, which marks the end of the log. A
+ * record torn by a crash fails its checksum, so replay stops at the last complete record. Appends are plain writes to
+ * the mapping and reach disk through the page cache, so they survive the process dying but not the machine losing
+ * power before the next write back.
+ *
+ * A snapshot holds the full state and the generation of the journal that continues it. Compacting writes the snapshot
+ * for a fresh journal generation and forces it to disk, atomically replaces the old snapshot, syncs the directory and
+ * only then deletes the old journal, so a crash or power loss at any point leaves one consistent snapshot and journal
+ * pair.
+ *
+ * A snapshot that cannot be read fails open with a CorruptSnapshotException. quarantine moves it and its journals
+ * aside so the state can be started again without losing the damaged files.
+ */
+public class ModerationJournal implements Closeable {
+    static final String SNAPSHOT_FILE = "snapshot.dat";
+    private static final String SNAPSHOT_TEMP_FILE = "snapshot.tmp";
+    private static final String JOURNAL_PREFIX = "journal-";
+    private static final String JOURNAL_SUFFIX = ".log";
+    private static final String QUARANTINE_PREFIX = "unreadable-";
+    private static final int SNAPSHOT_MAGIC = 0x4d4f4453;
+    private static final int FRAME_HEADER_BYTES = 8;
+    private static final int INITIAL_MAP_BYTES = 64 * 1024;
+
+    private Logger log = LogManager.getLogger();
+
+    private final Path directory;
+    private long generation;
+    private FileChannel journalChannel;
+    private MappedByteBuffer journalBuffer;
+    private int position;
+
+    private ModerationJournal(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Opens the journal in the given directory, creating it if needed, and replays the snapshot and journal.
+     * @param replay Given every record to restore, in order.
+     */
+    public static ModerationJournal open(Path directory, Consumer<JournalRecord> replay) throws IOException {
+        Files.createDirectories(directory);
+        ModerationJournal journal = new ModerationJournal(directory);
+        journal.generation = journal.readSnapshot(replay);
+        journal.openJournal(journal.generation);
+        int replayed = journal.replayJournal(replay);
+        journal.deleteOtherGenerations();
+        journal.log.info("Opened moderation journal {} generation {} with {} records since the snapshot",
+                directory, journal.generation, replayed);
+        return journal;
+    }
+
+    public synchronized void append(JournalRecord record) throws IOException {
+        writeFrame(record.encode());
+    }
+
+    /**
+     * Replaces the snapshot with the given full state and starts an empty journal.
+     * @param state Records that rebuild the whole current state.
+     */
+    public synchronized void compact(Collection<JournalRecord> state) throws IOException {
+        long nextGeneration = generation + 1;
+        Path snapshotTemp = directory.resolve(SNAPSHOT_TEMP_FILE);
+        try(FileChannel snapshotChannel = FileChannel.open(snapshotTemp,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(snapshotChannel)));
+            output.writeInt(SNAPSHOT_MAGIC);
+            output.writeLong(nextGeneration);
+            output.writeInt(state.size());
+            for(JournalRecord record : state) {
+                byte[] encoded = record.encode();
+                output.writeInt(encoded.length);
+                output.writeInt(checksum(encoded));
+                output.write(encoded);
+            }
+            output.flush();
+            snapshotChannel.force(true);
+        }
+        syncDirectory();
+        FileChannel previousChannel = journalChannel;
+        MappedByteBuffer previousBuffer = journalBuffer;
+        int previousPosition = position;
+        long previousGeneration = generation;
+        openJournal(nextGeneration);
+        try {
+            Files.move(snapshotTemp, directory.resolve(SNAPSHOT_FILE),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch(IOException e) {
+            // Keep appending to the journal that the existing snapshot continues.
+            journalChannel.close();
+            Files.deleteIfExists(journalPath(nextGeneration));
+            journalChannel = previousChannel;
+            journalBuffer = previousBuffer;
+            position = previousPosition;
+            throw e;
+        }
+        // The rename must be on disk before the journal it replaces is deleted.
+        syncDirectory();
+        generation = nextGeneration;
+        previousChannel.close();
+        Files.deleteIfExists(journalPath(previousGeneration));
+        log.info("Compacted moderation journal {} to {} records, generation {}", directory, state.size(), generation);
+    }
+
+    /**
+     * @return Bytes written to the current journal generation.
+     */
+    public synchronized int getJournalSize() {
+        return position;
+    }
+
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        journalBuffer.force();
+        journalChannel.close();
+    }
+
+    /**
+     * Moves the snapshot and journals in the directory into a new sub directory, so the state can be opened empty.
+     * @return The directory the files were moved to.
+     */
+    public static Path quarantine(Path directory) throws IOException {
+        Path quarantine = directory.resolve(QUARANTINE_PREFIX + System.currentTimeMillis());
+        Files.createDirectories(quarantine);
+        try(DirectoryStream<Path> files = Files.newDirectoryStream(directory, path -> Files.isRegularFile(path))) {
+            for(Path file : files) Files.move(file, quarantine.resolve(file.getFileName()));
+        }
+        return quarantine;
+    }
+
+    private long readSnapshot(Consumer<JournalRecord> replay) throws IOException {
+        Path snapshot = directory.resolve(SNAPSHOT_FILE);
+        if(!Files.exists(snapshot)) return 0;
+        try(DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot)))) {
+            if(input.readInt() != SNAPSHOT_MAGIC) throw new CorruptSnapshotException("Not a moderation snapshot: " + snapshot);
+            long snapshotGeneration = input.readLong();
+            int count = input.readInt();
+            for(int i = 0; i < count; i++) {
+                int length = input.readInt();
+                if(length < 0) throw new CorruptSnapshotException("Corrupt record " + i + " in " + snapshot);
+                byte[] encoded = new byte[length];
+                int crc = input.readInt();
+                input.readFully(encoded);
+                if(checksum(encoded) != crc) throw new CorruptSnapshotException("Corrupt record " + i + " in " + snapshot);
+                try {
+                    replay.accept(JournalRecord.decode(encoded));
+                } catch(IOException e) {
+                    throw new CorruptSnapshotException("Unreadable record " + i + " in " + snapshot);
+                }
+            }
+            return snapshotGeneration;
+        } catch(EOFException e) {
+            throw new CorruptSnapshotException("Truncated moderation snapshot: " + snapshot);
+        }
+    }
+
+    /**
+     * Forces the directory entries, such as a new or renamed file, to disk. Not every platform can open a directory,
+     * in which case this does nothing.
+     */
+    private void syncDirectory() {
+        try(FileChannel directoryChannel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            directoryChannel.force(true);
+        } catch(IOException e) {
+            log.debug("Could not sync directory {}", directory, e);
+        }
+    }
+
+    private void openJournal(long journalGeneration) throws IOException {
+        journalChannel = FileChannel.open(journalPath(journalGeneration),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        journalBuffer = journalChannel.map(FileChannel.MapMode.READ_WRITE, 0,
+                Math.max(INITIAL_MAP_BYTES, journalChannel.size()));
+        position = 0;
+    }
+
+    private int replayJournal(Consumer<JournalRecord> replay) {
+        int replayed = 0;
+        while(position + FRAME_HEADER_BYTES <= journalBuffer.capacity()) {
+            int length = journalBuffer.getInt(position);
+            if(length <= 0 || position + FRAME_HEADER_BYTES + length > journalBuffer.capacity()) break;
+            byte[] encoded = new byte[length];
+            ByteBuffer frame = journalBuffer.duplicate();
+            frame.position(position + FRAME_HEADER_BYTES);
+            frame.get(encoded);
+            if(checksum(encoded) != journalBuffer.getInt(position + 4)) {
+                log.warn("Discarding torn journal record at offset {} in {}", position, directory);
+                break;
+            }
+            try {
+                replay.accept(JournalRecord.decode(encoded));
+            } catch(IOException e) {
+                log.warn("Discarding unreadable journal record at offset {} in {}", position, directory, e);
+                break;
+            }
+            position += FRAME_HEADER_BYTES + length;
+            replayed++;
+        }
+        return replayed;
+    }
+
+    private void writeFrame(byte[] encoded) throws IOException {
+        int required = position + FRAME_HEADER_BYTES + encoded.length + 4;
+        if(required > journalBuffer.capacity()) {
+            journalBuffer = journalChannel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    Math.max(required, 2L * journalBuffer.capacity()));
+        }
+        // Write the end marker and body before the length, so a partly written frame never looks complete.
+        journalBuffer.putInt(position + FRAME_HEADER_BYTES + encoded.length, 0);
+        ByteBuffer frame = journalBuffer.duplicate();
+        frame.position(position + FRAME_HEADER_BYTES);
+        frame.put(encoded);
+        journalBuffer.putInt(position + 4, checksum(encoded));
+        journalBuffer.putInt(position, encoded.length);
+        position += FRAME_HEADER_BYTES + encoded.length;
+    }
+
+    private void deleteOtherGenerations() throws IOException {
+        Path current = journalPath(generation);
+        try(DirectoryStream<Path> journals = Files.newDirectoryStream(directory, JOURNAL_PREFIX + "*" + JOURNAL_SUFFIX)) {
+            for(Path journal : journals) {
+                if(!journal.equals(current)) Files.deleteIfExists(journal);
+            }
+        }
+        Files.deleteIfExists(directory.resolve(SNAPSHOT_TEMP_FILE));
+    }
+
+    private Path journalPath(long journalGeneration) {
+        return directory.resolve(JOURNAL_PREFIX + journalGeneration + JOURNAL_SUFFIX);
+    }
+
+    /**
+     * Thrown when the snapshot exists but its contents cannot be read, e.g. after losing power part way through
+     * writing it.
+     */
+    public static class CorruptSnapshotException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        CorruptSnapshotException(String message) {
+            super(message);
+        }
+    }
+
+    private static int checksum(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,145 @@
+package channel.state;
+
+import com.google.common.collect.ImmutableMap;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Persistent moderation state of a channel: blacklists, permissions, ban history, settings and so on.
+ *
+ * State is a set of namespaces, each an insertion ordered map of string keys to string values. Every mutation is
+ * appended to a ModerationJournal before returning, and the journal is compacted into a snapshot once it grows past a
+ * threshold, so replay at startup is bounded by the size of the state rather than its history.
+ *
+ * If the journal cannot be written the state carries on in memory only. A snapshot that cannot be read is moved aside
+ * and the state is opened empty, so it is persisted again from then on.
+ */
+public class ModerationState implements Closeable {
+    private static final int DEFAULT_COMPACTION_BYTES = 4 * 1024 * 1024;
+
+    private Logger log = LogManager.getLogger();
+
+    private final Map<String, LinkedHashMap<String, String>> namespaces = new HashMap<>();
+    private final int compactionBytes;
+    private ModerationJournal journal;
+
+    private ModerationState(int compactionBytes) {
+        this.compactionBytes = compactionBytes;
+    }
+
+    /**
+     * Opens the state stored in the given directory, creating it if needed.
+     */
+    public static ModerationState open(Path directory) throws IOException {
+        return open(directory, DEFAULT_COMPACTION_BYTES);
+    }
+
+    /**
+     * @param compactionBytes Journal size that triggers a compaction.
+     */
+    public static ModerationState open(Path directory, int compactionBytes) throws IOException {
+        ModerationState state = new ModerationState(compactionBytes);
+        try {
+            state.journal = ModerationJournal.open(directory, state::apply);
+        } catch(ModerationJournal.CorruptSnapshotException e) {
+            Path quarantine = ModerationJournal.quarantine(directory);
+            state.log.error("Moderation state in {} is unreadable and has been moved to {}. Starting again.",
+                    directory, quarantine, e);
+            // Drop whatever was replayed before the damage was found.
+            state = new ModerationState(compactionBytes);
+            state.journal = ModerationJournal.open(directory, state::apply);
+        }
+        return state;
+    }
+
+    /**
+     * @return State that is not persisted.
+     */
+    public static ModerationState inMemory() {
+        return new ModerationState(DEFAULT_COMPACTION_BYTES);
+    }
+
+    /**
+     * Sets the value of a key, moving it to the end of the namespace. Does nothing if the value is unchanged.
+     */
+    public synchronized void put(String namespace, String key, String value) {
+        LinkedHashMap<String, String> entries = namespaces.get(namespace);
+        if(entries != null && value.equals(entries.get(key))) return;
+        record(new JournalRecord(JournalRecord.Operation.Put, namespace, key, value));
+    }
+
+    public synchronized void remove(String namespace, String key) {
+        LinkedHashMap<String, String> entries = namespaces.get(namespace);
+        if(entries == null || !entries.containsKey(key)) return;
+        record(new JournalRecord(JournalRecord.Operation.Remove, namespace, key, null));
+    }
+
+    public synchronized void clear(String namespace) {
+        if(!namespaces.containsKey(namespace)) return;
+        record(new JournalRecord(JournalRecord.Operation.Clear, namespace, null, null));
+    }
+
+    /**
+     * @return Copy of the namespace in insertion order. Empty if the namespace has never been written.
+     */
+    public synchronized ImmutableMap<String, String> get(String namespace) {
+        LinkedHashMap<String, String> entries = namespaces.get(namespace);
+        return entries == null ? ImmutableMap.of() : ImmutableMap.copyOf(entries);
+    }
+
+    /**
+     * @return true if nothing has ever been stored, e.g. on first start.
+     */
+    public synchronized boolean isEmpty() {
+        return namespaces.isEmpty();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if(journal != null) journal.close();
+    }
+
+    private void record(JournalRecord record) {
+        apply(record);
+        if(journal == null) return;
+        try {
+            journal.append(record);
+            if(journal.getJournalSize() > compactionBytes) journal.compact(snapshot());
+        } catch(IOException e) {
+            log.error("Failed to persist {}. Moderation state is now only kept in memory.", record, e);
+            journal = null;
+        }
+    }
+
+    private void apply(JournalRecord record) {
+        switch(record.getOperation()) {
+            case Put:
+                LinkedHashMap<String, String> entries = namespaces.computeIfAbsent(record.getNamespace(), key -> new LinkedHashMap<>());
+                entries.remove(record.getKey());
+                entries.put(record.getKey(), record.getValue());
+                break;
+            case Remove:
+                LinkedHashMap<String, String> removeFrom = namespaces.get(record.getNamespace());
+                if(removeFrom != null) removeFrom.remove(record.getKey());
+                break;
+            case Clear:
+                // Cleared namespaces are kept so that isEmpty stays false once anything has been stored.
+                namespaces.computeIfAbsent(record.getNamespace(), key -> new LinkedHashMap<>()).clear();
+                break;
+        }
+    }
+
+    private List<JournalRecord> snapshot() {
+        List<JournalRecord> records = new ArrayList<>();
+        namespaces.forEach((namespace, entries) -> {
+            if(entries.isEmpty()) records.add(new JournalRecord(JournalRecord.Operation.Clear, namespace, null, null));
+            entries.forEach((key, value) -> records.add(new JournalRecord(JournalRecord.Operation.Put, namespace, key, value)));
+        });
+        return records;
+    }
+}
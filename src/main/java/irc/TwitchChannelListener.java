@@ -1,52 +1,77 @@
 package irc;
 
+import channel.ChannelRegistry;
 import channel.data.TwitchMessage;
 import channel.data.TwitchUser;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
+import irc.util.MessageConsumerStage;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jibble.pircbot.IrcException;
 import org.jibble.pircbot.PircBot;
 import org.joda.time.DateTime;
 import util.TwitchMessageSupplier;
+import util.metrics.Counter;
+import util.metrics.LatencyHistogram;
+import util.metrics.MetricRegistry;
 
+import javax.inject.Singleton;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.util.Collection;
-import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.function.Consumer;
 import java.util.stream.Stream;
 
 /**
  * Created by Dominic Hauton on 25/03/2016.
  *
- * Connects to a given TwitchChannel and listens for messages.
+ * Connects to the given TwitchChannels over a single connection and listens for messages.
+ *
+ * Every message goes to each output added with #addOutput, and to the output of its own channel if one was added with
+ * #addChannelOutput.
  */
+@Singleton
 public class TwitchChannelListener extends PircBot implements TwitchMessageSupplier {
 
     private Logger log = LogManager.getLogger();
 
-    private Collection<Consumer<TwitchMessage>> messageConsumers;
+    private static final int CONSUMER_BUFFER_SIZE = 4096;
+
+    private Collection<MessageConsumerStage> messageConsumers;
+    private Map<String, MessageConsumerStage> channelConsumers;
+    private MetricRegistry metricRegistry;
+    private ThreadFactory consumerThreadFactory;
+    private Counter receivedMessageCount;
+    private LatencyHistogram handOffHistogram;
 
     private String twitchUsername;
-    private String twitchChannelName;
+    private List<String> twitchChannelNames;
     private String oAuthToken;
     private String ircServer;
     private Integer ircPort;
 
     @Inject
     public TwitchChannelListener(
-            @Named("twitch.irc.public.twitchChannel") String twitchChannelName,
+            @Named("twitch.irc.public.twitchChannel") String twitchChannelList,
             @Named("twitch.username") String twitchUsername,
             @Named("twitch.oauth.token") String oAuthToken,
             @Named("twitch.irc.public.server") String ircServer,
-            @Named("twitch.irc.public.port") Integer ircPort
+            @Named("twitch.irc.public.port") Integer ircPort,
+            MetricRegistry metricRegistry
     ) {
-        log.info("Starting bot for channel {} on server {}", twitchChannelName, ircServer);
+        log.info("Starting bot for channels {} on server {}", twitchChannelList, ircServer);
 
-        this.twitchChannelName = twitchChannelName;
+        this.twitchChannelNames = ChannelRegistry.splitChannelList(twitchChannelList);
         this.twitchUsername = twitchUsername;
         this.oAuthToken = oAuthToken;
         this.ircServer = ircServer;
@@ -55,7 +80,17 @@ public class TwitchChannelListener extends PircBot implements TwitchMessageSuppl
         setName(twitchUsername);
         setMessageDelay(50);
 
-        messageConsumers = new HashSet<>();
+        messageConsumers = new CopyOnWriteArrayList<>();
+        channelConsumers = new ConcurrentHashMap<>();
+        this.metricRegistry = metricRegistry;
+        consumerThreadFactory = new ThreadFactoryBuilder().setNameFormat("message-consumer-%d").build();
+
+        receivedMessageCount = metricRegistry.counter("irc_received_messages_total", "Chat messages received by the listener");
+        handOffHistogram = metricRegistry.histogram("irc_listener_parse_seconds",
+                "Time on the socket reader thread to build a message and hand it to every output");
+        metricRegistry.gauge("irc_listener_pending_messages", "Messages waiting for an output", this::getPendingMessageCount);
+        metricRegistry.gauge("irc_listener_dropped_messages", "Messages dropped because an output fell behind",
+                this::getDroppedMessageCount);
     }
 
     @Override
@@ -64,8 +99,10 @@ public class TwitchChannelListener extends PircBot implements TwitchMessageSuppl
         try {
             super.connect(ircServer, ircPort, oAuthToken);
             sendRawLine("CAP REQ :twitch.tv/membership");
-            log.info( "Channel available: {}", Stream.of( super.getChannels() ).anyMatch(twitchChannelName::equals) ? "True" : "False" );
-            super.joinChannel(twitchChannelName);
+            for(String twitchChannelName : twitchChannelNames) {
+                log.info( "Channel available: {}", Stream.of( super.getChannels() ).anyMatch(twitchChannelName::equals) ? "True" : "False" );
+                super.joinChannel(twitchChannelName);
+            }
 
         } catch (IOException e) {
             log.fatal("Failed to connect to twitch due to IOException: {}", e.getMessage());
@@ -74,20 +111,67 @@ public class TwitchChannelListener extends PircBot implements TwitchMessageSuppl
             log.fatal("Failed to connect to twitch due to IRCException: {}", e.getMessage());
             throw new UncheckedExecutionException(e);
         }
-        log.info("Listener connected successfully to channel {} on {}@{}:{}", twitchChannelName, twitchUsername, ircServer, ircPort);
+        log.info("Listener connected successfully to channels {} on {}@{}:{}", twitchChannelNames, twitchUsername, ircServer, ircPort);
     }
 
     @Override
     public void addOutput(Consumer<TwitchMessage> twitchMessageConsumer) {
-        messageConsumers.add(twitchMessageConsumer);
+        addOutput(twitchMessageConsumer, Executors.newSingleThreadExecutor(consumerThreadFactory));
+    }
+
+    @Override
+    public void addOutput(Consumer<TwitchMessage> twitchMessageConsumer, Executor executor) {
+        MessageConsumerStage messageConsumerStage = new MessageConsumerStage(CONSUMER_BUFFER_SIZE, twitchMessageConsumer, executor);
+        messageConsumerStage.start();
+        messageConsumers.add(messageConsumerStage);
+    }
+
+    @Override
+    public void addChannelOutput(String channelName, Consumer<TwitchMessage> twitchMessageConsumer) {
+        String channel = ChannelRegistry.normaliseChannelName(channelName);
+        ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat("message-consumer-" + channel + "-%d").build();
+        MessageConsumerStage messageConsumerStage = new MessageConsumerStage(CONSUMER_BUFFER_SIZE, twitchMessageConsumer,
+                Executors.newSingleThreadExecutor(threadFactory));
+        if(channelConsumers.putIfAbsent(channel, messageConsumerStage) != null) {
+            throw new IllegalArgumentException("Channel " + channelName + " already has an output");
+        }
+        messageConsumerStage.start();
+        metricRegistry.gauge("irc_channel_pending_messages", "Messages waiting for the channel's output",
+                messageConsumerStage::getQueueDepth, "channel", channel);
+        metricRegistry.gauge("irc_channel_dropped_messages", "Messages dropped because the channel's output fell behind",
+                messageConsumerStage::getDroppedMessageCount, "channel", channel);
     }
 
     /**
-     * Overrides PircBot on Message to handle message correctly.
+     * @return Messages waiting across all outputs.
+     */
+    public int getPendingMessageCount() {
+        return Stream.concat(messageConsumers.stream(), channelConsumers.values().stream())
+                .mapToInt(MessageConsumerStage::getQueueDepth).sum();
+    }
+
+    /**
+     * @return Messages dropped across all outputs because the output fell too far behind.
+     */
+    public long getDroppedMessageCount() {
+        return Stream.concat(messageConsumers.stream(), channelConsumers.values().stream())
+                .mapToLong(MessageConsumerStage::getDroppedMessageCount).sum();
+    }
+
+    /**
+     * Overrides PircBot on Message to handle message correctly. Runs on the socket reader thread, so only hands the
+     * message off to each output.
      */
     @Override
     public void onMessage(String channel, String sender, String login, String hostname, String message) {
-        final TwitchMessage twitchMessage = new TwitchMessage(message, new TwitchUser(sender), DateTime.now());
-        messageConsumers.parallelStream().forEach(messageConsumers -> messageConsumers.accept(twitchMessage));
+        long startNanos = System.nanoTime();
+        receivedMessageCount.increment();
+        final TwitchMessage twitchMessage = new TwitchMessage(message, new TwitchUser(sender), DateTime.now(), channel);
+        for(MessageConsumerStage messageConsumer : messageConsumers) {
+            messageConsumer.accept(twitchMessage);
+        }
+        MessageConsumerStage channelConsumer = channelConsumers.get(ChannelRegistry.normaliseChannelName(channel));
+        if(channelConsumer != null) channelConsumer.accept(twitchMessage);
+        handOffHistogram.recordSince(startNanos);
     }
 }
@@ -1,13 +1,21 @@
 package irc.sender;
 
+import channel.ChannelRegistry;
 import com.google.common.base.Strings;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import irc.util.AsyncEventBuffer;
+import irc.util.MessagePriority;
+import irc.util.OutboundMessageQueue;
+import irc.util.OverflowPolicy;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jibble.pircbot.PircBot;
+import util.metrics.Counter;
+import util.metrics.LatencyHistogram;
+import util.metrics.MetricRegistry;
 
 import java.util.concurrent.*;
+import java.util.function.BiConsumer;
 
 /**
  * Created by Dominic on 04/07/2015.
@@ -18,18 +26,45 @@ public abstract class IRCConnection extends PircBot {
 
     private Logger log = LogManager.getLogger();
     private String oAuthToken;
-    private ExecutorService threadPool;
 
     private AsyncEventBuffer asyncEventBuffer;
+    private OutboundMessageQueue outboundMessageQueue;
+    private volatile BiConsumer<String, String> sentMessageListener = (recipient, payload) -> {};
+    private final Counter rejectedMessageCount = new Counter();
+    private final LatencyHistogram writeHistogram = new LatencyHistogram();
 
+    /**
+     * Creates a connection where asynchronous messages are queued in priority lanes. See MessagePriority.
+     */
     public IRCConnection(
             String twitchUsername,
             String oAuthToken,
             AsyncEventBuffer asyncEventBuffer){
         super();
+        init(twitchUsername, oAuthToken, asyncEventBuffer);
+        outboundMessageQueue = new OutboundMessageQueue(asyncEventBuffer, this::writeMessage, this::getMessageDelay);
+        startOutboundQueue();
+    }
+
+    /**
+     * Creates a connection where asynchronous messages are queued with a single capacity and overflow policy.
+     * @param queueCapacity  Maximum number of messages waiting to be sent asynchronously.
+     * @param overflowPolicy What to do with messages sent asynchronously when the queue is full.
+     */
+    public IRCConnection(
+            String twitchUsername,
+            String oAuthToken,
+            AsyncEventBuffer asyncEventBuffer,
+            int queueCapacity,
+            OverflowPolicy overflowPolicy){
+        super();
+        init(twitchUsername, oAuthToken, asyncEventBuffer);
+        outboundMessageQueue = new OutboundMessageQueue(queueCapacity, overflowPolicy, asyncEventBuffer, this::writeMessage, this::getMessageDelay);
+        startOutboundQueue();
+    }
+
+    private void init(String twitchUsername, String oAuthToken, AsyncEventBuffer asyncEventBuffer) {
         log.debug("Creating IRCConnection Instance.");
-        ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat("irc-sender-%d").build();
-        threadPool = Executors.newCachedThreadPool(threadFactory);
         setName(twitchUsername);
         changeNick(twitchUsername);
         setMessageDelay(0);
@@ -38,42 +73,106 @@ public abstract class IRCConnection extends PircBot {
         this.oAuthToken = oAuthToken;
     }
 
+    private void startOutboundQueue() {
+        ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat("irc-sender-%d").build();
+        outboundMessageQueue.start(threadFactory);
+    }
+
     /**
      * Connects to twitch IRC servers
+     * @param twitchChannelList Comma separated list of channels to join. May be empty.
      */
-    public void connect(String twitchChannelName, String ircServer, Integer ircPort){
+    public void connect(String twitchChannelList, String ircServer, Integer ircPort){
         try {
             super.connect(ircServer, ircPort, oAuthToken);
-            log.info("Connected to channel {} on {}:{}", twitchChannelName, ircServer, ircPort);
-            if(!Strings.isNullOrEmpty(twitchChannelName)) {
-                joinChannel(twitchChannelName);
-                log.debug("Joined channel " + twitchChannelName);
+            log.info("Connected to channels {} on {}:{}", twitchChannelList, ircServer, ircPort);
+            if(!Strings.isNullOrEmpty(twitchChannelList)) {
+                for(String twitchChannelName : ChannelRegistry.splitChannelList(twitchChannelList)) {
+                    joinChannel(twitchChannelName);
+                    log.debug("Joined channel " + twitchChannelName);
+                }
             }
         } catch (Exception e){
-            log.error("ERR - Could not connect to twitch channel {} on server {}:{}. Error: {}" ,twitchChannelName, ircServer, ircPort, e.getMessage());
+            log.error("ERR - Could not connect to twitch channels {} on server {}:{}. Error: {}" ,twitchChannelList, ircServer, ircPort, e.getMessage());
         }
     }
 
+    /**
+     * Limits messages to a single recipient, on top of the connection wide limit.
+     */
+    public void setRecipientBudget(String recipient, int maxEventCountPerWindow, int windowSizeSeconds) {
+        outboundMessageQueue.setRecipientBudget(recipient, new AsyncEventBuffer(maxEventCountPerWindow, windowSizeSeconds));
+    }
+
     public boolean trySendMessage(String recipient, String payload){
         if(asyncEventBuffer.addMessage()) {
-            sendMessage(recipient, payload);
-            log.info("Sent Message:\t{}\t{}", recipient, payload);
+            writeMessage(recipient, payload);
             return true;
         } else {
-            log.trace("Event Buffer rejected message:\t{}\t{}");
+            rejectedMessageCount.increment();
+            log.trace("Event Buffer rejected message:\t{}\t{}", recipient, payload);
             return false;
         }
     }
 
-    public void sendMessageAsync(String recipient, String payload) {
-        CompletableFuture.runAsync(() -> {
-            while(!trySendMessage(recipient, payload)){
-                try {
-                    Thread.sleep(100);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-            }
-        }, threadPool);
+    /**
+     * Queues a message to be sent as soon as the event buffer allows.
+     * @return Future completing once the message has been written to the connection.
+     * @throws RejectedExecutionException if the queue is full and the overflow policy is Reject.
+     */
+    public CompletableFuture<Void> sendMessageAsync(String recipient, String payload) {
+        return outboundMessageQueue.offer(recipient, payload);
+    }
+
+    /**
+     * Queues a message in the lane for the given priority. Higher priority messages are always sent first.
+     * @return Future completing once the message has been written to the connection.
+     * @throws RejectedExecutionException if the lane is full and its overflow policy is Reject.
+     */
+    public CompletableFuture<Void> sendMessageAsync(String recipient, String payload, MessagePriority priority) {
+        return outboundMessageQueue.offer(recipient, payload, priority);
+    }
+
+    /**
+     * Called with the recipient and payload of every message after it is written. Runs on the sending thread, so must
+     * not block.
+     */
+    public void setSentMessageListener(BiConsumer<String, String> sentMessageListener) {
+        this.sentMessageListener = sentMessageListener;
+    }
+
+    public int getPendingMessageCount() {
+        return outboundMessageQueue.getQueueDepth();
+    }
+
+    /**
+     * Publishes the send queue and socket write metrics of this connection.
+     * @param connectionName Distinguishes this connection in the metric labels.
+     */
+    public void registerMetrics(MetricRegistry metricRegistry, String connectionName) {
+        metricRegistry.register("irc_send_queue_wait_seconds", "Time from queueing a message to writing it",
+                outboundMessageQueue.getQueueWaitHistogram(), "connection", connectionName);
+        metricRegistry.register("irc_socket_write_seconds", "Time taken to write a message to the socket",
+                writeHistogram, "connection", connectionName);
+        metricRegistry.register("irc_rate_limit_rejections_total", "Direct sends rejected by the event buffer",
+                rejectedMessageCount, "connection", connectionName);
+        metricRegistry.gauge("irc_send_queue_depth", "Messages waiting to be sent",
+                outboundMessageQueue::getQueueDepth, "connection", connectionName);
+        metricRegistry.gauge("irc_send_queue_dropped_messages", "Messages dropped from a full or stale send queue",
+                outboundMessageQueue::getDroppedMessageCount, "connection", connectionName);
+        metricRegistry.gauge("irc_send_queue_coalesced_messages", "Queued messages merged into an identical pending message",
+                outboundMessageQueue::getCoalescedMessageCount, "connection", connectionName);
+    }
+
+    /**
+     * Writes the message straight to the socket.
+     */
+    private void writeMessage(String recipient, String payload) {
+        if(!isConnected()) throw new IllegalStateException("Not connected to " + getServer());
+        long startNanos = System.nanoTime();
+        sendRawLine("PRIVMSG " + recipient + " :" + payload);
+        writeHistogram.recordSince(startNanos);
+        log.debug("Sent Message:\t{}\t{}", recipient, payload);
+        sentMessageListener.accept(recipient, payload);
     }
 }
@@ -2,18 +2,25 @@ package irc.sender;
 
 import com.google.inject.name.Named;
 import irc.util.AsyncEventBuffer;
+import irc.util.OverflowPolicy;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import util.ChatArchive;
+import util.metrics.MetricRegistry;
 
 import javax.inject.Inject;
+import javax.inject.Singleton;
 
 /**
  * Created by Dominic on 08/08/2015.
  *
  * Used to send whispers to other users.
  */
+@Singleton
 public class PrivateMessageSender extends IRCConnection {
 
+    private static final int WHISPER_QUEUE_CAPACITY = 100;
+
     private final Logger log = LogManager.getLogger();
     private String whisperChannel;
 
@@ -38,8 +45,13 @@ public class PrivateMessageSender extends IRCConnection {
             @Named("twitch.irc.whisper.server") String ircServer,
             @Named("twitch.irc.whisper.port") Integer ircPort,
             @Named("twitch.irc.whisper.eventCountPerWindow") Integer maxEventCountPerWindow,
-            @Named("twitch.irc.whisper.eventCountWindowSize") Integer windowSizeSeconds) {
-        super(twitchUsername, oAuthToken, new AsyncEventBuffer(maxEventCountPerWindow, windowSizeSeconds));
+            @Named("twitch.irc.whisper.eventCountWindowSize") Integer windowSizeSeconds,
+            ChatArchive chatArchive,
+            MetricRegistry metricRegistry) {
+        super(twitchUsername, oAuthToken, new AsyncEventBuffer(maxEventCountPerWindow, windowSizeSeconds),
+                WHISPER_QUEUE_CAPACITY, OverflowPolicy.DropOldest);
+        setSentMessageListener(chatArchive::logSent);
+        registerMetrics(metricRegistry, "whisper");
         connect(twitchChannelName, ircServer, ircPort);
         log.debug("Created PrivateMessageSender");
         whisperChannel = twitchChannelName;
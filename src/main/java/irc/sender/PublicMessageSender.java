@@ -1,31 +1,53 @@
 package irc.sender;
 
+import channel.ChannelRegistry;
 import com.google.inject.name.Named;
 import irc.util.AsyncEventBuffer;
+import irc.util.MessagePriority;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import util.ChatArchive;
+import util.metrics.MetricRegistry;
 
 import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Created by Dominic on 08/08/2015.
  *
- * Used to send actions and messages
+ * Used to send actions and messages. A single connection is shared by every channel the bot moderates.
  */
+@Singleton
 public class PublicMessageSender extends IRCConnection {
     private Logger log = LogManager.getLogger();
 
+    /**
+     * When moderating several channels, no single channel may use more than this share of the connection's budget.
+     */
+    private static final double CHANNEL_BUDGET_SHARE = 0.5;
+
     @Inject
     public PublicMessageSender(
             @Named("twitch.username") String twitchUsername,
             @Named("twitch.oauth.token") String oAuthToken,
-            @Named("twitch.irc.public.twitchChannel") String twitchChannelName,
+            @Named("twitch.irc.public.twitchChannel") String twitchChannelList,
             @Named("twitch.irc.public.server") String ircServer,
             @Named("twitch.irc.public.port") Integer ircPort,
             @Named("twitch.irc.public.eventCountPerWindow") Integer maxEventCountPerWindow,
-            @Named("twitch.irc.public.eventCountWindowSize") Integer windowSizeSeconds) {
+            @Named("twitch.irc.public.eventCountWindowSize") Integer windowSizeSeconds,
+            ChatArchive chatArchive,
+            MetricRegistry metricRegistry) {
         super(twitchUsername, oAuthToken, new AsyncEventBuffer(maxEventCountPerWindow, windowSizeSeconds));
-        connect(twitchChannelName, ircServer, ircPort);
+        setSentMessageListener(chatArchive::logSent);
+        registerMetrics(metricRegistry, "public");
+        connect(twitchChannelList, ircServer, ircPort);
+        List<String> twitchChannelNames = ChannelRegistry.splitChannelList(twitchChannelList);
+        if(twitchChannelNames.size() > 1) {
+            int channelBudget = Math.max(1, (int) (maxEventCountPerWindow * CHANNEL_BUDGET_SHARE));
+            twitchChannelNames.forEach(channel -> setRecipientBudget(channel, channelBudget, windowSizeSeconds));
+        }
         log.debug("Created PublicMessageSender");
     }
 
@@ -36,4 +58,12 @@ public class PublicMessageSender extends IRCConnection {
     public void sendActionAsync(String recipient, String payload){
         sendMessageAsync(recipient, ".me " + payload);
     }
+
+    /**
+     * Times out a user ahead of any other queued message. Shares the rate limit with all other messages.
+     * @return Future completing once the timeout has been written to the connection.
+     */
+    public CompletableFuture<Void> timeoutUserAsync(String channel, String username, int timeoutSeconds){
+        return sendMessageAsync(channel, ".timeout " + username + " " + timeoutSeconds, MessagePriority.Moderation);
+    }
 }
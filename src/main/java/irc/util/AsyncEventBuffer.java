@@ -1,40 +1,129 @@
 package irc.util;
 
-import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
 
 /**
  * Created by Dominic Hauton on 16/03/2016.
  *
- * Fast event buffer for counting events.
+ * Fast event buffer for counting events. Allows at most maxEventCount events in any sliding window of the event
+ * lifetime.
+ *
+ * Lock free. Event i is recorded in slot i % maxEventCount and may only be admitted once the event previously held in
+ * that slot has expired. Admitting events is a single CAS on the cursor, which also makes batch acquisition atomic.
  */
 public class AsyncEventBuffer {
 
-    private long[] messageQueue;
-    private int maxEventCount;
-    private int eventLifeTimeMillis;
+    private final int maxEventCount;
+    private final long eventLifeTimeNanos;
+    private final LongSupplier nanoClock;
 
-    private int iteratorIndex = 0;
+    private final AtomicLong cursor = new AtomicLong();
+    private final AtomicLongArray slotExpiryNanos;
+    private final AtomicLongArray slotEventIndex;
 
     public AsyncEventBuffer(
             int maxEventCount,
             int eventLifeTimeSeconds) {
-        messageQueue = new long[maxEventCount];
+        this(maxEventCount, TimeUnit.SECONDS.toNanos(eventLifeTimeSeconds), System::nanoTime);
+    }
+
+    /**
+     * @param maxEventCount      Events allowed per window.
+     * @param eventLifeTimeNanos Length of the sliding window.
+     * @param nanoClock          Monotonic clock in nanoseconds, such as System::nanoTime.
+     */
+    public AsyncEventBuffer(
+            int maxEventCount,
+            long eventLifeTimeNanos,
+            LongSupplier nanoClock) {
+        if(maxEventCount < 1) throw new IllegalArgumentException("maxEventCount must be at least 1");
         this.maxEventCount = maxEventCount;
-        eventLifeTimeMillis = eventLifeTimeSeconds * 1000;
-        Arrays.fill(messageQueue, System.currentTimeMillis() - eventLifeTimeMillis);
+        this.eventLifeTimeNanos = eventLifeTimeNanos;
+        this.nanoClock = nanoClock;
+        slotExpiryNanos = new AtomicLongArray(maxEventCount);
+        slotEventIndex = new AtomicLongArray(maxEventCount);
+        long now = nanoClock.getAsLong();
+        for(int slot = 0; slot < maxEventCount; slot++) {
+            slotExpiryNanos.set(slot, now);
+            slotEventIndex.set(slot, slot - maxEventCount);
+        }
     }
 
     /**
      * Add a message to the event Buffer
      * @return true if event added. False if addition failed.
      */
-    public synchronized boolean addMessage() {
-        if (messageQueue[iteratorIndex] < System.currentTimeMillis()) {
-            messageQueue[iteratorIndex++] = System.currentTimeMillis() + eventLifeTimeMillis;
-            if(iteratorIndex == maxEventCount) iteratorIndex = 0;
-            return true;
-        } else {
-            return false;
+    public boolean addMessage() {
+        return tryAcquire(1);
+    }
+
+    /**
+     * Non blocking attempt to record a single event.
+     * @return true if the event was admitted.
+     */
+    public boolean tryAcquire() {
+        return tryAcquire(1);
+    }
+
+    /**
+     * Non blocking attempt to record several events at once. Either all are admitted or none are.
+     * @param permits Number of events, between 1 and maxEventCount.
+     * @return true if all events were admitted.
+     */
+    public boolean tryAcquire(int permits) {
+        if(permits < 1 || permits > maxEventCount) {
+            throw new IllegalArgumentException("Permits must be between 1 and " + maxEventCount);
+        }
+        final long now = nanoClock.getAsLong();
+        while (true) {
+            long eventIndex = cursor.get();
+            if(!slotsAvailable(eventIndex, permits, now)) {
+                if(cursor.get() == eventIndex) return false;
+                continue;
+            }
+            if(cursor.compareAndSet(eventIndex, eventIndex + permits)) {
+                for(long claimedIndex = eventIndex; claimedIndex < eventIndex + permits; claimedIndex++) {
+                    int slot = slotOf(claimedIndex);
+                    slotExpiryNanos.set(slot, now + eventLifeTimeNanos);
+                    slotEventIndex.set(slot, claimedIndex);
+                }
+                return true;
+            }
         }
     }
+
+    /**
+     * @return Nanoseconds until a single event can be added. 0 if an event can be added now.
+     */
+    public long nanosUntilNextPermit() {
+        long eventIndex = cursor.get();
+        int slot = slotOf(eventIndex);
+        // Slot not yet released by the thread that claimed the previous event. It will be shortly.
+        if(slotEventIndex.get(slot) != eventIndex - maxEventCount) return 0L;
+        return Math.max(0L, slotExpiryNanos.get(slot) - nanoClock.getAsLong());
+    }
+
+    public int getMaxEventCount() {
+        return maxEventCount;
+    }
+
+    /**
+     * Checks that every slot for events [eventIndex, eventIndex + permits) holds an expired previous event.
+     */
+    private boolean slotsAvailable(long eventIndex, int permits, long now) {
+        for(long index = eventIndex; index < eventIndex + permits; index++) {
+            int slot = slotOf(index);
+            // Read the index before the expiry. The writer stores them in the opposite order.
+            if(slotEventIndex.get(slot) != index - maxEventCount) return false;
+            if(slotExpiryNanos.get(slot) - now > 0) return false;
+        }
+        return true;
+    }
+
+    private int slotOf(long eventIndex) {
+        return (int) Math.floorMod(eventIndex, (long) maxEventCount);
+    }
 }
@@ -0,0 +1,90 @@
+package irc.util;
+
+import channel.data.TwitchMessage;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Hands messages from the IRC reader thread to a consumer running on its own executor.
+ *
+ * Messages wait in a bounded buffer and are delivered in arrival order. When the consumer falls so far behind that the
+ * buffer is full, new messages are dropped and counted rather than blocking the reader, so a slow consumer can never
+ * stall reads from the socket.
+ */
+public class MessageConsumerStage implements Consumer<TwitchMessage> {
+    private Logger log = LogManager.getLogger();
+
+    private final BlockingQueue<TwitchMessage> messageBuffer;
+    private final Consumer<TwitchMessage> twitchMessageConsumer;
+    private final Executor executor;
+
+    private final AtomicLong deliveredMessageCount = new AtomicLong();
+    private final AtomicLong droppedMessageCount = new AtomicLong();
+    private final AtomicLong failedMessageCount = new AtomicLong();
+
+    /**
+     * @param capacity              Messages that may wait for the consumer before new ones are dropped.
+     * @param twitchMessageConsumer Consumer to deliver messages to.
+     * @param executor              Executor the consumer runs on. One of its threads is used for the life of the stage.
+     */
+    public MessageConsumerStage(int capacity, Consumer<TwitchMessage> twitchMessageConsumer, Executor executor) {
+        this.messageBuffer = new ArrayBlockingQueue<>(capacity);
+        this.twitchMessageConsumer = twitchMessageConsumer;
+        this.executor = executor;
+    }
+
+    public void start() {
+        executor.execute(this::drainLoop);
+    }
+
+    /**
+     * Queues a message for the consumer without blocking.
+     */
+    @Override
+    public void accept(TwitchMessage twitchMessage) {
+        if(!messageBuffer.offer(twitchMessage)) {
+            long dropped = droppedMessageCount.incrementAndGet();
+            log.warn("Consumer stage full. Dropped message ({} dropped in total): {}", dropped, twitchMessage);
+        }
+    }
+
+    public int getQueueDepth() {
+        return messageBuffer.size();
+    }
+
+    public long getDeliveredMessageCount() {
+        return deliveredMessageCount.get();
+    }
+
+    public long getDroppedMessageCount() {
+        return droppedMessageCount.get();
+    }
+
+    public long getFailedMessageCount() {
+        return failedMessageCount.get();
+    }
+
+    private void drainLoop() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                TwitchMessage twitchMessage = messageBuffer.take();
+                try {
+                    twitchMessageConsumer.accept(twitchMessage);
+                    deliveredMessageCount.incrementAndGet();
+                } catch (RuntimeException e) {
+                    failedMessageCount.incrementAndGet();
+                    log.error("Consumer failed to process {}", twitchMessage, e);
+                }
+            }
+        } catch (InterruptedException e) {
+            log.debug("Consumer stage interrupted. Stopping.");
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package irc.util;
+
+/**
+ * Priority classes for outbound messages sharing one rate budget. Lower levels are always sent first.
+ *
+ * Each class has its own bounded lane. Low priority lanes shed stale messages and coalesce identical pending messages
+ * so they can never hold back moderation actions.
+ */
+public enum MessagePriority {
+    Moderation(0, 500, OverflowPolicy.DropNewest, 0, false),
+    CommandReply(1, 50, OverflowPolicy.DropOldest, 15000, true),
+    LinkRepeat(2, 50, OverflowPolicy.DropNewest, 30000, false),
+    Promotion(3, 10, OverflowPolicy.DropNewest, 60000, true);
+
+    private int priorityLevel;
+    private int capacity;
+    private OverflowPolicy overflowPolicy;
+    private long maxAgeMillis;
+    private boolean coalesceDuplicates;
+
+    MessagePriority(int priorityLevel, int capacity, OverflowPolicy overflowPolicy, long maxAgeMillis, boolean coalesceDuplicates) {
+        this.priorityLevel = priorityLevel;
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+        this.maxAgeMillis = maxAgeMillis;
+        this.coalesceDuplicates = coalesceDuplicates;
+    }
+
+    public int getPriorityLevel() {
+        return priorityLevel;
+    }
+
+    /**
+     * @return Maximum number of messages waiting in this lane.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * @return Messages waiting longer than this are dropped instead of sent. 0 if messages never go stale.
+     */
+    public long getMaxAgeMillis() {
+        return maxAgeMillis;
+    }
+
+    /**
+     * @return true if a message identical to one already waiting should share the pending send.
+     */
+    public boolean isCoalesceDuplicates() {
+        return coalesceDuplicates;
+    }
+
+    public static MessagePriority getDefaultPriority() {
+        return CommandReply;
+    }
+}
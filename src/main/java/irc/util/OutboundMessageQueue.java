@@ -0,0 +1,407 @@
+package irc.util;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import util.metrics.LatencyHistogram;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounded queue of outbound IRC messages drained by a single dispatcher thread. The dispatcher only wakes when there
+ * is a message to send and the AsyncEventBuffer has a free slot, so a backlog costs memory for the queue alone.
+ *
+ * Messages are held in one lane per MessagePriority. Once a slot is free the highest priority waiting message is sent,
+ * so a moderation action never waits more than one rate window behind lower priority traffic. Recipients may also be
+ * given their own budget, in which case messages to a recipient that has used its budget are skipped over. A message
+ * only takes from its recipient's budget once it has the shared slot, so losing the slot to a direct send costs the
+ * recipient nothing. Recipient budgets are only taken by the dispatcher thread.
+ */
+public class OutboundMessageQueue {
+    private static final long MIN_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private Logger log = LogManager.getLogger();
+
+    private final Map<MessagePriority, Lane> lanes;
+    private final ConcurrentMap<String, AsyncEventBuffer> recipientBudgets = new ConcurrentHashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition messageAvailable = lock.newCondition();
+
+    private final AsyncEventBuffer asyncEventBuffer;
+    private final BiConsumer<String, String> messageWriter;
+    private final LongSupplier minimumSendIntervalMillis;
+
+    private int pendingMessageCount = 0;
+    private long lastSentMillis = 0;
+    private long droppedMessageCount = 0;
+    private long coalescedMessageCount = 0;
+    private final LatencyHistogram queueWaitHistogram = new LatencyHistogram();
+    private Thread dispatcherThread;
+
+    /**
+     * Creates a queue using the capacity, overflow policy, expiry and coalescing of each MessagePriority.
+     * @param asyncEventBuffer          Rate limiter every message must pass before being written.
+     * @param messageWriter             Writes a (recipient, payload) pair to the connection.
+     * @param minimumSendIntervalMillis Minimum gap between two writes.
+     */
+    public OutboundMessageQueue(
+            AsyncEventBuffer asyncEventBuffer,
+            BiConsumer<String, String> messageWriter,
+            LongSupplier minimumSendIntervalMillis) {
+        this.lanes = new EnumMap<>(MessagePriority.class);
+        for(MessagePriority priority : MessagePriority.values()) {
+            lanes.put(priority, new Lane(priority.getCapacity(), priority.getOverflowPolicy(),
+                    priority.getMaxAgeMillis(), priority.isCoalesceDuplicates()));
+        }
+        this.asyncEventBuffer = asyncEventBuffer;
+        this.messageWriter = messageWriter;
+        this.minimumSendIntervalMillis = minimumSendIntervalMillis;
+    }
+
+    /**
+     * Creates a queue where every lane has the given capacity and overflow policy. Messages never expire or coalesce.
+     * @param capacity                  Maximum number of messages waiting to be sent in each lane.
+     * @param overflowPolicy            Action taken when a message is added to a full lane.
+     * @param asyncEventBuffer          Rate limiter every message must pass before being written.
+     * @param messageWriter             Writes a (recipient, payload) pair to the connection.
+     * @param minimumSendIntervalMillis Minimum gap between two writes.
+     */
+    public OutboundMessageQueue(
+            int capacity,
+            OverflowPolicy overflowPolicy,
+            AsyncEventBuffer asyncEventBuffer,
+            BiConsumer<String, String> messageWriter,
+            LongSupplier minimumSendIntervalMillis) {
+        if(capacity < 1) throw new IllegalArgumentException("Queue capacity must be at least 1");
+        this.lanes = new EnumMap<>(MessagePriority.class);
+        for(MessagePriority priority : MessagePriority.values()) {
+            lanes.put(priority, new Lane(capacity, overflowPolicy, 0, false));
+        }
+        this.asyncEventBuffer = asyncEventBuffer;
+        this.messageWriter = messageWriter;
+        this.minimumSendIntervalMillis = minimumSendIntervalMillis;
+    }
+
+    /**
+     * Starts the dispatcher thread. Messages may be queued before this is called.
+     */
+    public void start(ThreadFactory threadFactory) {
+        lock.lock();
+        try {
+            if(dispatcherThread != null) return;
+            dispatcherThread = threadFactory.newThread(this::dispatchLoop);
+            dispatcherThread.start();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops the dispatcher. Messages still queued are cancelled.
+     */
+    public void stop() {
+        lock.lock();
+        try {
+            if(dispatcherThread != null) dispatcherThread.interrupt();
+            lanes.values().forEach(lane -> {
+                lane.messages.forEach(message -> message.future.cancel(false));
+                lane.messages.clear();
+            });
+            pendingMessageCount = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Limits how many messages may be sent to one recipient within a window, on top of the shared budget. Used to stop
+     * one busy channel starving the others on a shared connection.
+     */
+    public void setRecipientBudget(String recipient, AsyncEventBuffer recipientBudget) {
+        recipientBudgets.put(recipient, recipientBudget);
+    }
+
+    /**
+     * Queues a message for sending with the default priority.
+     * @return Future that completes once the message has been written to the connection.
+     * @throws RejectedExecutionException if the lane is full and its policy is Reject.
+     */
+    public CompletableFuture<Void> offer(String recipient, String payload) {
+        return offer(recipient, payload, MessagePriority.getDefaultPriority());
+    }
+
+    /**
+     * Queues a message for sending.
+     * @return Future that completes once the message has been written to the connection.
+     * @throws RejectedExecutionException if the lane is full and its policy is Reject.
+     */
+    public CompletableFuture<Void> offer(String recipient, String payload, MessagePriority priority) {
+        OutboundMessage message = new OutboundMessage(recipient, payload, System.currentTimeMillis(), System.nanoTime());
+        Lane lane = lanes.get(priority);
+        lock.lock();
+        try {
+            if(lane.coalesceDuplicates) {
+                for(OutboundMessage pendingMessage : lane.messages) {
+                    if(pendingMessage.isDuplicateOf(message)) {
+                        coalescedMessageCount++;
+                        log.debug("Coalesced duplicate {} message:\t{}\t{}", priority, recipient, payload);
+                        return pendingMessage.future;
+                    }
+                }
+            }
+            if(lane.messages.size() >= lane.capacity) {
+                droppedMessageCount++;
+                switch (lane.overflowPolicy) {
+                    case DropOldest:
+                        OutboundMessage droppedMessage = lane.messages.pollFirst();
+                        pendingMessageCount--;
+                        log.warn("{} queue full. Dropped oldest message:\t{}\t{}", priority, droppedMessage.recipient, droppedMessage.payload);
+                        droppedMessage.future.completeExceptionally(new CancellationException("Dropped from full outbound queue"));
+                        break;
+                    case DropNewest:
+                        log.warn("{} queue full. Dropped message:\t{}\t{}", priority, recipient, payload);
+                        message.future.completeExceptionally(new CancellationException("Dropped from full outbound queue"));
+                        return message.future;
+                    case Reject:
+                    default:
+                        throw new RejectedExecutionException(priority + " queue full, capacity " + lane.capacity);
+                }
+            }
+            lane.messages.addLast(message);
+            pendingMessageCount++;
+            messageAvailable.signal();
+            return message.future;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            return pendingMessageCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getQueueDepth(MessagePriority priority) {
+        lock.lock();
+        try {
+            return lanes.get(priority).messages.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Messages discarded because a lane was full or because they went stale.
+     */
+    public long getDroppedMessageCount() {
+        lock.lock();
+        try {
+            return droppedMessageCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getCoalescedMessageCount() {
+        lock.lock();
+        try {
+            return coalescedMessageCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Time from a message being queued to it being handed to the writer.
+     */
+    public LatencyHistogram getQueueWaitHistogram() {
+        return queueWaitHistogram;
+    }
+
+    private void dispatchLoop() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                awaitMessage();
+                awaitSendInterval();
+                long nanosUntilPermit = asyncEventBuffer.nanosUntilNextPermit();
+                if(nanosUntilPermit > 0) {
+                    TimeUnit.NANOSECONDS.sleep(Math.max(MIN_PARK_NANOS, nanosUntilPermit));
+                    continue;
+                }
+                OutboundMessage message = pollMessage();
+                if(message == null) {
+                    awaitRecipientBudget();
+                } else if(asyncEventBuffer.tryAcquire()) {
+                    takeRecipientBudget(message);
+                    write(message);
+                } else {
+                    // Slot taken by a direct send in the meantime. Put the message back at the front of its lane.
+                    requeue(message);
+                }
+            }
+        } catch (InterruptedException e) {
+            log.debug("Outbound dispatcher interrupted. Stopping.");
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void awaitMessage() throws InterruptedException {
+        lock.lock();
+        try {
+            while (pendingMessageCount == 0) messageAvailable.await();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void awaitSendInterval() throws InterruptedException {
+        long intervalRemaining = lastSentMillis + minimumSendIntervalMillis.getAsLong() - System.currentTimeMillis();
+        if(intervalRemaining > 0) TimeUnit.MILLISECONDS.sleep(intervalRemaining);
+    }
+
+    /**
+     * Every waiting message is for a recipient that has used its budget. Parks until one of those budgets frees up or
+     * a new message arrives.
+     */
+    private void awaitRecipientBudget() throws InterruptedException {
+        lock.lock();
+        try {
+            long nanosUntilBudget = Long.MAX_VALUE;
+            for(Lane lane : lanes.values()) {
+                for(OutboundMessage message : lane.messages) {
+                    AsyncEventBuffer recipientBudget = recipientBudgets.get(message.recipient);
+                    if(recipientBudget != null) {
+                        nanosUntilBudget = Math.min(nanosUntilBudget, recipientBudget.nanosUntilNextPermit());
+                    }
+                }
+            }
+            if(pendingMessageCount > 0 && nanosUntilBudget != Long.MAX_VALUE) {
+                messageAvailable.awaitNanos(Math.max(MIN_PARK_NANOS, nanosUntilBudget));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes the highest priority message that has not gone stale and whose recipient has budget left, without taking
+     * from that budget. Stale messages found on the way are dropped.
+     */
+    private OutboundMessage pollMessage() {
+        long now = System.currentTimeMillis();
+        lock.lock();
+        try {
+            for(Map.Entry<MessagePriority, Lane> laneEntry : lanes.entrySet()) {
+                Lane lane = laneEntry.getValue();
+                Iterator<OutboundMessage> laneIterator = lane.messages.iterator();
+                while (laneIterator.hasNext()) {
+                    OutboundMessage message = laneIterator.next();
+                    if(lane.maxAgeMillis > 0 && now - message.queuedMillis > lane.maxAgeMillis) {
+                        laneIterator.remove();
+                        pendingMessageCount--;
+                        droppedMessageCount++;
+                        log.warn("Dropped stale {} message:\t{}\t{}", laneEntry.getKey(), message.recipient, message.payload);
+                        message.future.completeExceptionally(new CancellationException("Message went stale in outbound queue"));
+                        continue;
+                    }
+                    AsyncEventBuffer recipientBudget = recipientBudgets.get(message.recipient);
+                    if(recipientBudget == null || recipientBudget.nanosUntilNextPermit() == 0) {
+                        laneIterator.remove();
+                        pendingMessageCount--;
+                        message.lane = lane;
+                        return message;
+                    }
+                }
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records the message against its recipient's budget. Only the dispatcher takes from recipient budgets, so one seen
+     * to have room in #pollMessage still has room.
+     */
+    private void takeRecipientBudget(OutboundMessage message) {
+        AsyncEventBuffer recipientBudget = recipientBudgets.get(message.recipient);
+        if(recipientBudget != null && !recipientBudget.tryAcquire()) {
+            log.warn("Recipient budget for {} was used outside the dispatcher", message.recipient);
+        }
+    }
+
+    private void requeue(OutboundMessage message) {
+        lock.lock();
+        try {
+            message.lane.messages.addFirst(message);
+            pendingMessageCount++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void write(OutboundMessage message) {
+        queueWaitHistogram.recordSince(message.queuedNanos);
+        try {
+            messageWriter.accept(message.recipient, message.payload);
+            lastSentMillis = System.currentTimeMillis();
+            message.future.complete(null);
+        } catch (RuntimeException e) {
+            log.error("Failed to write message:\t{}\t{}. Error: {}", message.recipient, message.payload, e.getMessage());
+            message.future.completeExceptionally(e);
+        }
+    }
+
+    private static class Lane {
+        private final Deque<OutboundMessage> messages = new ArrayDeque<>();
+        private final int capacity;
+        private final OverflowPolicy overflowPolicy;
+        private final long maxAgeMillis;
+        private final boolean coalesceDuplicates;
+
+        private Lane(int capacity, OverflowPolicy overflowPolicy, long maxAgeMillis, boolean coalesceDuplicates) {
+            this.capacity = capacity;
+            this.overflowPolicy = overflowPolicy;
+            this.maxAgeMillis = maxAgeMillis;
+            this.coalesceDuplicates = coalesceDuplicates;
+        }
+    }
+
+    private static class OutboundMessage {
+        private final String recipient;
+        private final String payload;
+        private final long queuedMillis;
+        private final long queuedNanos;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+        private Lane lane;
+
+        private OutboundMessage(String recipient, String payload, long queuedMillis, long queuedNanos) {
+            this.recipient = recipient;
+            this.payload = payload;
+            this.queuedMillis = queuedMillis;
+            this.queuedNanos = queuedNanos;
+        }
+
+        private boolean isDuplicateOf(OutboundMessage other) {
+            return recipient.equals(other.recipient) && payload.equals(other.payload);
+        }
+    }
+}
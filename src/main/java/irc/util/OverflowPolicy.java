@@ -0,0 +1,19 @@
+package irc.util;
+
+/**
+ * What an OutboundMessageQueue does with a new message when it is already full.
+ */
+public enum OverflowPolicy {
+    /**
+     * Discard the longest waiting message to make room for the new one.
+     */
+    DropOldest,
+    /**
+     * Discard the new message. Its future completes exceptionally.
+     */
+    DropNewest,
+    /**
+     * Throw a RejectedExecutionException back to the caller.
+     */
+    Reject
+}
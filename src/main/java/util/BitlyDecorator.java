@@ -1,5 +1,8 @@
 package util;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.rosaloves.bitlyj.Bitly;
@@ -7,31 +10,110 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import javax.inject.Named;
+import java.util.concurrent.*;
 
 /**
  * Created by Dominic Hauton on 23/02/2016.
  *
  * Decorator to allow dependency injection
+ *
+ * Shortened URLs are cached, and concurrent requests for the same URL share a single call to bitly.
  */
 @Singleton
 public class BitlyDecorator {
     private static final Logger log = LogManager.getLogger();
 
+    private static final int CACHE_SIZE = 500;
+    private static final long CACHE_TTL_HOURS = 12;
+    private static final long DEFAULT_TIMEOUT_MILLIS = 2000;
+    private static final int REQUEST_THREADS = 2;
+
     private Bitly.Provider bitlyProvider;
+    private Cache<String, CompletableFuture<String>> shortenedURLCache;
+    private ExecutorService requestExecutor;
+    private ScheduledExecutorService timeoutScheduler;
+    private long timeoutMillis;
 
     @Inject
     public BitlyDecorator(
             @Named("bitly.username") String bitlyUsername,
             @Named("bitly.token") String bitlyToken) {
+        this(Bitly.as(bitlyUsername, bitlyToken), DEFAULT_TIMEOUT_MILLIS);
         log.info("Logging into bitly as user {}", bitlyUsername);
-        bitlyProvider = Bitly.as(bitlyUsername, bitlyToken);
     }
 
     public BitlyDecorator(Bitly.Provider bitlyProvider) {
+        this(bitlyProvider, DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param timeoutMillis Time to wait for bitly before falling back to the original URL.
+     */
+    public BitlyDecorator(Bitly.Provider bitlyProvider, long timeoutMillis) {
         this.bitlyProvider = bitlyProvider;
+        this.timeoutMillis = timeoutMillis;
+        shortenedURLCache = CacheBuilder.newBuilder()
+                .maximumSize(CACHE_SIZE)
+                .expireAfterWrite(CACHE_TTL_HOURS, TimeUnit.HOURS)
+                .build();
+        requestExecutor = Executors.newFixedThreadPool(REQUEST_THREADS,
+                new ThreadFactoryBuilder().setNameFormat("bitly-request-%d").setDaemon(true).build());
+        timeoutScheduler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("bitly-timeout-%d").setDaemon(true).build());
     }
 
+    /**
+     * Shortens the URL, blocking the calling thread. Prefer shortenURLAsync.
+     */
     public String shortenURL(String longURL) {
         return bitlyProvider.call(Bitly.shorten(longURL)).getShortUrl();
     }
+
+    /**
+     * Shortens the URL without blocking. Never completes exceptionally.
+     * @return Future of the shortened URL, or of the original URL if bitly failed or did not answer in time.
+     */
+    public CompletableFuture<String> shortenURLAsync(String longURL) {
+        CompletableFuture<String> shortenedURL;
+        try {
+            shortenedURL = shortenedURLCache.get(longURL, () -> requestShortenedURL(longURL));
+        } catch (ExecutionException e) {
+            log.warn("Failed to request shortened URL for {}: {}", longURL, e.getMessage());
+            return CompletableFuture.completedFuture(longURL);
+        }
+        if(shortenedURL.isCompletedExceptionally()) shortenedURLCache.asMap().remove(longURL, shortenedURL);
+        return withTimeout(shortenedURL).exceptionally(throwable -> longURL);
+    }
+
+    /**
+     * Starts a request to bitly. Failed requests are removed from the cache so they are retried next time.
+     */
+    private CompletableFuture<String> requestShortenedURL(String longURL) {
+        CompletableFuture<String> shortenedURL = CompletableFuture.supplyAsync(() -> shortenURL(longURL), requestExecutor);
+        shortenedURL.whenComplete((url, throwable) -> {
+            if(throwable != null) {
+                log.warn("Failed to convert bitly link {}: {}", longURL, throwable.getMessage());
+                shortenedURLCache.asMap().remove(longURL, shortenedURL);
+            }
+        });
+        return shortenedURL;
+    }
+
+    /**
+     * Gives a view of the request that fails after the timeout. The request itself keeps running so a late answer
+     * still lands in the cache.
+     */
+    private CompletableFuture<String> withTimeout(CompletableFuture<String> shortenedURL) {
+        if(shortenedURL.isDone()) return shortenedURL;
+        CompletableFuture<String> timedShortenedURL = new CompletableFuture<>();
+        ScheduledFuture<?> timeout = timeoutScheduler.schedule(
+                () -> timedShortenedURL.completeExceptionally(new TimeoutException("bitly timed out")),
+                timeoutMillis, TimeUnit.MILLISECONDS);
+        shortenedURL.whenComplete((url, throwable) -> {
+            timeout.cancel(false);
+            if(throwable != null) timedShortenedURL.completeExceptionally(throwable);
+            else timedShortenedURL.complete(url);
+        });
+        return timedShortenedURL;
+    }
 }
@@ -0,0 +1,252 @@
+package util;
+
+import channel.data.TwitchMessage;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.message.ParameterizedMessage;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Archive of chat traffic and moderation actions, written by a single background thread.
+ *
+ * Callers only place an entry in a bounded buffer, which never blocks; if the writer falls behind, new entries are
+ * dropped and counted. The writer drains the buffer in batches and writes each batch with one FileChannel write to a
+ * file per UTC hour. Entries are formatted on the writer thread.
+ *
+ * Each line is: epoch millis, kind (M received message, S sent line, A moderation action), channel, user and text,
+ * separated by tabs. Tabs, line breaks and backslashes in fields are escaped with a backslash.
+ */
+@Singleton
+public class ChatArchive implements Closeable {
+    private static final String DEFAULT_DIRECTORY = "archive";
+    private static final int DEFAULT_CAPACITY = 65536;
+    private static final int MAX_BATCH_SIZE = 4096;
+    private static final long POLL_MILLIS = 200;
+    private static final DateTimeFormatter FILE_HOUR_FORMAT = DateTimeFormat.forPattern("yyyy-MM-dd-HH").withZone(DateTimeZone.UTC);
+    private static final long HOUR_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private Logger log = LogManager.getLogger();
+
+    private final Path directory;
+    private final BlockingQueue<Entry> entries;
+    private final Thread writerThread;
+    private volatile boolean running = true;
+
+    private final AtomicLong writtenEntryCount = new AtomicLong();
+    private final AtomicLong droppedEntryCount = new AtomicLong();
+    private final AtomicLong failedEntryCount = new AtomicLong();
+
+    private FileChannel currentFile;
+    private long currentHour = -1;
+
+    @Inject
+    public ChatArchive() {
+        this(Paths.get(DEFAULT_DIRECTORY), DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param directory Directory the hourly files are written to.
+     * @param capacity  Entries that may wait for the writer before new ones are dropped.
+     */
+    public ChatArchive(Path directory, int capacity) {
+        this.directory = directory;
+        this.entries = new ArrayBlockingQueue<>(capacity);
+        this.writerThread = new Thread(this::writeLoop, "chat-archive-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Archives a received message.
+     * @return false if the entry was dropped.
+     */
+    public boolean logMessage(TwitchMessage twitchMessage) {
+        long timeMillis = twitchMessage.getMessageDateTime() == null
+                ? System.currentTimeMillis() : twitchMessage.getMessageDateTime().getMillis();
+        return offer(new Entry(timeMillis, 'M', twitchMessage.getChannel(),
+                twitchMessage.getSender().getUsername(), twitchMessage.getMessagePayload(), null));
+    }
+
+    /**
+     * Archives a line written to a connection.
+     * @return false if the entry was dropped.
+     */
+    public boolean logSent(String recipient, String payload) {
+        return offer(new Entry(System.currentTimeMillis(), 'S', recipient, null, payload, null));
+    }
+
+    /**
+     * Archives a moderation action. The text is only formatted on the writer thread, so arguments must not change
+     * after the call.
+     * @param format Text with {} placeholders, as for log4j.
+     * @return false if the entry was dropped.
+     */
+    public boolean logAction(String channel, String format, Object... arguments) {
+        return offer(new Entry(System.currentTimeMillis(), 'A', channel, null, format, arguments));
+    }
+
+    public long getWrittenEntryCount() {
+        return writtenEntryCount.get();
+    }
+
+    public long getDroppedEntryCount() {
+        return droppedEntryCount.get();
+    }
+
+    public long getFailedEntryCount() {
+        return failedEntryCount.get();
+    }
+
+    public int getPendingEntryCount() {
+        return entries.size();
+    }
+
+    /**
+     * Writes everything already queued and stops the writer.
+     */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            writerThread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean offer(Entry entry) {
+        if(running && entries.offer(entry)) return true;
+        long dropped = droppedEntryCount.incrementAndGet();
+        // Logging every drop would put the disk back on the caller's path, so only report occasionally.
+        if(Long.bitCount(dropped) == 1) log.warn("Chat archive full, {} entries dropped in total", dropped);
+        return false;
+    }
+
+    private void writeLoop() {
+        List<Entry> batch = new ArrayList<>(MAX_BATCH_SIZE);
+        StringBuilder text = new StringBuilder();
+        while(running || !entries.isEmpty()) {
+            try {
+                Entry first = entries.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if(first == null) continue;
+                batch.add(first);
+                entries.drainTo(batch, MAX_BATCH_SIZE - 1);
+                writeBatch(batch, text);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (IOException | RuntimeException e) {
+                failedEntryCount.addAndGet(batch.size());
+                log.error("Failed to write {} chat archive entries", batch.size(), e);
+            } finally {
+                batch.clear();
+            }
+        }
+        closeCurrentFile();
+    }
+
+    /**
+     * Writes the batch with one write per hourly file it touches.
+     */
+    private void writeBatch(List<Entry> batch, StringBuilder text) throws IOException {
+        text.setLength(0);
+        for(Entry entry : batch) {
+            long hour = Math.floorDiv(entry.timeMillis, HOUR_MILLIS);
+            if(hour != currentHour) {
+                flush(text);
+                roll(hour);
+            }
+            entry.appendTo(text);
+        }
+        flush(text);
+        writtenEntryCount.addAndGet(batch.size());
+    }
+
+    private void flush(StringBuilder text) throws IOException {
+        if(text.length() == 0 || currentFile == null) return;
+        ByteBuffer bytes = ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.UTF_8));
+        while(bytes.hasRemaining()) currentFile.write(bytes);
+        text.setLength(0);
+    }
+
+    private void roll(long hour) throws IOException {
+        closeCurrentFile();
+        Files.createDirectories(directory);
+        Path file = directory.resolve("chat-" + FILE_HOUR_FORMAT.print(hour * HOUR_MILLIS) + ".log");
+        currentFile = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        currentHour = hour;
+    }
+
+    private void closeCurrentFile() {
+        if(currentFile == null) return;
+        try {
+            currentFile.close();
+        } catch (IOException e) {
+            log.warn("Failed to close chat archive file", e);
+        }
+        currentFile = null;
+        currentHour = -1;
+    }
+
+    private static class Entry {
+        private final long timeMillis;
+        private final char kind;
+        private final String channel;
+        private final String user;
+        private final String text;
+        private final Object[] arguments;
+
+        private Entry(long timeMillis, char kind, String channel, String user, String text, Object[] arguments) {
+            this.timeMillis = timeMillis;
+            this.kind = kind;
+            this.channel = channel;
+            this.user = user;
+            this.text = text;
+            this.arguments = arguments;
+        }
+
+        private void appendTo(StringBuilder line) {
+            line.append(timeMillis).append('\t').append(kind).append('\t');
+            appendEscaped(line, channel);
+            line.append('\t');
+            appendEscaped(line, user);
+            line.append('\t');
+            appendEscaped(line, arguments == null ? text : ParameterizedMessage.format(text, arguments));
+            line.append('\n');
+        }
+
+        private static void appendEscaped(StringBuilder line, String field) {
+            if(field == null) return;
+            for(int i = 0; i < field.length(); i++) {
+                char c = field.charAt(i);
+                switch(c) {
+                    case '\t': line.append("\\t"); break;
+                    case '\n': line.append("\\n"); break;
+                    case '\r': line.append("\\r"); break;
+                    case '\\': line.append("\\\\"); break;
+                    default: line.append(c);
+                }
+            }
+        }
+    }
+}
@@ -2,6 +2,7 @@ package util;
 
 import channel.data.TwitchMessage;
 
+import java.util.concurrent.Executor;
 import java.util.function.Consumer;
 
 /**
@@ -20,4 +21,20 @@ public interface TwitchMessageSupplier {
      * @param twitchMessageConsumer
      */
     void addOutput(Consumer<TwitchMessage> twitchMessageConsumer);
+
+    /**
+     * An output added here will receive messages on the given executor. Messages are delivered in order and never
+     * block the supplier.
+     * @param twitchMessageConsumer
+     * @param executor Executor the output runs on. One of its threads is held for the life of the supplier.
+     */
+    void addOutput(Consumer<TwitchMessage> twitchMessageConsumer, Executor executor);
+
+    /**
+     * An output added here only receives messages from the given channel, on a thread and buffer of its own, so a busy
+     * channel cannot hold up another channel's output.
+     * @param channelName Channel to receive messages from. Case insensitive.
+     * @throws IllegalArgumentException if the channel already has an output.
+     */
+    void addChannelOutput(String channelName, Consumer<TwitchMessage> twitchMessageConsumer);
 }
@@ -0,0 +1,38 @@
+package util.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Monotonic count. Increments from many threads only contend on a LongAdder cell.
+ */
+public class Counter implements Metric {
+    private final LongAdder count = new LongAdder();
+
+    public void increment() {
+        count.increment();
+    }
+
+    public void add(long amount) {
+        if(amount < 0) throw new IllegalArgumentException("Counters can only increase");
+        count.add(amount);
+    }
+
+    public long get() {
+        return count.sum();
+    }
+
+    @Override
+    public String getType() {
+        return "counter";
+    }
+
+    @Override
+    public void writeSamples(StringBuilder text, String name, String labels) {
+        MetricRegistry.appendSample(text, name, labels, get());
+    }
+
+    @Override
+    public void writeSummary(StringBuilder text) {
+        text.append(get());
+    }
+}
@@ -0,0 +1,29 @@
+package util.metrics;
+
+import java.util.function.DoubleSupplier;
+
+/**
+ * Value read from its owner whenever metrics are collected, so setting it costs nothing.
+ */
+class Gauge implements Metric {
+    private final DoubleSupplier value;
+
+    Gauge(DoubleSupplier value) {
+        this.value = value;
+    }
+
+    @Override
+    public String getType() {
+        return "gauge";
+    }
+
+    @Override
+    public void writeSamples(StringBuilder text, String name, String labels) {
+        MetricRegistry.appendSample(text, name, labels, value.getAsDouble());
+    }
+
+    @Override
+    public void writeSummary(StringBuilder text) {
+        text.append(value.getAsDouble());
+    }
+}
@@ -0,0 +1,135 @@
+package util.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of durations in nanoseconds.
+ *
+ * Buckets are log-linear as in HdrHistogram: every power of two is split into 16 equal sub-buckets, so any reported
+ * quantile is within 1/16 of the recorded value. Recording is a few shifts and one atomic increment, and never
+ * allocates. Quantiles are read without stopping writers, so they may miss samples recorded during the read.
+ */
+public class LatencyHistogram implements Metric {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+    private static final double[] REPORTED_QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Records a duration. Negative durations, from a clock adjustment, are recorded as zero.
+     */
+    public void record(long nanos) {
+        if(nanos < 0) nanos = 0;
+        counts.incrementAndGet(bucketIndex(nanos));
+        totalNanos.add(nanos);
+        long max = maxNanos.get();
+        while(nanos > max && !maxNanos.compareAndSet(max, nanos)) max = maxNanos.get();
+    }
+
+    /**
+     * Records the time passed since the given System#nanoTime reading.
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public long getCount() {
+        return sum(snapshot());
+    }
+
+    public long getTotalNanos() {
+        return totalNanos.sum();
+    }
+
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    /**
+     * @param quantile Between 0 and 1.
+     * @return Highest value in the bucket holding the quantile, or 0 if nothing has been recorded.
+     */
+    public long getValueAtQuantile(double quantile) {
+        if(quantile < 0 || quantile > 1) throw new IllegalArgumentException("Quantile must be between 0 and 1");
+        long[] snapshot = snapshot();
+        long count = sum(snapshot);
+        return valueAtQuantile(snapshot, count, quantile);
+    }
+
+    @Override
+    public String getType() {
+        return "summary";
+    }
+
+    @Override
+    public void writeSamples(StringBuilder text, String name, String labels) {
+        long[] snapshot = snapshot();
+        long count = sum(snapshot);
+        String separator = labels.isEmpty() ? "" : ",";
+        for(double quantile : REPORTED_QUANTILES) {
+            MetricRegistry.appendSample(text, name, labels + separator + "quantile=\"" + quantile + "\"",
+                    valueAtQuantile(snapshot, count, quantile) / NANOS_PER_SECOND);
+        }
+        MetricRegistry.appendSample(text, name + "_sum", labels, getTotalNanos() / NANOS_PER_SECOND);
+        MetricRegistry.appendSample(text, name + "_count", labels, count);
+    }
+
+    @Override
+    public void writeSummary(StringBuilder text) {
+        long[] snapshot = snapshot();
+        long count = sum(snapshot);
+        text.append("count=").append(count);
+        if(count == 0) return;
+        text.append(String.format(" p50=%.3fms p99=%.3fms max=%.3fms",
+                valueAtQuantile(snapshot, count, 0.5) / NANOS_PER_MILLI,
+                valueAtQuantile(snapshot, count, 0.99) / NANOS_PER_MILLI,
+                getMaxNanos() / NANOS_PER_MILLI));
+    }
+
+    private long[] snapshot() {
+        long[] snapshot = new long[BUCKET_COUNT];
+        for(int i = 0; i < BUCKET_COUNT; i++) snapshot[i] = counts.get(i);
+        return snapshot;
+    }
+
+    private static long sum(long[] snapshot) {
+        long sum = 0;
+        for(long count : snapshot) sum += count;
+        return sum;
+    }
+
+    private long valueAtQuantile(long[] snapshot, long count, double quantile) {
+        if(count == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(quantile * count));
+        long seen = 0;
+        for(int i = 0; i < BUCKET_COUNT; i++) {
+            seen += snapshot[i];
+            if(seen >= rank) return Math.min(highestValueInBucket(i), getMaxNanos());
+        }
+        return getMaxNanos();
+    }
+
+    static int bucketIndex(long value) {
+        if(value < SUB_BUCKET_COUNT) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    static long highestValueInBucket(int index) {
+        if(index < SUB_BUCKET_COUNT) return index;
+        int exponent = index / SUB_BUCKET_COUNT + SUB_BUCKET_BITS - 1;
+        int subBucket = index % SUB_BUCKET_COUNT;
+        long bucketWidth = 1L << (exponent - SUB_BUCKET_BITS);
+        return ((long) (SUB_BUCKET_COUNT + subBucket) << (exponent - SUB_BUCKET_BITS)) + bucketWidth - 1;
+    }
+}
@@ -0,0 +1,23 @@
+package util.metrics;
+
+/**
+ * A value held in a MetricRegistry.
+ */
+interface Metric {
+
+    /**
+     * Prometheus type name, as written on the TYPE line.
+     */
+    String getType();
+
+    /**
+     * Appends the samples of this metric in the Prometheus text format.
+     * @param labels Rendered label pairs without braces. May be empty.
+     */
+    void writeSamples(StringBuilder text, String name, String labels);
+
+    /**
+     * Appends a short human readable description of the current value.
+     */
+    void writeSummary(StringBuilder text);
+}
@@ -0,0 +1,149 @@
+package util.metrics;
+
+import javax.inject.Singleton;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.DoubleSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Named counters, gauges and latency histograms shared by the whole bot. Looking a metric up is a map access, so
+ * callers on a hot path should keep the returned metric rather than look it up per event.
+ *
+ * Each metric is identified by a name and optional label pairs, as in Prometheus. Every metric with the same name must
+ * have the same type.
+ */
+@Singleton
+public class MetricRegistry {
+    private final ConcurrentMap<String, Family> families = new ConcurrentSkipListMap<>();
+
+    /**
+     * @param labels Alternating label names and values.
+     * @return The counter with the given name and labels, created if needed.
+     */
+    public Counter counter(String name, String help, String... labels) {
+        return getOrCreate(name, help, "counter", Counter.class, Counter::new, labels);
+    }
+
+    /**
+     * @param labels Alternating label names and values.
+     * @return The histogram with the given name and labels, created if needed. Name should end in _seconds.
+     */
+    public LatencyHistogram histogram(String name, String help, String... labels) {
+        return getOrCreate(name, help, "summary", LatencyHistogram.class, LatencyHistogram::new, labels);
+    }
+
+    /**
+     * Adds a gauge read from the given supplier on each collection. Replaces any gauge with the same name and labels.
+     * @param labels Alternating label names and values.
+     */
+    public void gauge(String name, String help, DoubleSupplier value, String... labels) {
+        register(name, help, new Gauge(value), labels);
+    }
+
+    /**
+     * Adds a metric owned elsewhere, such as a histogram kept by a queue. Replaces any metric with the same name and
+     * labels.
+     * @param labels Alternating label names and values.
+     */
+    public void register(String name, String help, Counter counter, String... labels) {
+        register(name, help, (Metric) counter, labels);
+    }
+
+    /**
+     * Adds a metric owned elsewhere, such as a histogram kept by a queue. Replaces any metric with the same name and
+     * labels.
+     * @param labels Alternating label names and values.
+     */
+    public void register(String name, String help, LatencyHistogram histogram, String... labels) {
+        register(name, help, (Metric) histogram, labels);
+    }
+
+    /**
+     * @return Every metric in the Prometheus text exposition format, version 0.0.4.
+     */
+    public String toPrometheusText() {
+        StringBuilder text = new StringBuilder();
+        families.forEach((name, family) -> {
+            text.append("# HELP ").append(name).append(' ').append(escapeHelp(family.help)).append('\n');
+            text.append("# TYPE ").append(name).append(' ').append(family.type).append('\n');
+            family.metrics.forEach((labels, metric) -> metric.writeSamples(text, name, labels));
+        });
+        return text.toString();
+    }
+
+    /**
+     * @return One line per metric giving its current value, for the log.
+     */
+    public String summarise() {
+        StringBuilder text = new StringBuilder();
+        families.forEach((name, family) -> family.metrics.forEach((labels, metric) -> {
+            text.append('\n').append(name);
+            if(!labels.isEmpty()) text.append('{').append(labels).append('}');
+            text.append(' ');
+            metric.writeSummary(text);
+        }));
+        return text.toString();
+    }
+
+    static void appendSample(StringBuilder text, String name, String labels, double value) {
+        text.append(name);
+        if(!labels.isEmpty()) text.append('{').append(labels).append('}');
+        text.append(' ');
+        if(value == Math.rint(value) && !Double.isInfinite(value) && Math.abs(value) < 1e15) text.append((long) value);
+        else text.append(value);
+        text.append('\n');
+    }
+
+    private <T extends Metric> T getOrCreate(String name, String help, String typeName, Class<T> type, Supplier<T> factory,
+                                             String[] labels) {
+        Family family = family(name, help, typeName);
+        Metric metric = family.metrics.computeIfAbsent(renderLabels(labels), key -> factory.get());
+        if(!type.isInstance(metric)) throw new IllegalArgumentException(name + " is already registered as a " + family.type);
+        return type.cast(metric);
+    }
+
+    private void register(String name, String help, Metric metric, String[] labels) {
+        family(name, help, metric.getType()).metrics.put(renderLabels(labels), metric);
+    }
+
+    private Family family(String name, String help, String type) {
+        if(!name.matches("[a-zA-Z_:][a-zA-Z0-9_:]*")) throw new IllegalArgumentException("Invalid metric name " + name);
+        Family family = families.computeIfAbsent(name, key -> new Family(help, type));
+        if(!family.type.equals(type)) throw new IllegalArgumentException(name + " is already registered as a " + family.type);
+        return family;
+    }
+
+    private static String renderLabels(String[] labels) {
+        if(labels.length % 2 != 0) throw new IllegalArgumentException("Labels must be given as name, value pairs");
+        StringBuilder text = new StringBuilder();
+        for(int i = 0; i < labels.length; i += 2) {
+            if(i > 0) text.append(',');
+            text.append(labels[i]).append("=\"");
+            String value = labels[i + 1];
+            for(int j = 0; j < value.length(); j++) {
+                char c = value.charAt(j);
+                if(c == '\\' || c == '"') text.append('\\').append(c);
+                else if(c == '\n') text.append("\\n");
+                else text.append(c);
+            }
+            text.append('"');
+        }
+        return text.toString();
+    }
+
+    private static String escapeHelp(String help) {
+        return help.replace("\\", "\\\\").replace("\n", "\\n");
+    }
+
+    private static class Family {
+        private final String help;
+        private final String type;
+        private final ConcurrentMap<String, Metric> metrics = new ConcurrentSkipListMap<>();
+
+        private Family(String help, String type) {
+            this.help = help;
+            this.type = type;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package util.metrics;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes the MetricRegistry on a local HTTP endpoint in the Prometheus text format, and writes a summary of it to
+ * the log at a fixed period.
+ */
+@Singleton
+public class MetricsReporter {
+    private static final int DEFAULT_PORT = 9464;
+    private static final long DEFAULT_SUMMARY_PERIOD_SECONDS = 60;
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private Logger log = LogManager.getLogger();
+
+    private final MetricRegistry metricRegistry;
+    private final int port;
+    private final long summaryPeriodSeconds;
+
+    private HttpServer httpServer;
+    private ScheduledExecutorService summaryScheduler;
+
+    @Inject
+    public MetricsReporter(MetricRegistry metricRegistry) {
+        this(metricRegistry, DEFAULT_PORT, DEFAULT_SUMMARY_PERIOD_SECONDS);
+    }
+
+    /**
+     * @param port                 Loopback port to serve /metrics on. 0 picks a free port.
+     * @param summaryPeriodSeconds Gap between log summaries. 0 disables them.
+     */
+    public MetricsReporter(MetricRegistry metricRegistry, int port, long summaryPeriodSeconds) {
+        this.metricRegistry = metricRegistry;
+        this.port = port;
+        this.summaryPeriodSeconds = summaryPeriodSeconds;
+    }
+
+    /**
+     * Starts the endpoint and the log summary. The bot keeps running without the endpoint if the port is taken.
+     */
+    public synchronized void start() {
+        if(httpServer != null) return;
+        try {
+            httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+            httpServer.createContext("/metrics", this::handleScrape);
+            httpServer.setExecutor(Executors.newSingleThreadExecutor(
+                    new ThreadFactoryBuilder().setNameFormat("metrics-http-%d").setDaemon(true).build()));
+            httpServer.start();
+            log.info("Serving metrics on http://{}:{}/metrics", httpServer.getAddress().getHostString(), getPort());
+        } catch (IOException e) {
+            log.error("Could not serve metrics on port {}. Error: {}", port, e.getMessage());
+            httpServer = null;
+        }
+        if(summaryPeriodSeconds > 0) {
+            summaryScheduler = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setNameFormat("metrics-summary-%d").setDaemon(true).build());
+            summaryScheduler.scheduleAtFixedRate(() -> log.info("Metrics:{}", metricRegistry.summarise()),
+                    summaryPeriodSeconds, summaryPeriodSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    public synchronized void stop() {
+        if(httpServer != null) {
+            httpServer.stop(0);
+            httpServer = null;
+        }
+        if(summaryScheduler != null) {
+            summaryScheduler.shutdownNow();
+            summaryScheduler = null;
+        }
+    }
+
+    /**
+     * @return Port the endpoint is bound to, or -1 if it is not running.
+     */
+    public synchronized int getPort() {
+        return httpServer == null ? -1 : httpServer.getAddress().getPort();
+    }
+
+    private void handleScrape(HttpExchange exchange) throws IOException {
+        try {
+            if(!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = metricRegistry.toPrometheusText().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream responseBody = exchange.getResponseBody()) {
+                responseBody.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+}
@@ -0,0 +1,147 @@
+import channel.ChannelRegistry;
+import channel.data.TwitchMessage;
+import channel.data.TwitchUser;
+import com.google.common.collect.ImmutableList;
+import irc.sender.PrivateMessageSender;
+import irc.sender.PublicMessageSender;
+import irc.util.MessagePriority;
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import util.BitlyDecorator;
+import util.ChatArchive;
+import util.DateTimeUtil;
+import util.metrics.MetricRegistry;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Tests moderation of chat messages by the BotController.
+ */
+public class BotControllerTest {
+    private String channelName;
+    private PublicMessageSender publicMessageSender;
+    private MetricRegistry metricRegistry;
+    private MessageRepeater messageRepeater;
+    private BotController botController;
+
+    @Before
+    public void setUp() {
+        channelName = "botcontrollertest" + System.nanoTime();
+        botController = newBotController();
+    }
+
+    /**
+     * Creates a controller for the channel with fresh mocks, restoring whatever state the channel has.
+     */
+    private BotController newBotController() {
+        publicMessageSender = Mockito.mock(PublicMessageSender.class);
+        metricRegistry = new MetricRegistry();
+        MessageRepeaterFactory messageRepeaterFactory = Mockito.mock(MessageRepeaterFactory.class);
+        messageRepeater = Mockito.mock(MessageRepeater.class);
+        Mockito.when(messageRepeater.getMessages()).thenReturn(ImmutableList.of());
+        Mockito.when(messageRepeaterFactory.create(anyString())).thenReturn(messageRepeater);
+        return new BotController(channelName, "bot", "oauth", "irc.example.com", 6667,
+                Mockito.mock(BitlyDecorator.class),
+                Mockito.mock(DateTimeUtil.class),
+                Mockito.mock(ChatArchive.class),
+                metricRegistry,
+                Mockito.mock(PrivateMessageSender.class),
+                publicMessageSender,
+                new ChannelRegistry(),
+                Collections.emptySet(),
+                messageRepeaterFactory);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Path stateDirectory = Paths.get("state", channelName);
+        if(!Files.exists(stateDirectory)) return;
+        try(Stream<Path> paths = Files.walk(stateDirectory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private void post(String username, String payload) {
+        botController.processMessage(new TwitchMessage(payload, new TwitchUser(username), DateTime.now()));
+    }
+
+    @Test
+    public void repeatedBareCommandIsNotTimedOut() {
+        for(int i = 0; i < 6; i++) post("viewer" + i, "!ttl");
+        verify(publicMessageSender, never()).timeoutUserAsync(eq(channelName), anyString(), anyInt());
+    }
+
+    @Test
+    public void repeatedCommandWithSpamIsTimedOut() {
+        for(int i = 0; i < 4; i++) post("viewer" + i, "!ttl buy followers at spam.com");
+        verify(publicMessageSender).timeoutUserAsync(eq(channelName), eq("viewer3"), anyInt());
+        Assert.assertTrue(metricRegistry.toPrometheusText().contains("rule=\"channel_duplicate\""));
+    }
+
+    @Test
+    public void blacklistedMessageIsTimedOutWhateverItsCaseAndSpacing() {
+        post("nicklmg", "!bot blm buy followers");
+        post("viewer", "Buy  FOLLOWERS");
+        verify(publicMessageSender).timeoutUserAsync(eq(channelName), eq("viewer"), anyInt());
+    }
+
+    @Test
+    public void laughterAndStretchedWordsAreNotRepeatedText() {
+        post("viewer1", "hahahahahaha");
+        post("viewer2", "lolololololol");
+        post("viewer3", "NOOOOOOOOOOOOOOOOO");
+        verify(publicMessageSender, never()).timeoutUserAsync(eq(channelName), anyString(), anyInt());
+        post("viewer4", "kappakappakappakappa");
+        verify(publicMessageSender).timeoutUserAsync(eq(channelName), eq("viewer4"), anyInt());
+    }
+
+    @Test
+    public void repeaterStateAndStreamStartSurviveRestart() {
+        post("nicklmg", "!bot set messageRepToggle 1");
+        verify(messageRepeater).setOn(true);
+        post("nicklmg", "!bot set messageRepetition off");
+        post("nicklmg", "!bot sstart");
+
+        botController = newBotController();
+        verify(messageRepeater).setOn(false);
+        post("viewer", "!uptime");
+        verify(publicMessageSender).sendMessageAsync(eq(channelName), eq("Linus last went live in the last minute."),
+                any(MessagePriority.class));
+    }
+
+    @Test
+    public void exportsUserCacheStats() {
+        post("viewer", "hello");
+        post("viewer", "hello again");
+        String metrics = metricRegistry.toPrometheusText();
+        Assert.assertTrue(metrics.contains("bot_user_cache_misses{channel=\"" + channelName + "\"} 1"));
+        Assert.assertTrue(metrics.contains("bot_user_cache_tracked_users{channel=\"" + channelName + "\"} 1"));
+        Assert.assertTrue(metrics.contains("bot_user_cache_hits{channel=\""));
+        Assert.assertTrue(metrics.contains("bot_user_cache_evictions{channel=\""));
+    }
+
+    @Test
+    public void messageBreakingTwoRulesIsOneOffence() {
+        post("viewer", "nazi nazi nazi nazi nazi nazi");
+        verify(publicMessageSender).timeoutUserAsync(channelName, "viewer", 45);
+        verify(publicMessageSender, times(1)).timeoutUserAsync(eq(channelName), anyString(), anyInt());
+    }
+}
@@ -0,0 +1,60 @@
+package channel.blacklist;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests for the multi-pattern blacklist matcher.
+ */
+public class AhoCorasickMatcherTest {
+
+    @Test
+    public void matchesSinglePattern() {
+        AhoCorasickMatcher matcher = new AhoCorasickMatcher(Collections.singleton("bit.ly"));
+        Assert.assertTrue(matcher.matches("checkoutbit.ly/abc"));
+        Assert.assertFalse(matcher.matches("bitly"));
+    }
+
+    @Test
+    public void matchesOverlappingPatterns() {
+        AhoCorasickMatcher matcher = new AhoCorasickMatcher(Arrays.asList("he", "she", "his", "hers"));
+        Assert.assertEquals("she", matcher.findFirst("ushers"));
+        Assert.assertEquals("his", matcher.findFirst("ahishers"));
+        Assert.assertNull(matcher.findFirst("hxsxr"));
+    }
+
+    @Test
+    public void followsFailureLinks() {
+        AhoCorasickMatcher matcher = new AhoCorasickMatcher(Arrays.asList("abcd", "bce"));
+        Assert.assertTrue(matcher.matches("abce"));
+        Assert.assertFalse(matcher.matches("abcbc"));
+    }
+
+    @Test
+    public void matchesCharactersOutsideLatin1() {
+        AhoCorasickMatcher matcher = new AhoCorasickMatcher(Arrays.asList("\u03baappa", "\u732b"));
+        Assert.assertTrue(matcher.matches("xx\u03baappaxx"));
+        Assert.assertTrue(matcher.matches("a\u732b"));
+        Assert.assertFalse(matcher.matches("kappa"));
+    }
+
+    @Test
+    public void emptyMatcherMatchesNothing() {
+        Assert.assertFalse(AhoCorasickMatcher.empty().matches("anything"));
+        Assert.assertFalse(new AhoCorasickMatcher(Collections.singleton("")).matches("anything"));
+    }
+
+    @Test
+    public void findsAllOverlappingPatterns() {
+        AhoCorasickMatcher matcher = new AhoCorasickMatcher(Arrays.asList("he", "", "she", "hers", "he"));
+        List<Integer> found = new ArrayList<>();
+        matcher.findAll("ushers", found::add);
+        Collections.sort(found);
+        Assert.assertEquals(Arrays.asList(0, 2, 3, 4), found);
+    }
+}
@@ -0,0 +1,127 @@
+package channel.blacklist;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for pattern rules and the combined pattern blacklist.
+ */
+public class PatternBlacklistTest {
+
+    @Test
+    public void globWithOuterWildcardsIsLiteral() {
+        PatternRule rule = PatternRule.compile(PatternRule.Type.Glob, "*.ly/*");
+        Assert.assertTrue(rule.isLiteralOnly());
+        Assert.assertTrue(rule.matches("checkoutbit.ly/abc"));
+        Assert.assertFalse(rule.matches("bit.ly"));
+    }
+
+    @Test
+    public void globWithInnerWildcard() {
+        PatternRule rule = PatternRule.compile(PatternRule.Type.Glob, "buy * followers");
+        Assert.assertEquals("followers", rule.getLiteral());
+        Assert.assertTrue(rule.matches("pleasebuycheapfollowersnow"));
+        Assert.assertFalse(rule.matches("followersbuy"));
+    }
+
+    @Test
+    public void domainRequiresHostBoundary() {
+        PatternRule rule = PatternRule.compile(PatternRule.Type.Domain, "t.co");
+        Assert.assertTrue(rule.matches("lookt.co/abc"));
+        Assert.assertTrue(rule.matches("t.co"));
+        Assert.assertFalse(rule.matches("reddit.com"));
+    }
+
+    @Test
+    public void paddingCannotHideGlobMatch() {
+        PatternRule rule = PatternRule.compile(PatternRule.Type.Glob, "buy*followers");
+        StringBuilder payload = new StringBuilder();
+        for(int i = 0; i < 100000; i++) payload.append("buy");
+        Assert.assertTrue(rule.matches(payload.append("followers").toString()));
+        Assert.assertTrue(PatternRule.compile(PatternRule.Type.Glob, "b?y*fol?owers").matches(payload.toString()));
+    }
+
+    @Test
+    public void paddingCannotHideDomainMatch() {
+        PatternRule rule = PatternRule.compile(PatternRule.Type.Domain, "*.ly");
+        StringBuilder payload = new StringBuilder();
+        for(int i = 0; i < 100000; i++) payload.append("a.lyx");
+        Assert.assertFalse(rule.matches(payload.toString()));
+        Assert.assertTrue(rule.matches(payload.append("bit.ly").toString()));
+    }
+
+    @Test
+    public void regexTooSlowToCheckCountsAsMatch() {
+        PatternRule rule = PatternRule.compile(PatternRule.Type.Regex, "a+bcd");
+        StringBuilder payload = new StringBuilder("bcd");
+        for(int i = 0; i < 1000; i++) payload.append('a');
+        Assert.assertTrue(rule.matches(payload.toString()));
+        Assert.assertFalse(rule.matches("bcdaaa"));
+    }
+
+    @Test
+    public void domainWithWildcardLabel() {
+        PatternRule rule = PatternRule.compile(PatternRule.Type.Domain, "*.ly");
+        Assert.assertTrue(rule.matches("goto.ly/x"));
+        Assert.assertFalse(rule.matches(".lyrics"));
+    }
+
+    @Test
+    public void regexUsesTopLevelLiteral() {
+        PatternRule rule = PatternRule.compile(PatternRule.Type.Regex, "free\\d+subs");
+        Assert.assertEquals("free", rule.getLiteral());
+        Assert.assertTrue(rule.matches("getfree100subs"));
+        Assert.assertFalse(rule.matches("freesubs"));
+        Assert.assertEquals("www.", PatternRule.compile(PatternRule.Type.Regex, "www\\.(?:[a-z]+)").getLiteral());
+    }
+
+    @Test
+    public void rejectsPathologicalRegexes() {
+        for(String regex : Arrays.asList("(a+)+b", "(abc*)*", "(x|xy){2,}zzz", "(abc)\\1", "abc(?=d)", "ab|cd", "a.b")) {
+            try {
+                PatternRule.compile(PatternRule.Type.Regex, regex);
+                Assert.fail("Accepted " + regex);
+            } catch(IllegalArgumentException expected) {
+                // Expected
+            }
+        }
+        PatternRule.compile(PatternRule.Type.Regex, "(?:abc)+def");
+        PatternRule.compile(PatternRule.Type.Regex, "(a+)?bcd");
+    }
+
+    @Test
+    public void rejectsRulesWithoutLiteral() {
+        for(PatternRule.Type type : PatternRule.Type.values()) {
+            try {
+                PatternRule.compile(type, "*");
+                Assert.fail("Accepted * as " + type);
+            } catch(IllegalArgumentException expected) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void findsFirstMatchingRuleInOrder() {
+        PatternRule domain = PatternRule.compile(PatternRule.Type.Domain, "bit.ly");
+        PatternRule glob = PatternRule.compile(PatternRule.Type.Glob, "*.ly/*");
+        PatternBlacklist blacklist = new PatternBlacklist(Arrays.asList(domain, glob));
+        Assert.assertEquals(domain, blacklist.findFirst("seebit.ly/abc"));
+        Assert.assertEquals(glob, blacklist.findFirst("seeow.ly/abc"));
+        Assert.assertNull(blacklist.findFirst("nothinghere"));
+        Assert.assertNull(PatternBlacklist.empty().findFirst("bit.ly"));
+    }
+
+    @Test
+    public void manyRulesOnlyVerifyCandidates() {
+        List<PatternRule> rules = new ArrayList<>();
+        for(int i = 0; i < 1000; i++) rules.add(PatternRule.compile(PatternRule.Type.Glob, "spam" + i + "x*site"));
+        PatternBlacklist blacklist = new PatternBlacklist(rules);
+        Assert.assertEquals(rules.get(999), blacklist.findFirst("xxspam999xmysite"));
+        Assert.assertNull(blacklist.findFirst("an ordinary message about spam"));
+    }
+}
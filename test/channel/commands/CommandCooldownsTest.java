@@ -0,0 +1,86 @@
+package channel.commands;
+
+import channel.permissions.UserPermission;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tests for the lock-free command cooldowns.
+ */
+public class CommandCooldownsTest {
+    private final AtomicLong clock = new AtomicLong(-TimeUnit.HOURS.toNanos(1));
+
+    private static SimpleCommand command(String name, long cooldownSeconds, long userCooldownSeconds) {
+        return new SimpleCommand(name, UserPermission.ChannelUser, (message, arguments) -> null)
+                .setCooldownMillis(TimeUnit.SECONDS.toMillis(cooldownSeconds))
+                .setUserCooldownMillis(TimeUnit.SECONDS.toMillis(userCooldownSeconds));
+    }
+
+    private void advanceSeconds(long seconds) {
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(seconds));
+    }
+
+    @Test
+    public void commandWindowsAreIndependent() {
+        SimpleCommand ttl = command("ttl", 40, 0);
+        SimpleCommand uptime = command("uptime", 40, 0);
+        CommandCooldowns cooldowns = new CommandCooldowns(Arrays.asList(ttl, uptime), 0, 64, clock::get);
+
+        Assert.assertEquals(CommandCooldowns.Result.Allowed, cooldowns.tryAcquire(ttl, "a"));
+        Assert.assertEquals(CommandCooldowns.Result.ChannelCooldown, cooldowns.tryAcquire(ttl, "b"));
+        Assert.assertEquals(CommandCooldowns.Result.Allowed, cooldowns.tryAcquire(uptime, "b"));
+        advanceSeconds(39);
+        Assert.assertEquals(CommandCooldowns.Result.ChannelCooldown, cooldowns.tryAcquire(ttl, "c"));
+        advanceSeconds(1);
+        Assert.assertEquals(CommandCooldowns.Result.Allowed, cooldowns.tryAcquire(ttl, "c"));
+    }
+
+    @Test
+    public void globalWindowSpansCommands() {
+        SimpleCommand ttl = command("ttl", 40, 0);
+        SimpleCommand uptime = command("uptime", 40, 0);
+        SimpleCommand ban = command("bot blw", 0, 0);
+        CommandCooldowns cooldowns = new CommandCooldowns(Arrays.asList(ttl, uptime, ban), 2000, 64, clock::get);
+
+        Assert.assertEquals(CommandCooldowns.Result.Allowed, cooldowns.tryAcquire(ttl, "a"));
+        Assert.assertEquals(CommandCooldowns.Result.ChannelCooldown, cooldowns.tryAcquire(uptime, "a"));
+        Assert.assertEquals(CommandCooldowns.Result.Allowed, cooldowns.tryAcquire(ban, "a"));
+        advanceSeconds(2);
+        Assert.assertEquals(CommandCooldowns.Result.Allowed, cooldowns.tryAcquire(uptime, "a"));
+    }
+
+    @Test
+    public void userWindowIgnoresRepeatedRequests() {
+        SimpleCommand lll = command("lll", 40, 15);
+        CommandCooldowns cooldowns = new CommandCooldowns(Arrays.asList(lll), 0, 64, clock::get);
+
+        Assert.assertEquals(CommandCooldowns.Result.Allowed, cooldowns.tryAcquire(lll, "a"));
+        Assert.assertEquals(CommandCooldowns.Result.ChannelCooldown, cooldowns.tryAcquire(lll, "b"));
+        Assert.assertEquals(CommandCooldowns.Result.UserCooldown, cooldowns.tryAcquire(lll, "a"));
+        Assert.assertEquals(CommandCooldowns.Result.UserCooldown, cooldowns.tryAcquire(lll, "b"));
+        advanceSeconds(15);
+        Assert.assertEquals(CommandCooldowns.Result.ChannelCooldown, cooldowns.tryAcquire(lll, "a"));
+    }
+
+    @Test
+    public void reusesExpiredUserSlots() {
+        SimpleCommand lll = command("lll", 0, 15);
+        CommandCooldowns cooldowns = new CommandCooldowns(Arrays.asList(lll), 0, 8, clock::get);
+
+        for(int user = 0; user < 1000; user++) {
+            Assert.assertEquals(CommandCooldowns.Result.Allowed, cooldowns.tryAcquire(lll, "user" + user));
+            advanceSeconds(15);
+        }
+        Assert.assertEquals(CommandCooldowns.Result.Allowed, cooldowns.tryAcquire(lll, "user999"));
+        Assert.assertEquals(CommandCooldowns.Result.UserCooldown, cooldowns.tryAcquire(lll, "user999"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownCommands() {
+        new CommandCooldowns(Arrays.asList(command("ttl", 40, 0)), 0, 64, clock::get).tryAcquire(command("ttl", 40, 0), "a");
+    }
+}
@@ -0,0 +1,109 @@
+package channel.commands;
+
+import channel.data.TwitchMessage;
+import channel.data.TwitchUser;
+import channel.permissions.UserPermission;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Tests for the command dispatch table.
+ */
+public class CommandManagerTest {
+
+    private static TwitchMessage message(String payload) {
+        return new TwitchMessage(payload, new TwitchUser("user"), null);
+    }
+
+    private static SimpleCommand echo(String name, UserPermission permission) {
+        return new SimpleCommand(name, permission, (message, arguments) -> CommandResponse.toChannel(message, name + ":" + arguments));
+    }
+
+    @Test
+    public void runsTheDeepestMatchingCommand() {
+        CommandManager commandManager = new CommandManager(Arrays.asList(
+                echo("bot", UserPermission.ChannelUser),
+                echo("bot blw", UserPermission.ChannelUser),
+                echo("loop removeLast", UserPermission.ChannelUser)));
+
+        Assert.assertEquals("bot blw:some word", commandManager.runCommand(message("!bot blw some word"), UserPermission.ChannelUser).getMessage());
+        Assert.assertEquals("bot:xyz", commandManager.runCommand(message("!bot xyz"), UserPermission.ChannelUser).getMessage());
+        Assert.assertEquals("bot blw:", commandManager.runCommand(message("!BOT Blw"), UserPermission.ChannelUser).getMessage());
+        Assert.assertEquals("loop removeLast:", commandManager.runCommand(message("!loop removelast"), UserPermission.ChannelUser).getMessage());
+        Assert.assertNull(commandManager.runCommand(message("!loop"), UserPermission.ChannelUser));
+        Assert.assertNull(commandManager.runCommand(message("bot blw word"), UserPermission.ChannelUser));
+        Assert.assertNull(commandManager.runCommand(message("!"), UserPermission.ChannelUser));
+    }
+
+    @Test
+    public void checksPermission() {
+        CommandManager commandManager = new CommandManager(Collections.singleton(echo("bot", UserPermission.BotAdmin)));
+        Assert.assertNull(commandManager.runCommand(message("!bot"), UserPermission.ChannelModerator));
+        Assert.assertNotNull(commandManager.runCommand(message("!bot"), UserPermission.BotAdmin));
+        Assert.assertNotNull(commandManager.runCommand(message("!bot"), UserPermission.ChannelOwner));
+    }
+
+    @Test
+    public void whispersInsideCooldown() {
+        SimpleCommand command = echo("lll", UserPermission.ChannelUser)
+                .setCooldownMillis(60000)
+                .setCooldownFallback(CooldownFallback.Whisper);
+        CommandManager commandManager = new CommandManager(Arrays.asList(command, echo("ttl", UserPermission.ChannelUser)));
+
+        Assert.assertTrue(commandManager.runCommand(message("!lll"), UserPermission.ChannelUser).isSendToChannel());
+        CommandResponse cooling = commandManager.runCommand(message("!lll"), UserPermission.ChannelUser);
+        Assert.assertEquals("lll:", cooling.getMessage());
+        Assert.assertTrue(cooling.isWhisperToUser());
+        Assert.assertFalse(cooling.isSendToChannel());
+        // Commands cool down independently.
+        Assert.assertNotNull(commandManager.runCommand(message("!ttl"), UserPermission.ChannelUser));
+        Assert.assertNotNull(commandManager.runCommand(message("!ttl"), UserPermission.ChannelUser));
+    }
+
+    @Test
+    public void batchesMentionsInsideCooldown() {
+        SimpleCommand ttl = echo("ttl", UserPermission.ChannelUser)
+                .setCooldownMillis(60000)
+                .setCooldownFallback(CooldownFallback.Mention);
+        CommandManager commandManager = new CommandManager(Collections.singleton(ttl));
+
+        Assert.assertNull(commandManager.runCommand(message("!ttl"), UserPermission.ChannelUser).getMentionBatch());
+        CommandResponse cooling = commandManager.runCommand(message("!ttl"), UserPermission.ChannelUser);
+        Assert.assertEquals("ttl", cooling.getMentionBatch());
+        Assert.assertFalse(cooling.isSendToChannel());
+        Assert.assertFalse(cooling.isWhisperToUser());
+    }
+
+    @Test
+    public void findsCommandsWithoutRunningThem() {
+        CommandManager commandManager = new CommandManager(Collections.singleton(new HelpCommand()));
+        Assert.assertTrue(commandManager.findCommand("!help") instanceof HelpCommand);
+        Assert.assertNull(commandManager.findCommand("help"));
+        Assert.assertNotNull(commandManager.runCommand(message("!help"), UserPermission.ChannelUser));
+        Assert.assertNull(commandManager.runCommand(message("!help"), UserPermission.ChannelUser));
+    }
+
+    @Test
+    public void findsWhereArgumentsStart() {
+        CommandManager commandManager = new CommandManager(Arrays.asList(
+                echo("ttl", UserPermission.ChannelUser),
+                echo("bot blw", UserPermission.BotAdmin)));
+
+        Assert.assertFalse(commandManager.find("!ttl").hasArguments());
+        Assert.assertFalse(commandManager.find("!ttl  ").hasArguments());
+        CommandManager.Match spam = commandManager.find("!ttl buy followers at spam.com");
+        Assert.assertTrue(spam.hasArguments());
+        Assert.assertEquals(5, spam.getArgumentStart());
+        Assert.assertEquals("buy followers at spam.com", spam.getArguments());
+        Assert.assertEquals("word", commandManager.find("!bot blw word").getArguments());
+        Assert.assertNull(commandManager.find("!bot"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsDuplicateNames() {
+        new CommandManager(Arrays.asList(echo("ttl", UserPermission.ChannelUser), echo("TTL", UserPermission.BotAdmin)));
+    }
+}
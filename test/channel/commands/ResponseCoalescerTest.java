@@ -0,0 +1,143 @@
+package channel.commands;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for coalescing command answers during bursts of requests.
+ */
+public class ResponseCoalescerTest {
+    private List<String> channelMessages;
+    private List<String> whispers;
+    private ResponseCoalescer responseCoalescer;
+
+    @Before
+    public void setUp() {
+        channelMessages = new ArrayList<>();
+        whispers = new ArrayList<>();
+        responseCoalescer = new ResponseCoalescer(3000, 1000, 15000, 100, 2, channelMessages::add,
+                (username, message) -> whispers.add(username + ":" + message));
+    }
+
+    @Test
+    public void mentionsEveryRequesterInOneMessage() {
+        responseCoalescer.addMention("ttl", "Show in 1 hour", "a", 0);
+        responseCoalescer.addMention("ttl", "Show in 1 hour", "b", 1000);
+        responseCoalescer.addMention("ttl", "Show in 59 minutes", "a", 2000);
+        responseCoalescer.flush(2999);
+        Assert.assertTrue(channelMessages.isEmpty());
+
+        responseCoalescer.flush(3000);
+        Assert.assertEquals(1, channelMessages.size());
+        Assert.assertEquals("@a @b Show in 59 minutes", channelMessages.get(0));
+        Assert.assertEquals(0, responseCoalescer.getPendingMentionCount());
+    }
+
+    @Test
+    public void splitsMentionsAcrossFlushesWhenTooLong() {
+        for(int user = 0; user < 60; user++) responseCoalescer.addMention("ttl", "Soon", "viewer" + user, 0);
+        responseCoalescer.flush(3000);
+        Assert.assertEquals(1, channelMessages.size());
+        Assert.assertTrue(channelMessages.get(0).length() <= 500);
+        Assert.assertTrue(channelMessages.get(0).startsWith("@viewer0 @viewer1 "));
+        int remaining = responseCoalescer.getPendingMentionCount();
+        Assert.assertTrue(remaining > 0);
+
+        responseCoalescer.flush(4000);
+        Assert.assertEquals(2, channelMessages.size());
+        Assert.assertEquals(0, responseCoalescer.getPendingMentionCount());
+    }
+
+    @Test
+    public void sendsOneMentionMessagePerCommandPerInterval() {
+        ResponseCoalescer cooling = new ResponseCoalescer(3000, 10000, 25000, 500, 2, channelMessages::add, (username, message) -> {});
+        for(int second = 0; second < 90; second++) {
+            if(second < 80) {
+                cooling.addMention("ttl", "Soon", "viewer" + second, second * 1000L);
+                cooling.addMention("uptime", "Live", "viewer" + second, second * 1000L);
+            }
+            cooling.flush(second * 1000L);
+        }
+        Assert.assertEquals(18, channelMessages.size());
+        Assert.assertEquals(9, channelMessages.stream().filter(message -> message.endsWith("Soon")).count());
+        Assert.assertTrue(channelMessages.get(2).startsWith("@viewer4 "));
+        // Every request waited for a message rather than going stale.
+        Assert.assertEquals(0, cooling.getDroppedRequestCount());
+    }
+
+    @Test
+    public void usersThatDoNotFitWaitForTheNextMessage() {
+        ResponseCoalescer cooling = new ResponseCoalescer(3000, 10000, 25000, 500, 2, channelMessages::add, (username, message) -> {});
+        for(int user = 0; user < 60; user++) cooling.addMention("ttl", "Soon", "viewer" + user, 0);
+        cooling.flush(3000);
+        cooling.flush(12000);
+        Assert.assertEquals(1, channelMessages.size());
+        cooling.flush(13000);
+        Assert.assertEquals(2, channelMessages.size());
+        Assert.assertEquals(0, cooling.getPendingMentionCount());
+        Assert.assertEquals(0, cooling.getDroppedRequestCount());
+    }
+
+    @Test
+    public void directAnswersShareTheMentionSlot() {
+        ResponseCoalescer cooling = new ResponseCoalescer(3000, 10000, 25000, 500, 2, channelMessages::add, (username, message) -> {});
+        Assert.assertTrue(cooling.tryAnswer("ttl", 0));
+        cooling.addMention("ttl", "Soon", "a", 1000);
+        cooling.flush(9000);
+        Assert.assertTrue(channelMessages.isEmpty());
+        cooling.flush(10000);
+        Assert.assertEquals("@a Soon", channelMessages.get(0));
+        Assert.assertFalse(cooling.tryAnswer("ttl", 15000));
+        Assert.assertTrue(cooling.tryAnswer("uptime", 15000));
+        Assert.assertTrue(cooling.tryAnswer("ttl", 20000));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMentionIntervalNotShorterThanMaxAge() {
+        new ResponseCoalescer(3000, 40000, 15000, 500, 2, channelMessages::add, (username, message) -> {});
+    }
+
+    @Test
+    public void dropsStaleMentions() {
+        responseCoalescer.addMention("ttl", "Soon", "a", 0);
+        responseCoalescer.flush(16000);
+        Assert.assertTrue(channelMessages.isEmpty());
+        Assert.assertEquals(1, responseCoalescer.getDroppedRequestCount());
+    }
+
+    @Test
+    public void deduplicatesAndPacesWhispers() {
+        responseCoalescer.addWhisper("a", "link", 0);
+        responseCoalescer.addWhisper("a", "link", 0);
+        responseCoalescer.addWhisper("b", "link", 0);
+        responseCoalescer.addWhisper("c", "link", 0);
+        Assert.assertEquals(3, responseCoalescer.getPendingWhisperCount());
+
+        responseCoalescer.flush(1000);
+        Assert.assertEquals(2, whispers.size());
+        responseCoalescer.flush(2000);
+        Assert.assertEquals(3, whispers.size());
+        Assert.assertEquals("c:link", whispers.get(2));
+
+        responseCoalescer.addWhisper("d", "link", 3000);
+        responseCoalescer.flush(20000);
+        Assert.assertEquals(3, whispers.size());
+        Assert.assertEquals(1, responseCoalescer.getDroppedRequestCount());
+    }
+
+    @Test
+    public void boundsPendingRequests() {
+        ResponseCoalescer small = new ResponseCoalescer(0, 0, 15000, 2, 10, channelMessages::add, (username, message) -> {});
+        Assert.assertTrue(small.addWhisper("a", "x", 0));
+        Assert.assertTrue(small.addWhisper("b", "x", 0));
+        Assert.assertFalse(small.addWhisper("c", "x", 0));
+        Assert.assertTrue(small.addMention("ttl", "x", "a", 0));
+        Assert.assertTrue(small.addMention("uptime", "y", "a", 0));
+        Assert.assertFalse(small.addMention("ttl", "x", "b", 0));
+        Assert.assertEquals(2, small.getDroppedRequestCount());
+    }
+}
@@ -0,0 +1,36 @@
+package channel.data;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the bitset char class.
+ */
+public class CharClassTest {
+
+    @Test
+    public void containsLatin1Chars() {
+        CharClass charClass = CharClass.of("az09!\u00ff");
+        Assert.assertTrue(charClass.contains('a'));
+        Assert.assertTrue(charClass.contains('!'));
+        Assert.assertTrue(charClass.contains('\u00ff'));
+        Assert.assertFalse(charClass.contains('b'));
+        Assert.assertFalse(charClass.contains('\u00fe'));
+        Assert.assertFalse(charClass.contains('\u732b'));
+    }
+
+    @Test
+    public void containsCharsOutsideLatin1() {
+        CharClass charClass = CharClass.of("a\u03ba\u732b");
+        Assert.assertTrue(charClass.contains('\u03ba'));
+        Assert.assertTrue(charClass.contains('\u732b'));
+        Assert.assertFalse(charClass.contains('\u732c'));
+        Assert.assertFalse(charClass.contains('\uffff'));
+    }
+
+    @Test
+    public void countsMembers() {
+        Assert.assertEquals(3, CharClass.of("abc").count("a-b-c-d"));
+        Assert.assertEquals(0, CharClass.of("").count("abc"));
+    }
+}
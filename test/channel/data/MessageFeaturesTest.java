@@ -0,0 +1,54 @@
+package channel.data;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+/**
+ * Tests for the single pass message features.
+ */
+public class MessageFeaturesTest {
+    private static final CharClass LEGAL = CharClass.of("abcdefghijklmnopqrstuvwxyz.!@$%1234567890");
+    private static final int[] EMOTES = MessageFeatures.hashEmotes(Arrays.asList("Kappa", "PogChamp"));
+    private static final double DELTA = 0.0001;
+
+    @Test
+    public void legalCharRatioMatchesTwitchMessage() {
+        String payload = "\u2588\u2588 hi \u2588\u2588 ";
+        TwitchMessage twitchMessage = new TwitchMessage(payload, "user", null);
+        MessageFeatures features = MessageFeatures.compute(payload, LEGAL);
+        Assert.assertEquals(6, features.getCharCount());
+        Assert.assertEquals(twitchMessage.getLegalCharRatio(LEGAL), features.getLegalCharRatio(), DELTA);
+        Assert.assertEquals(2.0 / 6, features.getLegalCharRatio(), DELTA);
+    }
+
+    @Test
+    public void emptyMessageIsLegal() {
+        MessageFeatures features = MessageFeatures.compute("   ", LEGAL);
+        Assert.assertEquals(1, features.getLegalCharRatio(), DELTA);
+        Assert.assertEquals(0, features.getWordCount());
+    }
+
+    @Test
+    public void countsUppercaseAndSymbols() {
+        MessageFeatures features = MessageFeatures.compute("HEllo ##", LEGAL);
+        Assert.assertEquals(0.4, features.getUppercaseRatio(), DELTA);
+        Assert.assertEquals(2.0 / 7, features.getSymbolRatio(), DELTA);
+    }
+
+    @Test
+    public void countsEmotesCaseSensitively() {
+        MessageFeatures features = MessageFeatures.compute("Kappa kappa PogChamp hi Kap\u200bpa", LEGAL, EMOTES);
+        Assert.assertEquals(5, features.getWordCount());
+        Assert.assertEquals(3, features.getEmoteCount());
+        Assert.assertEquals(0.6, features.getEmoteDensity(), DELTA);
+    }
+
+    @Test
+    public void findsLongestRunAcrossWhitespaceAndCase() {
+        Assert.assertEquals(5, MessageFeatures.compute("heyyY yy", LEGAL).getLongestRun());
+        Assert.assertEquals(1, MessageFeatures.compute("abc", LEGAL).getLongestRun());
+        Assert.assertEquals(0, MessageFeatures.compute("", LEGAL).getLongestRun());
+    }
+}
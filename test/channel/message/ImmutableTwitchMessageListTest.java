@@ -1,6 +1,7 @@
 package channel.message;
 
-import channel.users.TwitchUser;
+import channel.data.TwitchMessage;
+import channel.data.TwitchUser;
 import org.joda.time.DateTime;
 import org.joda.time.Period;
 import org.junit.Assert;
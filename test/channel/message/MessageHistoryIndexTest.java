@@ -0,0 +1,62 @@
+package channel.message;
+
+import channel.data.TwitchMessage;
+import org.joda.time.DateTime;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for the trigram indexed channel history.
+ */
+public class MessageHistoryIndexTest {
+    private final DateTime start = new DateTime(2016, 3, 12, 10, 0);
+
+    @Test
+    public void findsMessagesContainingTerm() {
+        MessageHistoryIndex index = new MessageHistoryIndex(TimeUnit.MINUTES.toMillis(5), 1000);
+        index.add(new TwitchMessage("go to Bad Site now", "user1", start));
+        index.add(new TwitchMessage("hello", "user2", start));
+        index.add(new TwitchMessage("BADSITE!", "user3", start));
+        List<TwitchMessage> matches = index.findContaining("badsite");
+        Assert.assertEquals(2, matches.size());
+        Assert.assertEquals("user1", matches.get(0).getSender().getUsername());
+        Assert.assertTrue(index.findContaining("nowhere").isEmpty());
+    }
+
+    @Test
+    public void findsShortTermsByScanning() {
+        MessageHistoryIndex index = new MessageHistoryIndex(TimeUnit.MINUTES.toMillis(5), 1000);
+        index.add(new TwitchMessage("xy", "user1", start));
+        index.add(new TwitchMessage("axyb", "user2", start));
+        Assert.assertEquals(2, index.findContaining("xy").size());
+    }
+
+    @Test
+    public void findsEqualPayloads() {
+        MessageHistoryIndex index = new MessageHistoryIndex(TimeUnit.MINUTES.toMillis(5), 1000);
+        index.add(new TwitchMessage("Buy Followers", "user1", start));
+        index.add(new TwitchMessage("buy followers cheap", "user2", start));
+        Assert.assertEquals(1, index.findEqual("buyfollowers").size());
+    }
+
+    @Test
+    public void evictsOldMessages() {
+        MessageHistoryIndex index = new MessageHistoryIndex(TimeUnit.MINUTES.toMillis(5), 1000);
+        index.add(new TwitchMessage("badsite", "user1", start));
+        index.add(new TwitchMessage("badsite", "user2", start.plusMinutes(4)));
+        index.add(new TwitchMessage("hello", "user3", start.plusMinutes(6)));
+        Assert.assertEquals(2, index.size());
+        Assert.assertEquals(1, index.findContaining("badsite").size());
+    }
+
+    @Test
+    public void capsRetainedMessages() {
+        MessageHistoryIndex index = new MessageHistoryIndex(TimeUnit.MINUTES.toMillis(5), 3);
+        for(int i = 0; i < 10; i++) index.add(new TwitchMessage("spam " + i, "user" + i, start));
+        Assert.assertEquals(3, index.size());
+        Assert.assertEquals(3, index.findContaining("spam").size());
+    }
+}
@@ -0,0 +1,73 @@
+package channel.message;
+
+import channel.data.TwitchMessage;
+import channel.data.TwitchUser;
+import org.joda.time.DateTime;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Tests the per user message histories held by the MessageManager.
+ */
+public class MessageManagerTest {
+
+    @Test
+    public void unknownUserHasEmptySnapshot() {
+        MessageManager messageManager = new MessageManager();
+        Assert.assertEquals(0, messageManager.getUserSnapshot(new TwitchUser("nobody")).size());
+    }
+
+    @Test
+    public void userSnapshotHoldsUserMessages() {
+        MessageManager messageManager = new MessageManager();
+        messageManager.addMessage(new TwitchMessage("hello", "user1", DateTime.now()));
+        messageManager.addMessage(new TwitchMessage("world", "user2", DateTime.now()));
+        messageManager.addMessage(new TwitchMessage("again", "user1", DateTime.now()));
+        Assert.assertEquals(2, messageManager.getUserSnapshot(new TwitchUser("user1")).size());
+        Assert.assertEquals(3, messageManager.getChannelSnapshot().size());
+    }
+
+    @Test
+    public void trackedUsersAreCapped() {
+        MessageManager messageManager = new MessageManager(30, TimeUnit.MINUTES, 100);
+        IntStream.range(0, 1000).forEach(user ->
+                messageManager.addMessage(new TwitchMessage("hi", "user" + user, DateTime.now())));
+        Assert.assertTrue(messageManager.getTrackedUserCount() <= 100);
+        Assert.assertTrue(messageManager.getUserCacheStats().evictionCount() >= 900);
+    }
+
+    @Test
+    public void idleUsersExpire() throws Exception {
+        MessageManager messageManager = new MessageManager(50, TimeUnit.MILLISECONDS, 100);
+        TwitchUser user = new TwitchUser("user1");
+        messageManager.addMessage(new TwitchMessage("hello", user, DateTime.now()));
+        Assert.assertEquals(1, messageManager.getUserSnapshot(user).size());
+        Thread.sleep(100);
+        Assert.assertEquals(0, messageManager.getUserSnapshot(user).size());
+    }
+
+    @Test
+    public void countsNearDuplicatesInTheChannelWindow() {
+        MessageManager messageManager = new MessageManager();
+        IntStream.range(0, 20).forEach(i ->
+                messageManager.addMessage(new TwitchMessage("buy cheap viewers now " + i, "user" + i, DateTime.now())));
+        Assert.assertEquals(messageManager.getChannelSnapshot().size(),
+                messageManager.getChannelNearDuplicateCount("buycheapviewersnow!"));
+        Assert.assertEquals(10, messageManager.getChannelNearDuplicateCount("buycheapviewersnow!"));
+    }
+
+    @Test
+    public void measuresSubSecondMessageRate() {
+        MessageManager messageManager = new MessageManager();
+        DateTime start = new DateTime(2016, 3, 12, 10, 0);
+        IntStream.range(0, 4).forEach(i ->
+                messageManager.addMessage(new TwitchMessage("spam " + i, "user1", start.plusMillis(i * 100))));
+        long now = start.plusMillis(300).getMillis();
+        Assert.assertEquals(4.0, messageManager.getUserPeakMessageRate(new TwitchUser("user1"), now, 3), 0.0001);
+        Assert.assertEquals(0.0, messageManager.getUserPeakMessageRate(new TwitchUser("user1"), now, 5), 0.0001);
+        Assert.assertEquals(0.0, messageManager.getUserPeakMessageRate(new TwitchUser("user2"), now, 3), 0.0001);
+    }
+}
@@ -0,0 +1,50 @@
+package channel.message;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the sliding window message rate counter.
+ */
+public class MessageRateCounterTest {
+
+    @Test
+    public void countsWithinEachWindow() {
+        MessageRateCounter counter = new MessageRateCounter(64, 1000, 10000);
+        counter.record(0);
+        counter.record(5000);
+        counter.record(9500);
+        counter.record(9800);
+        Assert.assertEquals(2, counter.getCount(1000, 10000));
+        Assert.assertEquals(3, counter.getCount(10000, 10000));
+        Assert.assertEquals(2.0, counter.getRate(1000, 10000), 0.0001);
+    }
+
+    @Test
+    public void countsSubSecondBursts() {
+        MessageRateCounter counter = new MessageRateCounter(64, 1000);
+        for(int i = 0; i < 4; i++) counter.record(100 + i * 10);
+        Assert.assertEquals(4, counter.getCount(1000, 200));
+        Assert.assertEquals(0, counter.getCount(1000, 1200));
+    }
+
+    @Test
+    public void saturatesAtCapacity() {
+        MessageRateCounter counter = new MessageRateCounter(4, 1000);
+        for(int i = 0; i < 10; i++) counter.record(i);
+        Assert.assertEquals(4, counter.getCount(1000, 10));
+    }
+
+    @Test
+    public void treatsOutOfOrderTimesAsLatest() {
+        MessageRateCounter counter = new MessageRateCounter(8, 1000);
+        counter.record(5000);
+        counter.record(3000);
+        Assert.assertEquals(2, counter.getCount(1000, 5500));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownWindow() {
+        new MessageRateCounter(8, 1000).getCount(2000, 0);
+    }
+}
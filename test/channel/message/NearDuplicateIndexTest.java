@@ -0,0 +1,51 @@
+package channel.message;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the MinHash near duplicate index.
+ */
+public class NearDuplicateIndexTest {
+    private static final String SPAM = "followmychannelforfreesubsandgiveaways";
+
+    @Test
+    public void countsSlightlyVariedMessages() {
+        NearDuplicateIndex index = new NearDuplicateIndex(100, 16, 8, 0.7);
+        index.add(SPAM + "x");
+        index.add(SPAM + "7");
+        index.add("q" + SPAM);
+        Assert.assertEquals(3, index.countSimilar(SPAM + "!!"));
+    }
+
+    @Test
+    public void ignoresUnrelatedMessages() {
+        NearDuplicateIndex index = new NearDuplicateIndex(100, 16, 8, 0.7);
+        index.add("thatwasanamazingplaywelldone");
+        index.add("whenisthenextstreamhappening");
+        index.add("lolthebosskilledhimagain");
+        Assert.assertEquals(0, index.countSimilar(SPAM));
+    }
+
+    @Test
+    public void forgetsEvictedMessages() {
+        NearDuplicateIndex index = new NearDuplicateIndex(4, 16, 8, 0.7);
+        index.add(SPAM);
+        for(int i = 0; i < 4; i++) index.add("unrelatedmessagenumber" + i);
+        Assert.assertEquals(0, index.countSimilar(SPAM));
+        index.add(SPAM);
+        Assert.assertEquals(1, index.countSimilar(SPAM));
+    }
+
+    @Test
+    public void ignoresEmptyPayloads() {
+        NearDuplicateIndex index = new NearDuplicateIndex(4, 16, 8, 0.7);
+        index.add("");
+        Assert.assertEquals(0, index.countSimilar(""));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnevenBands() {
+        new NearDuplicateIndex(4, 16, 5, 0.7);
+    }
+}
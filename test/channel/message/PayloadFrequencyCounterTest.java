@@ -0,0 +1,50 @@
+package channel.message;
+
+import channel.data.TwitchMessage;
+import org.joda.time.DateTime;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the payload counter stays in step with the evicting queue it observes.
+ */
+public class PayloadFrequencyCounterTest {
+
+    private PayloadFrequencyCounter payloadFrequencyCounter;
+    private TwitchMessageEvictingQueue twitchMessageEvictingQueue;
+
+    @Before
+    public void setUp() {
+        payloadFrequencyCounter = new PayloadFrequencyCounter();
+        twitchMessageEvictingQueue = new TwitchMessageEvictingQueue(3,
+                payloadFrequencyCounter::messageAdmitted,
+                payloadFrequencyCounter::messageEvicted);
+    }
+
+    private void addMessage(String payload) {
+        twitchMessageEvictingQueue.addMessage(new TwitchMessage(payload, "foobar", DateTime.now()));
+    }
+
+    @Test
+    public void countsSimplifiedDuplicates() {
+        addMessage("Hello World");
+        addMessage("helloworld");
+        addMessage("other");
+        Assert.assertEquals(2, payloadFrequencyCounter.getCount("helloworld"));
+        Assert.assertEquals(1, payloadFrequencyCounter.getCount("other"));
+        Assert.assertEquals(0, payloadFrequencyCounter.getCount("missing"));
+    }
+
+    @Test
+    public void decrementsOnEviction() {
+        addMessage("spam");
+        addMessage("spam");
+        addMessage("a");
+        addMessage("b");
+        Assert.assertEquals(1, payloadFrequencyCounter.getCount("spam"));
+        addMessage("c");
+        Assert.assertEquals(0, payloadFrequencyCounter.getCount("spam"));
+        Assert.assertEquals("Evicted payloads are forgotten", 3, payloadFrequencyCounter.size());
+    }
+}
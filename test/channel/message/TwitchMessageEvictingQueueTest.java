@@ -1,5 +1,6 @@
 package channel.message;
 
+import channel.data.TwitchMessage;
 import org.joda.time.DateTime;
 import org.junit.Assert;
 import org.junit.Before;
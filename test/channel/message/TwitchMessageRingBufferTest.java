@@ -0,0 +1,91 @@
+package channel.message;
+
+import channel.data.TwitchMessage;
+import org.joda.time.DateTime;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Tests the lock free channel message window.
+ */
+public class TwitchMessageRingBufferTest {
+
+    private static TwitchMessage message(int id) {
+        return new TwitchMessage("Message Number " + id, "user" + id, DateTime.now());
+    }
+
+    @Test
+    public void snapshotIsOldestFirst() {
+        TwitchMessageRingBuffer ringBuffer = new TwitchMessageRingBuffer(3);
+        IntStream.range(0, 5).forEach(id -> ringBuffer.addMessage(message(id)));
+        List<String> payloads = ringBuffer.getMessageBufferSnapshot().stream()
+                .map(TwitchMessage::getMessagePayload)
+                .collect(Collectors.toList());
+        Assert.assertEquals(3, payloads.size());
+        Assert.assertEquals("Message Number 2", payloads.get(0));
+        Assert.assertEquals("Message Number 4", payloads.get(2));
+    }
+
+    @Test
+    public void evictionListenerSeesEveryEvictedMessage() {
+        AtomicInteger evicted = new AtomicInteger();
+        TwitchMessageRingBuffer ringBuffer = new TwitchMessageRingBuffer(3, message -> {}, message -> evicted.incrementAndGet());
+        IntStream.range(0, 10).forEach(id -> ringBuffer.addMessage(message(id)));
+        Assert.assertEquals(7, evicted.get());
+    }
+
+    @Test
+    public void concurrentWritersKeepWindowConsistent() throws Exception {
+        PayloadFrequencyCounter payloadFrequencyCounter = new PayloadFrequencyCounter();
+        TwitchMessageRingBuffer ringBuffer = new TwitchMessageRingBuffer(10,
+                payloadFrequencyCounter::messageAdmitted,
+                payloadFrequencyCounter::messageEvicted);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Object>> writers = IntStream.range(0, 8).mapToObj(thread -> pool.submit(() -> {
+            start.await();
+            IntStream.range(0, 1000).forEach(id -> {
+                ringBuffer.addMessage(message(thread * 1000 + id));
+                Assert.assertTrue(ringBuffer.getMessageBufferSnapshot().size() <= 10);
+            });
+            return null;
+        })).collect(Collectors.toList());
+        start.countDown();
+        for(Future<Object> writer : writers) writer.get(5, TimeUnit.SECONDS);
+        pool.shutdown();
+        Assert.assertEquals(10, ringBuffer.getMessageBufferSnapshot().size());
+        Assert.assertEquals("Counter tracks exactly the messages in the window", 10, payloadFrequencyCounter.size());
+    }
+
+    @Test
+    public void snapshotWithWritersPausedIsAlwaysAWholeWindow() throws Exception {
+        // No lock free attempts, so every snapshot pauses the writer.
+        TwitchMessageRingBuffer ringBuffer = new TwitchMessageRingBuffer(256, 0, message -> {}, message -> {});
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        AtomicInteger written = new AtomicInteger();
+        Future<?> writer = pool.submit(() -> {
+            for(int id = 0; id < 100000; id++) {
+                ringBuffer.addMessage(new TwitchMessage(String.valueOf(id), "user", null));
+                written.set(id + 1);
+            }
+        });
+        while(!writer.isDone()) {
+            int writtenBefore = written.get();
+            List<Integer> ids = ringBuffer.getMessageBufferSnapshot().stream()
+                    .map(message -> Integer.valueOf(message.getMessagePayload()))
+                    .collect(Collectors.toList());
+            for(int i = 1; i < ids.size(); i++) Assert.assertEquals(ids.get(i - 1) + 1, (int) ids.get(i));
+            // Only the one write under way may be missing from the window.
+            Assert.assertTrue(ids.size() >= Math.min(256, writtenBefore) - 1);
+        }
+        writer.get(5, TimeUnit.SECONDS);
+        pool.shutdown();
+        Assert.assertEquals(256, ringBuffer.getMessageBufferSnapshot().size());
+    }
+}
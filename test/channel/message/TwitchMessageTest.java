@@ -1,6 +1,7 @@
 package channel.message;
 
-import channel.users.TwitchUser;
+import channel.data.TwitchMessage;
+import channel.data.TwitchUser;
 import org.joda.time.DateTime;
 import org.junit.Assert;
 import org.junit.Before;
@@ -77,4 +78,28 @@ public class TwitchMessageTest {
         Assert.assertFalse(twitchMessagePayload1User1_1.equalsSimplePayload(payload2));
         Assert.assertFalse(twitchMessagePayload1User1_1.equalsSimplePayload(payload2Simple));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void simplePayloadStripsAllWhitespace() throws Exception {
+        TwitchMessage twitchMessage = new TwitchMessage("P1yloAd\tfoobar\u00a0 1!", twitchUsername, baseDateTime);
+        Assert.assertEquals(payload1Simple, twitchMessage.getSimpleMessagePayload());
+    }
+
+    @Test
+    public void simplePayloadFoldsInvisibleAndConfusableChars() throws Exception {
+        TwitchMessage zeroWidth = new TwitchMessage("n\u200bi\u200dg\ufeffg", twitchUsername, baseDateTime);
+        TwitchMessage cyrillic = new TwitchMessage("\u0440\u0430\u0443\u0440\u0430l", twitchUsername, baseDateTime);
+        TwitchMessage fullWidth = new TwitchMessage("\uff22\uff29\uff34.\uff2c\uff39", twitchUsername, baseDateTime);
+        Assert.assertEquals("nigg", zeroWidth.getSimpleMessagePayload());
+        Assert.assertEquals("paypal", cyrillic.getSimpleMessagePayload());
+        Assert.assertEquals("bit.ly", fullWidth.getSimpleMessagePayload());
+        TwitchMessage upperCase = new TwitchMessage("N\u0410ZI \u0420\u0391Y\u0420\u0410L", twitchUsername, baseDateTime);
+        Assert.assertEquals("nazipaypal", upperCase.getSimpleMessagePayload());
+    }
+
+    @Test
+    public void equalsSimplePayloadMessage() throws Exception {
+        Assert.assertTrue(twitchMessagePayload1User1_1.equalsSimplePayload(twitchMessagePayload1User1_2));
+        Assert.assertFalse(twitchMessagePayload1User1_1.equalsSimplePayload(twitchMessagePayload2User1));
+    }
+}
@@ -0,0 +1,100 @@
+package channel.spam;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for escalating timeouts from decaying offence scores.
+ */
+public class BanPolicyTest {
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    @Test
+    public void escalatesThroughTheLadder() {
+        BanPolicy banPolicy = new BanPolicy();
+        Assert.assertEquals(20, banPolicy.recordOffence("Spammer", 20, 0));
+        Assert.assertEquals(300, banPolicy.recordOffence("spammer", 20, 1000));
+        Assert.assertEquals(1800, banPolicy.recordOffence("spammer", 45, 2000));
+        Assert.assertEquals(7200, banPolicy.recordOffence("spammer", 20, 3000));
+        Assert.assertEquals(86400, banPolicy.recordOffence("spammer", 20, 4000));
+        Assert.assertEquals(86400, banPolicy.recordOffence("spammer", 20, 5000));
+        Assert.assertEquals(45, banPolicy.recordOffence("someoneElse", 45, 5000));
+        Assert.assertEquals(2, banPolicy.getTrackedUserCount());
+    }
+
+    @Test
+    public void scoresHalveEveryHalfLife() {
+        BanPolicy banPolicy = new BanPolicy();
+        banPolicy.recordOffence("user", 20, 0);
+        banPolicy.recordOffence("user", 20, 0);
+        Assert.assertEquals(2.0, banPolicy.getScore("user", 0), 1e-9);
+        Assert.assertEquals(1.0, banPolicy.getScore("user", 6 * HOUR), 1e-9);
+        // Score 1 plus this offence is 2, so still the first step of the ladder.
+        Assert.assertEquals(300, banPolicy.getNextTimeoutSeconds("user", 20, 6 * HOUR));
+        Assert.assertEquals(20, banPolicy.getNextTimeoutSeconds("user", 20, 18 * HOUR));
+        Assert.assertEquals(0, banPolicy.getScore("nobody", 0), 0);
+    }
+
+    @Test
+    public void laddersAndHalfLivesAreConfigurable() {
+        BanPolicy banPolicy = new BanPolicy();
+        banPolicy.setLadderSeconds(new int[]{60, 600});
+        banPolicy.setHalfLifeMillis(HOUR);
+        banPolicy.recordOffence("user", 20, 0);
+        Assert.assertEquals(60, banPolicy.recordOffence("user", 20, 0));
+        Assert.assertEquals(600, banPolicy.recordOffence("user", 20, 0));
+        Assert.assertEquals(600, banPolicy.recordOffence("user", 20, 0));
+        Assert.assertEquals(4 * Math.pow(0.5, 3), banPolicy.getScore("user", 3 * HOUR), 1e-9);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsLaddersBeyondTwoWeeks() {
+        new BanPolicy().setLadderSeconds(new int[]{300, BanPolicy.MAX_TIMEOUT_SECONDS + 1});
+    }
+
+    @Test
+    public void evictsDecayedUsersToStayBounded() {
+        Set<Long> evicted = new HashSet<>();
+        BanPolicy banPolicy = new BanPolicy(100, evicted::add);
+        for(int user = 0; user < 10000; user++) {
+            banPolicy.recordOffence("user" + user, 20, user * HOUR);
+            Assert.assertTrue(banPolicy.getTrackedUserCount() <= 100);
+        }
+        Assert.assertTrue(evicted.contains(BanPolicy.keyOf("user0")));
+        Assert.assertEquals(0, banPolicy.getScore("user0", 10000 * HOUR), 0);
+        Assert.assertTrue(banPolicy.getScore("user9999", 10000 * HOUR) > 0.5);
+    }
+
+    @Test
+    public void evictsLowestScoresWhenFullOfRecentOffenders() {
+        BanPolicy banPolicy = new BanPolicy(50, key -> {});
+        banPolicy.recordOffence("repeat", 20, 0);
+        banPolicy.recordOffence("repeat", 20, 0);
+        for(int user = 0; user < 500; user++) {
+            banPolicy.recordOffence("user" + user, 20, 0);
+            Assert.assertTrue(banPolicy.getTrackedUserCount() <= 50);
+        }
+        Assert.assertEquals(2.0, banPolicy.getScore("repeat", 0), 1e-9);
+    }
+
+    @Test
+    public void forgivesAndRestores() {
+        BanPolicy banPolicy = new BanPolicy();
+        for(int user = 0; user < 40; user++) banPolicy.recordOffence("user" + user, 20, 0);
+        Assert.assertTrue(banPolicy.forgive("USER7"));
+        Assert.assertFalse(banPolicy.forgive("user7"));
+        for(int user = 0; user < 40; user++) {
+            Assert.assertEquals(user == 7 ? 0 : 1.0, banPolicy.getScore("user" + user, 0), 1e-9);
+        }
+
+        BanPolicy restored = new BanPolicy();
+        restored.restore(BanPolicy.keyOf("user1"), 3.0, 0, 6 * HOUR);
+        restored.restore(BanPolicy.keyOf("user2"), 1.0, 0, 1000 * HOUR);
+        Assert.assertEquals(1.5, restored.getScore("user1", 6 * HOUR), 1e-9);
+        Assert.assertEquals(1, restored.getTrackedUserCount());
+    }
+}
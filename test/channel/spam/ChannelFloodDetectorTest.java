@@ -0,0 +1,93 @@
+package channel.spam;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the channel wide flood detector.
+ */
+public class ChannelFloodDetectorTest {
+
+    @Test
+    public void staysNormalInBusyButVariedChat() {
+        ChannelFloodDetector detector = new ChannelFloodDetector(10000, 60000);
+        detector.setEnabled(true);
+        for(int i = 0; i < 50; i++) detector.recordMessage(i * 100, i % 10 == 0, i);
+        Assert.assertNull(detector.evaluate(5000));
+        Assert.assertEquals(DefenceMode.Normal, detector.getMode());
+    }
+
+    @Test
+    public void escalatesOneStepPerIntervalOnRaid() {
+        ChannelFloodDetector detector = new ChannelFloodDetector(10000, 60000);
+        detector.setEnabled(true);
+        DefenceMode[] modes = new DefenceMode[30];
+        for(int second = 0; second < 30; second++) {
+            for(int i = 0; i < 40; i++) detector.recordMessage(second * 1000L + i, true, second * 1000 + i);
+            modes[second] = detector.evaluate(second * 1000L + 999);
+        }
+        Assert.assertEquals(DefenceMode.Slow, modes[0]);
+        Assert.assertNull(modes[5]);
+        Assert.assertEquals(DefenceMode.FollowersOnly, modes[10]);
+        Assert.assertEquals(DefenceMode.SubscribersOnly, modes[20]);
+        Assert.assertNull(modes[29]);
+    }
+
+    @Test
+    public void detectsCopyPasteFloodByEntropy() {
+        ChannelFloodDetector detector = new ChannelFloodDetector(10000, 60000);
+        detector.setEnabled(true);
+        for(int i = 0; i < 60; i++) detector.recordMessage(i * 50, false, 42);
+        Assert.assertTrue(detector.getPayloadEntropy() < 0.01);
+        Assert.assertEquals(DefenceMode.Slow, detector.evaluate(3000));
+    }
+
+    @Test
+    public void relaxesAfterCalmPeriod() {
+        ChannelFloodDetector detector = new ChannelFloodDetector(0, 60000);
+        detector.setEnabled(true);
+        for(int i = 0; i < 200; i++) detector.recordMessage(i, true, i);
+        Assert.assertEquals(DefenceMode.Slow, detector.evaluate(100));
+        Assert.assertEquals(DefenceMode.FollowersOnly, detector.evaluate(200));
+        Assert.assertNull(detector.evaluate(30000));
+        Assert.assertEquals(DefenceMode.Slow, detector.evaluate(60200));
+        Assert.assertNull(detector.evaluate(100000));
+        Assert.assertEquals(DefenceMode.Normal, detector.evaluate(120200));
+    }
+
+    @Test
+    public void entropyOfDistinctPayloadsIsOne() {
+        ChannelFloodDetector detector = new ChannelFloodDetector();
+        for(int i = 0; i < 10; i++) detector.recordMessage(0, false, i);
+        Assert.assertEquals(1.0, detector.getPayloadEntropy(), 0.0001);
+    }
+
+    @Test
+    public void ignoresRaidUntilEnabled() {
+        ChannelFloodDetector detector = new ChannelFloodDetector(0, 60000);
+        for(int i = 0; i < 200; i++) detector.recordMessage(i, true, i);
+        Assert.assertNull(detector.evaluate(100));
+        Assert.assertEquals(DefenceMode.Normal, detector.getMode());
+        detector.setEnabled(true);
+        Assert.assertEquals(DefenceMode.Slow, detector.evaluate(200));
+    }
+
+    @Test
+    public void liftsRestoredModeOneStepAtATimeWhenDisabled() {
+        ChannelFloodDetector detector = new ChannelFloodDetector(0, 60000);
+        detector.restoreMode(DefenceMode.SubscribersOnly, 0);
+        Assert.assertEquals(DefenceMode.FollowersOnly, detector.evaluate(1000));
+        Assert.assertEquals(DefenceMode.Slow, detector.evaluate(2000));
+        Assert.assertEquals(DefenceMode.Normal, detector.evaluate(3000));
+        Assert.assertNull(detector.evaluate(4000));
+    }
+
+    @Test
+    public void relaxesRestoredModeAfterCalmPeriodWhenEnabled() {
+        ChannelFloodDetector detector = new ChannelFloodDetector(0, 60000);
+        detector.setEnabled(true);
+        detector.restoreMode(DefenceMode.Slow, 0);
+        Assert.assertNull(detector.evaluate(30000));
+        Assert.assertEquals(DefenceMode.Normal, detector.evaluate(60000));
+    }
+}
@@ -0,0 +1,90 @@
+package channel.spam;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Tests for the suffix automaton based repetition detector.
+ */
+public class RepeatedSubstringDetectorTest {
+    private final RepeatedSubstringDetector detector = new RepeatedSubstringDetector(500, 4);
+
+    @Test
+    public void findsRepeatedUnit() {
+        RepeatedSubstringDetector.Repetition repetition = detector.analyse("kappakappakappakappa");
+        Assert.assertEquals(15, repetition.getLongestRepeatLength());
+        Assert.assertEquals(4, repetition.getUnitCount());
+        Assert.assertEquals(1.0, repetition.getUnitCoverage(), 0.0001);
+    }
+
+    @Test
+    public void ignoresLaughterAndStretchedWords() {
+        for(String message : Arrays.asList("hahahahahaha", "lolololololol", "nooooooooooooooooo", "xdxdxdxdxdxd")) {
+            RepeatedSubstringDetector.Repetition repetition = detector.analyse(message);
+            Assert.assertEquals(message, 0, repetition.getLongestRepeatLength());
+            Assert.assertEquals(message, 0, repetition.getUnitCount());
+        }
+    }
+
+    @Test
+    public void countsOccurrencesWithoutOverlap() {
+        RepeatedSubstringDetector.Repetition repetition = detector.analyse("abcabcabcabcabc");
+        Assert.assertEquals(6, repetition.getUnitLength());
+        Assert.assertEquals(2, repetition.getUnitCount());
+        Assert.assertEquals(0.8, repetition.getUnitCoverage(), 0.0001);
+    }
+
+    @Test
+    public void findsLongestRepeatedSubstring() {
+        RepeatedSubstringDetector.Repetition repetition = detector.analyse("xfollowmeonyoutubeyfollowmeonyoutubez");
+        Assert.assertEquals("followmeonyoutube".length(), repetition.getLongestRepeatLength());
+        Assert.assertEquals(2, repetition.getUnitCount());
+    }
+
+    @Test
+    public void ignoresShortCommonRepeats() {
+        RepeatedSubstringDetector.Repetition repetition =
+                detector.analyse("thecatsatonthematandthedogatethehat");
+        Assert.assertTrue(repetition.getLongestRepeatLength() < 6);
+        Assert.assertTrue(repetition.getUnitCoverage() < 0.5);
+    }
+
+    @Test
+    public void handlesMessagesWithoutRepetition() {
+        Assert.assertEquals(0, detector.analyse("abcdefg").getLongestRepeatLength());
+        Assert.assertEquals(0, detector.analyse("").getUnitCount());
+    }
+
+    @Test
+    public void onlyAnalysesMaxChars() {
+        RepeatedSubstringDetector shortDetector = new RepeatedSubstringDetector(8, 2);
+        Assert.assertEquals(0, shortDetector.analyse("abcdefghabcdefgh").getLongestRepeatLength());
+    }
+
+    @Test
+    public void matchesBruteForceOnGeneratedInput() {
+        Random random = new Random(7);
+        for(int round = 0; round < 200; round++) {
+            StringBuilder message = new StringBuilder();
+            int length = 1 + random.nextInt(40);
+            for(int i = 0; i < length; i++) message.append((char) ('a' + random.nextInt(3)));
+            Assert.assertEquals(message.toString(), bruteForceLongestRepeat(message.toString()),
+                    detector.analyse(message).getLongestRepeatLength());
+        }
+    }
+
+    private static int bruteForceLongestRepeat(String message) {
+        int longest = 0;
+        for(int i = 0; i < message.length(); i++) {
+            for(int j = i + 1; j <= message.length(); j++) {
+                String substring = message.substring(i, j);
+                if(substring.chars().distinct().count() < RepeatedSubstringDetector.MIN_DISTINCT_CHARS) continue;
+                if(message.indexOf(substring, i + 1) >= 0) longest = Math.max(longest, j - i);
+            }
+        }
+        return longest;
+    }
+}
@@ -0,0 +1,126 @@
+package channel.state;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+/**
+ * Tests for the journaled moderation state.
+ */
+public class ModerationStateTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void replaysMutationsAfterReopening() throws IOException {
+        Path directory = temporaryFolder.getRoot().toPath();
+        try(ModerationState state = ModerationState.open(directory)) {
+            Assert.assertTrue(state.isEmpty());
+            state.put("words", "kappa", "");
+            state.put("words", "spam", "");
+            state.put("bans", "user1", "20");
+            state.put("bans", "user1", "45");
+            state.remove("words", "kappa");
+            state.put("repeater", "0", "hello");
+            state.clear("repeater");
+        }
+        try(ModerationState state = ModerationState.open(directory)) {
+            Assert.assertFalse(state.isEmpty());
+            Assert.assertEquals(ImmutableMap.of("spam", ""), state.get("words"));
+            Assert.assertEquals(ImmutableMap.of("user1", "45"), state.get("bans"));
+            Assert.assertTrue(state.get("repeater").isEmpty());
+        }
+    }
+
+    @Test
+    public void keepsInsertionOrderWithUpdatesMovedToTheEnd() throws IOException {
+        try(ModerationState state = ModerationState.open(temporaryFolder.getRoot().toPath())) {
+            state.put("settings", "maxmsg", "20");
+            state.put("settings", "msgpersec", "3");
+            state.put("settings", "maxmsg", "30");
+            Assert.assertArrayEquals(new String[]{"msgpersec", "maxmsg"},
+                    state.get("settings").keySet().toArray(new String[0]));
+        }
+    }
+
+    @Test
+    public void compactsIntoSnapshot() throws IOException {
+        Path directory = temporaryFolder.getRoot().toPath();
+        try(ModerationState state = ModerationState.open(directory, 4096)) {
+            for(int i = 0; i < 5000; i++) state.put("bans", "user" + (i % 50), String.valueOf(i));
+        }
+        Assert.assertTrue(Files.exists(directory.resolve(ModerationJournal.SNAPSHOT_FILE)));
+        try(Stream<Path> files = Files.list(directory)) {
+            Assert.assertEquals(1, files.filter(file -> file.getFileName().toString().startsWith("journal-")).count());
+        }
+        try(ModerationState state = ModerationState.open(directory, 4096)) {
+            Assert.assertEquals(50, state.get("bans").size());
+            Assert.assertEquals("4999", state.get("bans").get("user49"));
+        }
+    }
+
+    @Test
+    public void ignoresTornRecord() throws IOException {
+        Path directory = temporaryFolder.getRoot().toPath();
+        try(ModerationState state = ModerationState.open(directory)) {
+            state.put("words", "first", "");
+            state.put("words", "second", "");
+        }
+        // Corrupt the last byte of the second record's body.
+        try(RandomAccessFile journal = new RandomAccessFile(directory.resolve("journal-0.log").toFile(), "rw")) {
+            journal.seek(0);
+            int firstLength = journal.readInt();
+            long secondRecord = 8 + firstLength;
+            journal.seek(secondRecord);
+            int secondLength = journal.readInt();
+            journal.seek(secondRecord + 8 + secondLength - 1);
+            journal.write(0x7f);
+        }
+        try(ModerationState state = ModerationState.open(directory)) {
+            Assert.assertEquals(ImmutableMap.of("first", ""), state.get("words"));
+            state.put("words", "third", "");
+        }
+        try(ModerationState state = ModerationState.open(directory)) {
+            Assert.assertEquals(ImmutableMap.of("first", "", "third", ""), state.get("words"));
+        }
+    }
+
+    @Test
+    public void movesUnreadableSnapshotAsideAndKeepsPersisting() throws IOException {
+        Path directory = temporaryFolder.getRoot().toPath();
+        try(ModerationState state = ModerationState.open(directory, 4096)) {
+            for(int i = 0; i < 5000; i++) state.put("bans", "user" + (i % 50), String.valueOf(i));
+        }
+        // As if power was lost after the rename but before the snapshot's bytes reached the disk.
+        try(RandomAccessFile snapshot = new RandomAccessFile(directory.resolve(ModerationJournal.SNAPSHOT_FILE).toFile(), "rw")) {
+            snapshot.setLength(snapshot.length() / 2);
+        }
+        try(ModerationState state = ModerationState.open(directory, 4096)) {
+            Assert.assertTrue(state.isEmpty());
+            state.put("words", "spam", "");
+        }
+        try(Stream<Path> files = Files.list(directory)) {
+            Assert.assertEquals(1, files.filter(file -> file.getFileName().toString().startsWith("unreadable-"))
+                    .filter(quarantine -> Files.exists(quarantine.resolve(ModerationJournal.SNAPSHOT_FILE))).count());
+        }
+        try(ModerationState state = ModerationState.open(directory, 4096)) {
+            Assert.assertEquals(ImmutableMap.of("spam", ""), state.get("words"));
+        }
+    }
+
+    @Test
+    public void inMemoryStateWorksWithoutJournal() throws IOException {
+        try(ModerationState state = ModerationState.inMemory()) {
+            state.put("words", "kappa", "");
+            Assert.assertEquals(1, state.get("words").size());
+        }
+    }
+}
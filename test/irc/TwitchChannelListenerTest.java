@@ -0,0 +1,53 @@
+package irc;
+
+import org.junit.Assert;
+import org.junit.Test;
+import util.metrics.MetricRegistry;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests messages are routed to the output of their own channel.
+ */
+public class TwitchChannelListenerTest {
+
+    private static TwitchChannelListener listener() {
+        return new TwitchChannelListener("#busy,#quiet", "bot", "oauth", "irc.example.com", 6667, new MetricRegistry());
+    }
+
+    @Test
+    public void busyChannelDoesNotHoldUpAnother() throws Exception {
+        TwitchChannelListener listener = listener();
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch quietReceived = new CountDownLatch(1);
+        List<String> quietPayloads = new CopyOnWriteArrayList<>();
+        listener.addChannelOutput("#busy", message -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        listener.addChannelOutput("#Quiet", message -> {
+            quietPayloads.add(message.getMessagePayload());
+            quietReceived.countDown();
+        });
+        for(int i = 0; i < 100; i++) listener.onMessage("#busy", "raider" + i, "", "", "spam");
+        listener.onMessage("#QUIET", "viewer", "", "", "hello");
+        Assert.assertTrue(quietReceived.await(1, TimeUnit.SECONDS));
+        Assert.assertEquals(1, quietPayloads.size());
+        Assert.assertEquals("hello", quietPayloads.get(0));
+        Assert.assertTrue(listener.getPendingMessageCount() >= 98);
+        release.countDown();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsSecondOutputForChannel() {
+        TwitchChannelListener listener = listener();
+        listener.addChannelOutput("#busy", message -> {});
+        listener.addChannelOutput("#BUSY", message -> {});
+    }
+}
@@ -8,6 +8,8 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -77,4 +79,55 @@ public class AsyncEventBufferTest {
         Thread.sleep(950);
         Assert.assertFalse("Sending message before time up", asyncEventBuffer.addMessage());
     }
+
+    @Test
+    public void TestManualClockWindow() {
+        AtomicLong clock = new AtomicLong(0);
+        AsyncEventBuffer buffer = new AsyncEventBuffer(2, 1000, clock::get);
+        Assert.assertTrue(buffer.tryAcquire());
+        clock.set(400);
+        Assert.assertTrue(buffer.tryAcquire());
+        Assert.assertFalse("Window full", buffer.tryAcquire());
+        Assert.assertEquals(600, buffer.nanosUntilNextPermit());
+        clock.set(1000);
+        Assert.assertTrue("First event expired", buffer.tryAcquire());
+        Assert.assertFalse("Second event still live", buffer.tryAcquire());
+        Assert.assertEquals(400, buffer.nanosUntilNextPermit());
+    }
+
+    @Test
+    public void TestBatchAcquire() {
+        AtomicLong clock = new AtomicLong(0);
+        AsyncEventBuffer buffer = new AsyncEventBuffer(5, 1000, clock::get);
+        Assert.assertTrue(buffer.tryAcquire(3));
+        Assert.assertFalse("Batch must be admitted whole", buffer.tryAcquire(3));
+        Assert.assertTrue(buffer.tryAcquire(2));
+        Assert.assertFalse(buffer.tryAcquire());
+        clock.set(1000);
+        Assert.assertTrue(buffer.tryAcquire(5));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void TestBatchLargerThanWindow() {
+        new AsyncEventBuffer(5, 1).tryAcquire(6);
+    }
+
+    @Test
+    public void TestContendedAdmissionsNeverExceedWindow() throws Exception {
+        AsyncEventBuffer buffer = new AsyncEventBuffer(100, 1000, () -> 0L);
+        AtomicInteger admitted = new AtomicInteger();
+        ExecutorService threadPool = Executors.newFixedThreadPool(16);
+        CountDownLatch start = new CountDownLatch(1);
+        IntStream.range(0, 16).forEach(thread -> threadPool.submit(() -> {
+            start.await();
+            for(int attempt = 0; attempt < 1000; attempt++) {
+                if(buffer.tryAcquire()) admitted.incrementAndGet();
+            }
+            return null;
+        }));
+        start.countDown();
+        threadPool.shutdown();
+        Assert.assertTrue(threadPool.awaitTermination(5, TimeUnit.SECONDS));
+        Assert.assertEquals(100, admitted.get());
+    }
 }
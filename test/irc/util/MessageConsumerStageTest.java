@@ -0,0 +1,67 @@
+package irc.util;
+
+import channel.data.TwitchMessage;
+import org.joda.time.DateTime;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Tests messages are handed off to consumers without blocking the supplier.
+ */
+public class MessageConsumerStageTest {
+
+    private static TwitchMessage message(int id) {
+        return new TwitchMessage("Message Number " + id, "foobar", DateTime.now());
+    }
+
+    @Test
+    public void deliversInOrder() throws Exception {
+        List<String> received = new CopyOnWriteArrayList<>();
+        CountDownLatch latch = new CountDownLatch(100);
+        MessageConsumerStage stage = new MessageConsumerStage(100, message -> {
+            received.add(message.getMessagePayload());
+            latch.countDown();
+        }, Executors.newSingleThreadExecutor());
+        stage.start();
+        for(int id = 0; id < 100; id++) stage.accept(message(id));
+        Assert.assertTrue(latch.await(1, TimeUnit.SECONDS));
+        for(int id = 0; id < 100; id++) Assert.assertEquals("Message Number " + id, received.get(id));
+    }
+
+    @Test
+    public void slowConsumerNeverBlocksSupplier() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        MessageConsumerStage stage = new MessageConsumerStage(10, message -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, Executors.newSingleThreadExecutor());
+        stage.start();
+        long start = System.nanoTime();
+        for(int id = 0; id < 1000; id++) stage.accept(message(id));
+        Assert.assertTrue("Hand off must not wait for the consumer",
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 500);
+        Assert.assertTrue(stage.getQueueDepth() <= 10);
+        Assert.assertTrue(stage.getDroppedMessageCount() >= 989);
+        release.countDown();
+    }
+
+    @Test
+    public void failingConsumerKeepsRunning() throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        MessageConsumerStage stage = new MessageConsumerStage(10, message -> {
+            if(message.getMessagePayload().endsWith("0")) throw new IllegalStateException("Test failure");
+            latch.countDown();
+        }, Executors.newSingleThreadExecutor());
+        stage.start();
+        stage.accept(message(0));
+        stage.accept(message(1));
+        Assert.assertTrue(latch.await(1, TimeUnit.SECONDS));
+        Assert.assertEquals(1, stage.getFailedMessageCount());
+    }
+}
@@ -0,0 +1,155 @@
+package irc.util;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Tests the bounded outbound queue and its overflow policies.
+ */
+public class OutboundMessageQueueTest {
+
+    private List<String> sentMessages;
+    private ThreadFactory threadFactory;
+
+    @Before
+    public void setUp() {
+        sentMessages = new CopyOnWriteArrayList<>();
+        threadFactory = Executors.defaultThreadFactory();
+    }
+
+    private OutboundMessageQueue createQueue(OverflowPolicy overflowPolicy) {
+        return new OutboundMessageQueue(2, overflowPolicy, new AsyncEventBuffer(10, 1),
+                (recipient, payload) -> sentMessages.add(payload), () -> 0L);
+    }
+
+    @Test
+    public void testDropNewest() throws Exception {
+        OutboundMessageQueue queue = createQueue(OverflowPolicy.DropNewest);
+        CompletableFuture<Void> first = queue.offer("#channel", "1");
+        queue.offer("#channel", "2");
+        CompletableFuture<Void> third = queue.offer("#channel", "3");
+        Assert.assertTrue("Newest message dropped", third.isCompletedExceptionally());
+        queue.start(threadFactory);
+        first.get(1, TimeUnit.SECONDS);
+        queue.offer("#channel", "4").get(1, TimeUnit.SECONDS);
+        Assert.assertEquals(3, sentMessages.size());
+        Assert.assertEquals("1", sentMessages.get(0));
+        Assert.assertEquals(1, queue.getDroppedMessageCount());
+        queue.stop();
+    }
+
+    @Test
+    public void testDropOldest() throws Exception {
+        OutboundMessageQueue queue = createQueue(OverflowPolicy.DropOldest);
+        CompletableFuture<Void> first = queue.offer("#channel", "1");
+        queue.offer("#channel", "2");
+        CompletableFuture<Void> third = queue.offer("#channel", "3");
+        Assert.assertTrue("Oldest message dropped", first.isCompletedExceptionally());
+        queue.start(threadFactory);
+        third.get(1, TimeUnit.SECONDS);
+        Assert.assertEquals("2", sentMessages.get(0));
+        Assert.assertEquals("3", sentMessages.get(1));
+        queue.stop();
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void testReject() {
+        OutboundMessageQueue queue = createQueue(OverflowPolicy.Reject);
+        queue.offer("#channel", "1");
+        queue.offer("#channel", "2");
+        queue.offer("#channel", "3");
+    }
+
+    @Test
+    public void testRateLimited() throws Exception {
+        OutboundMessageQueue queue = new OutboundMessageQueue(10, OverflowPolicy.Reject, new AsyncEventBuffer(2, 1),
+                (recipient, payload) -> sentMessages.add(payload), () -> 0L);
+        queue.start(threadFactory);
+        queue.offer("#channel", "1");
+        queue.offer("#channel", "2");
+        CompletableFuture<Void> third = queue.offer("#channel", "3");
+        Thread.sleep(500);
+        Assert.assertEquals("Only two messages allowed per window", 2, sentMessages.size());
+        third.get(2, TimeUnit.SECONDS);
+        Assert.assertEquals(3, sentMessages.size());
+        queue.stop();
+    }
+
+    @Test
+    public void testModerationSentFirst() throws Exception {
+        OutboundMessageQueue queue = new OutboundMessageQueue(new AsyncEventBuffer(10, 1),
+                (recipient, payload) -> sentMessages.add(payload), () -> 0L);
+        queue.offer("#channel", "promo", MessagePriority.Promotion);
+        queue.offer("#channel", "link", MessagePriority.LinkRepeat);
+        queue.offer("#channel", "reply", MessagePriority.CommandReply);
+        CompletableFuture<Void> timeout = queue.offer("#channel", ".timeout user 20", MessagePriority.Moderation);
+        queue.start(threadFactory);
+        timeout.get(1, TimeUnit.SECONDS);
+        Assert.assertEquals(".timeout user 20", sentMessages.get(0));
+        queue.offer("#channel", "last", MessagePriority.Promotion).get(1, TimeUnit.SECONDS);
+        Assert.assertEquals("reply", sentMessages.get(1));
+        Assert.assertEquals("link", sentMessages.get(2));
+        Assert.assertEquals("promo", sentMessages.get(3));
+        queue.stop();
+    }
+
+    @Test
+    public void testCoalesceDuplicates() {
+        OutboundMessageQueue queue = new OutboundMessageQueue(new AsyncEventBuffer(10, 1),
+                (recipient, payload) -> sentMessages.add(payload), () -> 0L);
+        CompletableFuture<Void> first = queue.offer("#channel", "reply", MessagePriority.CommandReply);
+        CompletableFuture<Void> second = queue.offer("#channel", "reply", MessagePriority.CommandReply);
+        queue.offer("#channel", "link", MessagePriority.LinkRepeat);
+        queue.offer("#channel", "link", MessagePriority.LinkRepeat);
+        Assert.assertSame("Identical replies share a send", first, second);
+        Assert.assertEquals(1, queue.getQueueDepth(MessagePriority.CommandReply));
+        Assert.assertEquals("Link repeats are never coalesced", 2, queue.getQueueDepth(MessagePriority.LinkRepeat));
+        Assert.assertEquals(1, queue.getCoalescedMessageCount());
+    }
+
+    @Test
+    public void testRecipientBudget() throws Exception {
+        OutboundMessageQueue queue = new OutboundMessageQueue(new AsyncEventBuffer(10, 1),
+                (recipient, payload) -> sentMessages.add(payload), () -> 0L);
+        queue.setRecipientBudget("#busy", new AsyncEventBuffer(1, 1));
+        queue.offer("#busy", "busy1");
+        CompletableFuture<Void> secondBusy = queue.offer("#busy", "busy2");
+        CompletableFuture<Void> quiet = queue.offer("#quiet", "quiet1");
+        queue.start(threadFactory);
+        quiet.get(500, TimeUnit.MILLISECONDS);
+        Assert.assertEquals("busy1", sentMessages.get(0));
+        Assert.assertEquals("Quiet channel not held back by busy channel", "quiet1", sentMessages.get(1));
+        Assert.assertFalse(secondBusy.isDone());
+        secondBusy.get(2, TimeUnit.SECONDS);
+        queue.stop();
+    }
+
+    @Test
+    public void testLostSlotKeepsRecipientBudget() throws Exception {
+        // The first shared slot is taken by a direct send between the dispatcher checking and taking it.
+        AsyncEventBuffer sharedBudget = new AsyncEventBuffer(10, 1) {
+            private boolean lostFirst = false;
+
+            @Override
+            public boolean tryAcquire() {
+                if(!lostFirst) {
+                    lostFirst = true;
+                    return false;
+                }
+                return super.tryAcquire();
+            }
+        };
+        OutboundMessageQueue queue = new OutboundMessageQueue(sharedBudget,
+                (recipient, payload) -> sentMessages.add(payload), () -> 0L);
+        queue.setRecipientBudget("#channel", new AsyncEventBuffer(1, 30));
+        CompletableFuture<Void> message = queue.offer("#channel", "hello");
+        queue.start(threadFactory);
+        message.get(500, TimeUnit.MILLISECONDS);
+        Assert.assertEquals("hello", sentMessages.get(0));
+        queue.stop();
+    }
+}
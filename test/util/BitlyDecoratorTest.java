@@ -2,11 +2,21 @@ package util;
 
 import com.google.inject.Guice;
 import com.google.inject.Injector;
+import com.rosaloves.bitlyj.Bitly;
+import com.rosaloves.bitlyj.BitlyMethod;
 import org.junit.Assert;
 import org.junit.Test;
+import org.xml.sax.InputSource;
 import util.config.AppInjector;
 import util.config.Environment;
 
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.StringReader;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Created by Dominic Hauton on 25/03/2016.
  *
@@ -25,4 +35,78 @@ public class BitlyDecoratorTest {
                 expectedShortenedURL,
                 actualShortenedURL);
     }
-}
\ No newline at end of file
+
+    /**
+     * Local stand in for bitly. Counts calls and can be held up to simulate a slow response.
+     */
+    private static class StubProvider implements Bitly.Provider {
+        private static final String SHORTEN_RESPONSE = "<response><status_code>200</status_code><data>"
+                + "<url>http://bit.ly/stub</url><hash>stub</hash><global_hash>stub</global_hash>"
+                + "<long_url>http://www.example.com</long_url><new_hash>0</new_hash></data></response>";
+
+        private final AtomicInteger callCount = new AtomicInteger();
+        private final CountDownLatch release;
+        private final boolean fail;
+
+        private StubProvider(CountDownLatch release, boolean fail) {
+            this.release = release;
+            this.fail = fail;
+        }
+
+        @Override
+        public <A> A call(BitlyMethod<A> bitlyMethod) {
+            callCount.incrementAndGet();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if(fail) throw new IllegalStateException("bitly unavailable");
+            try {
+                return bitlyMethod.apply(this, DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                        .parse(new InputSource(new StringReader(SHORTEN_RESPONSE))));
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public String getUrl() {
+            return "http://localhost";
+        }
+    }
+
+    @Test
+    public void shortenURLAsyncCachesAndSharesRequests() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        StubProvider stubProvider = new StubProvider(release, false);
+        BitlyDecorator bitlyDecorator = new BitlyDecorator(stubProvider, 5000);
+        CompletableFuture<String> first = bitlyDecorator.shortenURLAsync("http://www.example.com");
+        CompletableFuture<String> second = bitlyDecorator.shortenURLAsync("http://www.example.com");
+        release.countDown();
+        Assert.assertEquals("http://bit.ly/stub", first.get(1, TimeUnit.SECONDS));
+        Assert.assertEquals("http://bit.ly/stub", second.get(1, TimeUnit.SECONDS));
+        Assert.assertEquals("http://bit.ly/stub", bitlyDecorator.shortenURLAsync("http://www.example.com").get(1, TimeUnit.SECONDS));
+        Assert.assertEquals("Concurrent and repeated requests share one call", 1, stubProvider.callCount.get());
+    }
+
+    @Test
+    public void shortenURLAsyncFallsBackOnTimeout() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        BitlyDecorator bitlyDecorator = new BitlyDecorator(new StubProvider(release, false), 50);
+        Assert.assertEquals("http://www.example.com",
+                bitlyDecorator.shortenURLAsync("http://www.example.com").get(1, TimeUnit.SECONDS));
+        release.countDown();
+    }
+
+    @Test
+    public void shortenURLAsyncFallsBackOnFailureAndRetries() throws Exception {
+        StubProvider stubProvider = new StubProvider(new CountDownLatch(0), true);
+        BitlyDecorator bitlyDecorator = new BitlyDecorator(stubProvider, 1000);
+        Assert.assertEquals("http://www.example.com",
+                bitlyDecorator.shortenURLAsync("http://www.example.com").get(1, TimeUnit.SECONDS));
+        Assert.assertEquals("http://www.example.com",
+                bitlyDecorator.shortenURLAsync("http://www.example.com").get(1, TimeUnit.SECONDS));
+        Assert.assertEquals("Failures are not cached", 2, stubProvider.callCount.get());
+    }
+}
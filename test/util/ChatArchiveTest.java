@@ -0,0 +1,75 @@
+package util;
+
+import channel.data.TwitchMessage;
+import channel.data.TwitchUser;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Tests for the asynchronous chat archive.
+ */
+public class ChatArchiveTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void writesEscapedLinesToHourlyFiles() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        ChatArchive chatArchive = new ChatArchive(directory, 16);
+        DateTime firstHour = new DateTime(2016, 4, 1, 10, 59, DateTimeZone.UTC);
+        chatArchive.logMessage(new TwitchMessage("hello\tworld", new TwitchUser("user1"), firstHour, "#channel"));
+        chatArchive.logMessage(new TwitchMessage("back\\slash\nline", new TwitchUser("user2"), firstHour.plusMinutes(2), "#channel"));
+        chatArchive.close();
+
+        List<String> first = Files.readAllLines(directory.resolve("chat-2016-04-01-10.log"), StandardCharsets.UTF_8);
+        Assert.assertEquals(1, first.size());
+        Assert.assertEquals(firstHour.getMillis() + "\tM\t#channel\tuser1\thello\\tworld", first.get(0));
+        List<String> second = Files.readAllLines(directory.resolve("chat-2016-04-01-11.log"), StandardCharsets.UTF_8);
+        Assert.assertEquals(1, second.size());
+        Assert.assertTrue(second.get(0).endsWith("\tuser2\tback\\\\slash\\nline"));
+        Assert.assertEquals(2, chatArchive.getWrittenEntryCount());
+    }
+
+    @Test
+    public void formatsActionsOnWrite() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        ChatArchive chatArchive = new ChatArchive(directory, 16);
+        chatArchive.logAction("#channel", "Timeout {} for {}s", "spammer", 45);
+        chatArchive.logSent("#channel", "Welcome");
+        chatArchive.close();
+
+        List<String> lines = Files.list(directory)
+                .flatMap(file -> {
+                    try {
+                        return Files.readAllLines(file, StandardCharsets.UTF_8).stream();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                })
+                .map(line -> line.substring(line.indexOf('\t') + 1))
+                .collect(Collectors.toList());
+        Assert.assertTrue(lines.contains("A\t#channel\t\tTimeout spammer for 45s"));
+        Assert.assertTrue(lines.contains("S\t#channel\t\tWelcome"));
+    }
+
+    @Test
+    public void dropsEntriesOnceClosed() {
+        ChatArchive chatArchive = new ChatArchive(folder.getRoot().toPath(), 16);
+        chatArchive.close();
+        Assert.assertFalse(chatArchive.logSent("#channel", "late"));
+        Assert.assertEquals(1, chatArchive.getDroppedEntryCount());
+    }
+}
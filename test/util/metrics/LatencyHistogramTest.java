@@ -0,0 +1,73 @@
+package util.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests for the lock-free latency histogram.
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketsCoverEveryValueInOrder() {
+        long previousHighest = -1;
+        for(long value : new long[]{0, 1, 15, 16, 17, 31, 32, 40, 1000, 123456789, Long.MAX_VALUE}) {
+            int index = LatencyHistogram.bucketIndex(value);
+            long highest = LatencyHistogram.highestValueInBucket(index);
+            Assert.assertTrue(value + " above its bucket", value <= highest);
+            Assert.assertTrue(value + " below its bucket", index == 0 || value > LatencyHistogram.highestValueInBucket(index - 1));
+            Assert.assertTrue(highest >= previousHighest);
+            previousHighest = highest;
+        }
+    }
+
+    @Test
+    public void quantilesAreWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Random random = new Random(7);
+        List<Long> values = new ArrayList<>();
+        for(int i = 0; i < 10000; i++) {
+            long value = (long) (Math.exp(random.nextDouble() * 15) * 1000);
+            values.add(value);
+            histogram.record(value);
+        }
+        values.sort(null);
+        Assert.assertEquals(10000, histogram.getCount());
+        Assert.assertEquals((long) values.get(values.size() - 1), histogram.getMaxNanos());
+        for(double quantile : new double[]{0.5, 0.9, 0.99}) {
+            long exact = values.get((int) Math.ceil(quantile * values.size()) - 1);
+            long reported = histogram.getValueAtQuantile(quantile);
+            Assert.assertTrue(reported >= exact);
+            Assert.assertTrue(quantile + ": " + reported + " vs " + exact, reported <= exact + exact / 16 + 1);
+        }
+    }
+
+    @Test
+    public void recordsConcurrently() throws InterruptedException {
+        LatencyHistogram histogram = new LatencyHistogram();
+        List<Thread> threads = new ArrayList<>();
+        for(int t = 0; t < 4; t++) {
+            Thread thread = new Thread(() -> {
+                for(int i = 0; i < 25000; i++) histogram.record(i);
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for(Thread thread : threads) thread.join();
+        Assert.assertEquals(100000, histogram.getCount());
+        Assert.assertEquals(4L * (24999L * 25000L / 2), histogram.getTotalNanos());
+        Assert.assertEquals(24999, histogram.getMaxNanos());
+    }
+
+    @Test
+    public void emptyHistogramReportsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        Assert.assertEquals(0, histogram.getValueAtQuantile(1));
+        Assert.assertEquals(0, new LatencyHistogram().getValueAtQuantile(0.5));
+    }
+}
@@ -0,0 +1,64 @@
+package util.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for the metric registry and its Prometheus endpoint.
+ */
+public class MetricRegistryTest {
+
+    @Test
+    public void writesPrometheusText() {
+        MetricRegistry registry = new MetricRegistry();
+        registry.counter("bot_timeouts_total", "Timeouts", "channel", "#a", "rule", "say \"hi\"").add(3);
+        registry.gauge("queue_depth", "Depth", () -> 7);
+        registry.histogram("stage_seconds", "Stage time", "stage", "spam").record(TimeUnit.MILLISECONDS.toNanos(2));
+
+        String text = registry.toPrometheusText();
+        Assert.assertTrue(text.contains("# TYPE bot_timeouts_total counter\n"));
+        Assert.assertTrue(text.contains("bot_timeouts_total{channel=\"#a\",rule=\"say \\\"hi\\\"\"} 3\n"));
+        Assert.assertTrue(text.contains("queue_depth 7\n"));
+        Assert.assertTrue(text.contains("# TYPE stage_seconds summary\n"));
+        Assert.assertTrue(text.contains("stage_seconds{stage=\"spam\",quantile=\"0.5\"} 0.002"));
+        Assert.assertTrue(text.contains("stage_seconds_count{stage=\"spam\"} 1\n"));
+    }
+
+    @Test
+    public void returnsTheSameMetricForTheSameLabels() {
+        MetricRegistry registry = new MetricRegistry();
+        Assert.assertSame(registry.counter("a_total", "A", "x", "1"), registry.counter("a_total", "A", "x", "1"));
+        Assert.assertNotSame(registry.counter("a_total", "A", "x", "1"), registry.counter("a_total", "A", "x", "2"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTypeConflicts() {
+        MetricRegistry registry = new MetricRegistry();
+        registry.counter("a_total", "A");
+        registry.histogram("a_total", "A");
+    }
+
+    @Test
+    public void servesMetricsOverHttp() throws Exception {
+        MetricRegistry registry = new MetricRegistry();
+        registry.counter("served_total", "Served").increment();
+        MetricsReporter reporter = new MetricsReporter(registry, 0, 0);
+        reporter.start();
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + reporter.getPort() + "/metrics").openConnection();
+            Assert.assertEquals(200, connection.getResponseCode());
+            try (InputStream body = connection.getInputStream(); Scanner scanner = new Scanner(body, StandardCharsets.UTF_8.name())) {
+                Assert.assertTrue(scanner.useDelimiter("\\A").next().contains("served_total 1\n"));
+            }
+        } finally {
+            reporter.stop();
+        }
+    }
+}